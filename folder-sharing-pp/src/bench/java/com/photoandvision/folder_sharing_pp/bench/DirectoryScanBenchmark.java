@@ -0,0 +1,106 @@
+package com.photoandvision.folder_sharing_pp.bench;
+
+import com.photoandvision.folder_sharing_pp.service.DirectoryListingService;
+import com.photoandvision.folder_sharing_pp.service.FolderMetadataCache;
+import com.photoandvision.folder_sharing_pp.storage.LocalStorageBackend;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// Lettura di una cartella con molti file: elenco originale con File.listFiles, lettura con DirectoryStream
+// senza cache e pagina servita dalla FolderMetadataCache
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DirectoryScanBenchmark {
+
+    private static final String FOLDER = "bench";
+
+    @Param({ "1000", "10000", "100000" })
+    public int files;
+
+    private Path root;
+    private DirectoryListingService uncached;
+    private DirectoryListingService cached;
+
+    @Setup(Level.Trial)
+    public void createFolder() throws IOException {
+        root = Files.createTempDirectory("folder-scan-bench");
+        Path folder = Files.createDirectories(root.resolve(FOLDER));
+        for (int i = 0; i < files; i++) {
+            // Un file su dieci non è un'immagine, come i sidecar XMP delle sessioni reali
+            String name = i % 10 == 0 ? "DSC_" + i + ".xmp" : "DSC_" + i + ".jpg";
+            Files.createFile(folder.resolve(name));
+        }
+
+        String uploadDir = root + File.separator;
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        LocalStorageBackend storage = new LocalStorageBackend(new String[]{uploadDir}, 0);
+        uncached = new DirectoryListingService(storage, new FolderMetadataCache(1_000_000, 0, false), null, null, registry, "storage"); // Età massima 0: ogni lettura va sul disco
+        cached = new DirectoryListingService(storage, new FolderMetadataCache(1_000_000, 3600, false), null, null, registry, "storage");
+        cached.listImages(FOLDER, DirectoryListingService.SortOrder.NAME, null, 1); // Riscalda la cache
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFolder() throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    // Comportamento originale di FolderController.getImagesByFolder: tutti i nomi in una lista
+    @Benchmark
+    public List<String> listFilesLegacy() {
+        List<String> names = new ArrayList<>();
+        File[] entries = root.resolve(FOLDER).toFile().listFiles();
+        if (entries != null) {
+            for (File entry : entries) {
+                if (DirectoryListingService.isImageFile(entry.getName())) {
+                    names.add(entry.getName());
+                }
+            }
+        }
+        return names;
+    }
+
+    @Benchmark
+    public DirectoryListingService.ListingPage firstPageUncached() throws IOException {
+        return uncached.listImages(FOLDER, DirectoryListingService.SortOrder.NAME, null, 1000);
+    }
+
+    @Benchmark
+    public DirectoryListingService.ListingPage firstPageCached() throws IOException {
+        return cached.listImages(FOLDER, DirectoryListingService.SortOrder.NAME, null, 1000);
+    }
+
+    @Benchmark
+    public DirectoryListingService.ListingPage firstPageByMtimeCached() throws IOException {
+        return cached.listImages(FOLDER, DirectoryListingService.SortOrder.MTIME, null, 1000);
+    }
+}
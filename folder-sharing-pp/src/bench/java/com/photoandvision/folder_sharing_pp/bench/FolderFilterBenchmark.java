@@ -0,0 +1,147 @@
+package com.photoandvision.folder_sharing_pp.bench;
+
+import com.photoandvision.folder_sharing_pp.FolderSharingPpApplication;
+import com.photoandvision.folder_sharing_pp.entity.Folder;
+import com.photoandvision.folder_sharing_pp.entity.Image;
+import com.photoandvision.folder_sharing_pp.repo.ImageRepository;
+import com.photoandvision.folder_sharing_pp.repo.ImageSummary;
+import com.photoandvision.folder_sharing_pp.service.FolderService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// Filtro per cartella sulle righe Image, sul database H2 del profilo bench: scansione di tutte le immagini con
+// url.startsWith (implementazione originale di ImageUploadController.getImagesByFolder) contro il percorso attuale,
+// cioè la cartella letta per nome e la query paginata sull'indice (folder_id, name)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = { "-Xmx4g" })
+public class FolderFilterBenchmark {
+
+    private static final int FOLDERS = 200;
+    private static final int PAGE_SIZE = 200; // Pagina predefinita di getImagesByFolder
+    private static final int INSERT_BATCH = 1000;
+
+    @Param({ "10000", "100000" })
+    public int totalImages;
+
+    private Path root;
+    private ConfigurableApplicationContext context;
+    private ImageRepository imageRepository;
+    private FolderService folderService;
+    private String folderName;
+    private String folderPath;
+
+    @Setup(Level.Trial)
+    public void createImages() throws IOException {
+        root = Files.createTempDirectory("folder-filter-bench");
+        context = new SpringApplicationBuilder(FolderSharingPpApplication.class)
+                .profiles("bench")
+                .run("--upload.dir=" + root + File.separator,
+                        "--thumbnail.cache.dir=" + root.resolve(".thumbnails"),
+                        "--server.port=0"); // Contesto web completo: SecurityConfig richiede HttpSecurity
+        imageRepository = context.getBean(ImageRepository.class);
+        folderService = context.getBean(FolderService.class);
+        TransactionTemplate transaction = new TransactionTemplate(context.getBean(PlatformTransactionManager.class));
+
+        List<Folder> folders = new ArrayList<>(FOLDERS);
+        for (int f = 0; f < FOLDERS; f++) {
+            folders.add(folderService.findOrCreate("shoot-" + f));
+        }
+        for (int offset = 0; offset < totalImages; offset += INSERT_BATCH) {
+            int first = offset;
+            int count = Math.min(INSERT_BATCH, totalImages - offset);
+            transaction.executeWithoutResult(status -> {
+                List<Image> images = new ArrayList<>(count);
+                for (int i = first; i < first + count; i++) {
+                    Folder folder = folders.get(i % FOLDERS);
+                    Image image = new Image();
+                    image.setName("DSC_" + i + ".jpg");
+                    image.setUrl(root + File.separator + folder.getName() + File.separator + image.getName());
+                    image.setFolder(folder);
+                    image.setSize(1_000_000L + i);
+                    image.setLastModified(System.currentTimeMillis());
+                    images.add(image);
+                }
+                imageRepository.saveAll(images);
+            });
+        }
+        folderName = "shoot-" + (FOLDERS / 2);
+        folderPath = root + File.separator + folderName + File.separator;
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws IOException {
+        context.close();
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    // Comportamento originale: tutte le righe in memoria e filtro sul percorso
+    @Benchmark
+    public List<Image> startsWithScanLegacy() {
+        List<Image> imagesInFolder = new ArrayList<>();
+        for (Image image : imageRepository.findAll()) {
+            if (image.getUrl().startsWith(folderPath)) {
+                imagesInFolder.add(image);
+            }
+        }
+        return imagesInFolder;
+    }
+
+    // Prima pagina, come una richiesta di getImagesByFolder
+    @Benchmark
+    public List<ImageSummary> indexedFirstPage() {
+        Folder folder = folderService.getFolderByName(folderName).orElseThrow();
+        return imageRepository.findByFolderId(folder.getId(), PageRequest.of(0, PAGE_SIZE, Sort.by("name", "id"))).getContent();
+    }
+
+    // Tutte le pagine della cartella: stesso risultato della scansione originale
+    @Benchmark
+    public List<ImageSummary> indexedAllPages() {
+        Folder folder = folderService.getFolderByName(folderName).orElseThrow();
+        List<ImageSummary> images = new ArrayList<>();
+        Pageable page = PageRequest.of(0, PAGE_SIZE, Sort.by("name", "id"));
+        Slice<ImageSummary> slice;
+        do {
+            slice = imageRepository.findByFolderId(folder.getId(), page);
+            images.addAll(slice.getContent());
+            page = slice.nextPageable();
+        } while (slice.hasNext());
+        return images;
+    }
+}
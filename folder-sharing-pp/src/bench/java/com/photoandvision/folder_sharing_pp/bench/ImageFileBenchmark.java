@@ -0,0 +1,53 @@
+package com.photoandvision.folder_sharing_pp.bench;
+
+import com.photoandvision.folder_sharing_pp.service.DirectoryListingService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Costo del controllo dell'estensione, eseguito per ogni voce di ogni directory letta
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ImageFileBenchmark {
+
+    private static final String[] EXTENSIONS = { "jpg", "JPG", "jpeg", "png", "gif", "bmp", "tiff", "NEF", "CR2", "txt", "xmp", "mp4" };
+
+    private String[] names;
+
+    @Setup
+    public void createNames() {
+        Random random = new Random(42);
+        names = new String[1024];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = "DSC_" + (10000 + random.nextInt(90000)) + "." + EXTENSIONS[random.nextInt(EXTENSIONS.length)];
+        }
+    }
+
+    // Restituisce il conteggio per evitare che il JIT elimini il lavoro
+    @Benchmark
+    @OperationsPerInvocation(1024)
+    public int isImageFile() {
+        int images = 0;
+        for (String name : names) {
+            if (DirectoryListingService.isImageFile(name)) {
+                images++;
+            }
+        }
+        return images;
+    }
+}
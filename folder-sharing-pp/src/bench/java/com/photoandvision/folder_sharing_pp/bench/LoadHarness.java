@@ -0,0 +1,331 @@
+package com.photoandvision.folder_sharing_pp.bench;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.photoandvision.folder_sharing_pp.FolderSharingPpApplication;
+import com.photoandvision.folder_sharing_pp.security.JwtService;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Stream;
+
+// Test di carico end-to-end: avvia l'applicazione su una porta casuale con un database H2 in memoria,
+// genera una cartella sintetica e misura latenze (p50/p99) e throughput di elenco, download e upload.
+// I risultati vengono scritti in JSON per confrontare due esecuzioni (es. thread virtuali contro thread di piattaforma):
+//   mvn -Pbench test-compile exec:java@load -Dbench.images=10000 -Dbench.concurrency=64
+//   mvn -Pbench test-compile exec:java@load -Dexec.args="compare target/bench-results/a.json target/bench-results/b.json"
+public class LoadHarness {
+
+    private static final String FOLDER = "bench";
+    private static final String UPLOAD_FOLDER = "bench-upload";
+    private static final ObjectMapper objectMapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+    // Richiesta eseguita da un client: worker e iteration permettono di variare il contenuto
+    @FunctionalInterface
+    interface RequestFactory {
+        HttpRequest create(int worker, long iteration) throws IOException;
+    }
+
+    public record ScenarioResult(String name, long requests, long errors, double throughputPerSecond,
+                                 double p50Millis, double p90Millis, double p99Millis, double maxMillis) {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 3 && "compare".equals(args[0])) {
+            compare(Paths.get(args[1]), Paths.get(args[2]));
+            return;
+        }
+
+        int images = Integer.getInteger("bench.images", 1000);
+        int concurrency = Integer.getInteger("bench.concurrency", 32);
+        int warmupSeconds = Integer.getInteger("bench.warmup-seconds", 5);
+        int durationSeconds = Integer.getInteger("bench.duration-seconds", 20);
+        int filesPerUpload = Integer.getInteger("bench.files-per-upload", 5);
+        boolean virtualThreads = Boolean.parseBoolean(System.getProperty("bench.virtual-threads", "true"));
+        Path resultsDir = Paths.get(System.getProperty("bench.results-dir", "target/bench-results"));
+
+        Path root = Files.createTempDirectory("folder-sharing-bench");
+        Path thumbnails = Files.createTempDirectory("folder-sharing-bench-thumbnails");
+        byte[] jpeg = syntheticJpeg(1600, 1200);
+        List<String> imageNames = createFolder(root.resolve(FOLDER), images, jpeg);
+        System.out.printf("Cartella sintetica con %d immagini in %s%n", images, root);
+
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(FolderSharingPpApplication.class)
+                .profiles("bench")
+                // Argomenti della riga di comando: prevalgono su application.properties, le proprietà predefinite no
+                .run("--upload.dir=" + root + File.separator,
+                        "--thumbnail.cache.dir=" + thumbnails,
+                        "--spring.threads.virtual.enabled=" + virtualThreads,
+                        "--server.port=0");
+
+        try {
+            int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+            String baseUrl = "http://127.0.0.1:" + port;
+            // Token di amministratore firmato con la chiave dell'applicazione: le misure non includono il login
+            String authorization = "Bearer " + context.getBean(JwtService.class).issue(0L, "bench", true).token();
+            HttpClient client = HttpClient.newBuilder()
+                    .executor(Executors.newVirtualThreadPerTaskExecutor())
+                    .connectTimeout(Duration.ofSeconds(10))
+                    .build();
+            Duration warmup = Duration.ofSeconds(warmupSeconds);
+            Duration duration = Duration.ofSeconds(durationSeconds);
+
+            List<ScenarioResult> results = new ArrayList<>();
+            results.add(run("list", client, concurrency, warmup, duration, (worker, iteration) ->
+                    HttpRequest.newBuilder(URI.create(baseUrl + "/api/folders/" + FOLDER + "/images?limit=1000"))
+                            .header("Authorization", authorization).GET().build()));
+            results.add(run("download", client, concurrency, warmup, duration, (worker, iteration) -> {
+                String name = imageNames.get(ThreadLocalRandom.current().nextInt(imageNames.size()));
+                return HttpRequest.newBuilder(URI.create(baseUrl + "/api/folders/" + FOLDER + "/images/" + name))
+                        .header("Authorization", authorization).GET().build();
+            }));
+            results.add(run("upload", client, concurrency, warmup, duration, (worker, iteration) ->
+                    multipartUpload(baseUrl, authorization, jpeg, worker, iteration, filesPerUpload)));
+
+            Map<String, Object> config = new LinkedHashMap<>();
+            config.put("images", images);
+            config.put("concurrency", concurrency);
+            config.put("warmupSeconds", warmupSeconds);
+            config.put("durationSeconds", durationSeconds);
+            config.put("filesPerUpload", filesPerUpload);
+            config.put("virtualThreads", virtualThreads);
+            config.put("javaVersion", Runtime.version().toString());
+            config.put("availableProcessors", Runtime.getRuntime().availableProcessors());
+
+            Map<String, Object> report = new LinkedHashMap<>();
+            report.put("timestamp", LocalDateTime.now().toString());
+            report.put("config", config);
+            report.put("scenarios", results);
+
+            Files.createDirectories(resultsDir);
+            Path output = resultsDir.resolve("load-" + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss")) + ".json");
+            objectMapper.writeValue(output.toFile(), report);
+
+            for (ScenarioResult result : results) {
+                System.out.printf("%-9s %8d req  %6d errori  %9.1f req/s  p50 %7.2f ms  p99 %7.2f ms%n", result.name(),
+                        result.requests(), result.errors(), result.throughputPerSecond(), result.p50Millis(), result.p99Millis());
+            }
+            System.out.println("Risultati salvati in " + output);
+        } finally {
+            context.close();
+            deleteTree(root);
+            deleteTree(thumbnails);
+        }
+    }
+
+    // Esegue lo scenario con "concurrency" client in parallelo: una fase di riscaldamento non misurata, poi la misura
+    static ScenarioResult run(String name, HttpClient client, int concurrency, Duration warmup, Duration duration,
+                              RequestFactory requests) throws Exception {
+        drive(client, concurrency, warmup, requests);
+        long start = System.nanoTime();
+        List<Worker> workers = drive(client, concurrency, duration, requests);
+        double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+
+        long errors = 0;
+        int total = 0;
+        for (Worker worker : workers) {
+            errors += worker.errors;
+            total += worker.count;
+        }
+        long[] latencies = new long[total];
+        int position = 0;
+        for (Worker worker : workers) {
+            System.arraycopy(worker.latencies, 0, latencies, position, worker.count);
+            position += worker.count;
+        }
+        Arrays.sort(latencies);
+
+        return new ScenarioResult(name, total, errors, total / elapsedSeconds,
+                percentile(latencies, 0.50), percentile(latencies, 0.90), percentile(latencies, 0.99),
+                total == 0 ? 0 : latencies[total - 1] / 1e6);
+    }
+
+    private static List<Worker> drive(HttpClient client, int concurrency, Duration duration, RequestFactory requests) throws Exception {
+        long deadline = System.nanoTime() + duration.toNanos();
+        List<Worker> workers = new ArrayList<>(concurrency);
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<?>> futures = new ArrayList<>(concurrency);
+            for (int i = 0; i < concurrency; i++) {
+                Worker worker = new Worker(i);
+                workers.add(worker);
+                futures.add(executor.submit(() -> {
+                    worker.loop(client, deadline, requests);
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        }
+        return workers;
+    }
+
+    // Client che invia richieste in sequenza fino alla scadenza e registra le latenze in nanosecondi
+    private static final class Worker {
+        final int id;
+        long[] latencies = new long[1024];
+        int count;
+        long errors;
+
+        Worker(int id) {
+            this.id = id;
+        }
+
+        void loop(HttpClient client, long deadline, RequestFactory requests) throws IOException, InterruptedException {
+            long iteration = 0;
+            while (System.nanoTime() < deadline) {
+                HttpRequest request = requests.create(id, iteration++);
+                long start = System.nanoTime();
+                try {
+                    HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+                    if (response.statusCode() >= 300) {
+                        errors++;
+                    }
+                } catch (IOException e) {
+                    errors++;
+                }
+                record(System.nanoTime() - start);
+            }
+        }
+
+        void record(long nanos) {
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, count * 2);
+            }
+            latencies[count++] = nanos;
+        }
+    }
+
+    private static double percentile(long[] sorted, double quantile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(quantile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))] / 1e6;
+    }
+
+    // Upload multipart di più file: byte casuali dopo la fine del JPEG rendono ogni contenuto diverso, così la deduplica non scatta
+    private static HttpRequest multipartUpload(String baseUrl, String authorization, byte[] jpeg, int worker, long iteration, int files) throws IOException {
+        String boundary = "bench-" + UUID.randomUUID();
+        ByteArrayOutputStream body = new ByteArrayOutputStream(files * (jpeg.length + 256));
+        for (int i = 0; i < files; i++) {
+            String fileName = "w" + worker + "-" + iteration + "-" + i + ".jpg";
+            body.write(("--" + boundary + "\r\n"
+                    + "Content-Disposition: form-data; name=\"file\"; filename=\"" + fileName + "\"\r\n"
+                    + "Content-Type: image/jpeg\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+            body.write(jpeg);
+            byte[] salt = new byte[16];
+            ThreadLocalRandom.current().nextBytes(salt);
+            body.write(salt);
+            body.write("\r\n".getBytes(StandardCharsets.UTF_8));
+        }
+        body.write(("--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8));
+
+        return HttpRequest.newBuilder(URI.create(baseUrl + "/api/images/upload/" + UPLOAD_FOLDER))
+                .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+                .header("Authorization", authorization)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body.toByteArray()))
+                .build();
+    }
+
+    // Crea la cartella collegando lo stesso JPEG con hard link, così anche 100000 immagini occupano poco spazio
+    private static List<String> createFolder(Path folder, int images, byte[] jpeg) throws IOException {
+        Files.createDirectories(folder);
+        Path source = folder.resolveSibling("source.jpg");
+        Files.write(source, jpeg);
+
+        List<String> names = new ArrayList<>(images);
+        for (int i = 0; i < images; i++) {
+            String name = String.format("IMG_%06d.jpg", i);
+            Path target = folder.resolve(name);
+            try {
+                Files.createLink(target, source);
+            } catch (UnsupportedOperationException | FileSystemException e) {
+                Files.write(target, jpeg);
+            }
+            names.add(name);
+        }
+        Files.delete(source);
+        return names;
+    }
+
+    private static byte[] syntheticJpeg(int width, int height) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setPaint(new GradientPaint(0, 0, Color.ORANGE, width, height, Color.BLUE));
+        graphics.fillRect(0, 0, width, height);
+        graphics.dispose();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpg", output);
+        return output.toByteArray();
+    }
+
+    // Stampa le differenze tra due file di risultati, scenario per scenario
+    private static void compare(Path baseline, Path candidate) throws IOException {
+        JsonNode before = objectMapper.readTree(baseline.toFile());
+        JsonNode after = objectMapper.readTree(candidate.toFile());
+        System.out.printf("%-9s %-12s %12s %12s %9s%n", "scenario", "metrica", "prima", "dopo", "delta");
+        for (JsonNode scenario : after.path("scenarios")) {
+            String name = scenario.path("name").asText();
+            JsonNode previous = null;
+            for (JsonNode candidateScenario : before.path("scenarios")) {
+                if (name.equals(candidateScenario.path("name").asText())) {
+                    previous = candidateScenario;
+                }
+            }
+            if (previous == null) {
+                continue;
+            }
+            for (String metric : List.of("throughputPerSecond", "p50Millis", "p90Millis", "p99Millis", "errors")) {
+                double a = previous.path(metric).asDouble();
+                double b = scenario.path(metric).asDouble();
+                String delta = a == 0 ? "-" : String.format("%+.1f%%", (b - a) / a * 100);
+                System.out.printf("%-9s %-12s %12.2f %12.2f %9s%n", name, metric, a, b, delta);
+            }
+        }
+    }
+
+    private static void deleteTree(Path root) throws IOException {
+        if (!Files.exists(root)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.photoandvision.folder_sharing_pp.bench;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.photoandvision.folder_sharing_pp.FolderSharingPpApplication;
+import com.photoandvision.folder_sharing_pp.entity.Folder;
+import com.photoandvision.folder_sharing_pp.entity.Image;
+import com.photoandvision.folder_sharing_pp.repo.ImageRepository;
+import com.photoandvision.folder_sharing_pp.service.FolderService;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Misura l'inserimento di molte righe di Image con il percorso di scrittura dell'applicazione (saveAll a blocchi,
+// una transazione per blocco) in due configurazioni: batch JDBC disattivati (un insert per riga, come con gli id
+// IDENTITY) e batch attivi. Usa il profilo bench (H2 in memoria); per misurare su MySQL:
+//   mvn -Pbench test-compile exec:java@persistence -Dbench.rows=10000
+//   mvn -Pbench test-compile exec:java@persistence "-Dbench.jdbc-url=jdbc:mysql://localhost:3306/bench?rewriteBatchedStatements=true" -Dbench.jdbc-user=root -Dbench.jdbc-password=root
+public class PersistenceHarness {
+
+    private static final ObjectMapper objectMapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+    public record InsertResult(String mode, int batchSize, int rows, double bestMillis, double rowsPerSecond,
+                               long statements) {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rows = Integer.getInteger("bench.rows", 10000);
+        int rowsPerTransaction = Integer.getInteger("bench.rows-per-transaction", 1000);
+        int rounds = Integer.getInteger("bench.rounds", 5); // Il primo giro fa da riscaldamento
+        int batchSize = Integer.getInteger("bench.batch-size", 100);
+        Path resultsDir = Paths.get(System.getProperty("bench.results-dir", "target/bench-results"));
+
+        List<InsertResult> results = new ArrayList<>();
+        results.add(measure("per-row", 0, rows, rowsPerTransaction, rounds));
+        results.add(measure("batched", batchSize, rows, rowsPerTransaction, rounds));
+
+        Map<String, Object> config = new LinkedHashMap<>();
+        config.put("rows", rows);
+        config.put("rowsPerTransaction", rowsPerTransaction);
+        config.put("rounds", rounds);
+        config.put("database", System.getProperty("bench.jdbc-url", "h2"));
+        config.put("javaVersion", Runtime.version().toString());
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("timestamp", LocalDateTime.now().toString());
+        report.put("config", config);
+        report.put("results", results);
+
+        Files.createDirectories(resultsDir);
+        Path output = resultsDir.resolve("persistence-" + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss")) + ".json");
+        objectMapper.writeValue(output.toFile(), report);
+
+        for (InsertResult result : results) {
+            System.out.printf("%-8s batch %4d  %6d righe  %9.1f ms  %9.0f righe/s  %6d statement%n", result.mode(),
+                    result.batchSize(), result.rows(), result.bestMillis(), result.rowsPerSecond(), result.statements());
+        }
+        System.out.println("Risultati salvati in " + output);
+    }
+
+    // Avvia l'applicazione senza server web con la dimensione dei batch indicata (0 = nessun batch)
+    // e restituisce il giro più veloce
+    private static InsertResult measure(String mode, int batchSize, int rows, int rowsPerTransaction, int rounds) throws Exception {
+        Path root = Files.createTempDirectory("folder-sharing-persistence");
+        // Argomenti della riga di comando: prevalgono su application.properties (batch_size=100), le proprietà predefinite no.
+        // Server su una porta casuale: SecurityConfig richiede il contesto web
+        List<String> arguments = new ArrayList<>(List.of(
+                "--upload.dir=" + root + File.separator,
+                "--thumbnail.cache.dir=" + root.resolve(".thumbnails"),
+                "--server.port=0",
+                "--spring.jpa.properties.hibernate.jdbc.batch_size=" + batchSize,
+                "--spring.jpa.properties.hibernate.generate_statistics=true"));
+        String jdbcUrl = System.getProperty("bench.jdbc-url");
+        if (jdbcUrl != null) {
+            arguments.add("--spring.datasource.url=" + jdbcUrl);
+            arguments.add("--spring.datasource.username=" + System.getProperty("bench.jdbc-user", "root"));
+            arguments.add("--spring.datasource.password=" + System.getProperty("bench.jdbc-password", ""));
+            arguments.add("--spring.datasource.driver-class-name=com.mysql.cj.jdbc.Driver");
+        }
+
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(FolderSharingPpApplication.class)
+                .profiles("bench")
+                .run(arguments.toArray(new String[0]));
+        try {
+            ImageRepository imageRepository = context.getBean(ImageRepository.class);
+            TransactionTemplate transaction = new TransactionTemplate(context.getBean(PlatformTransactionManager.class));
+            Statistics statistics = context.getBean(EntityManagerFactory.class).unwrap(SessionFactory.class).getStatistics();
+
+            double bestMillis = Double.MAX_VALUE;
+            long statements = 0;
+            for (int round = 0; round < rounds; round++) {
+                Folder folder = context.getBean(FolderService.class).findOrCreate("persistence-" + mode + "-" + round);
+                statistics.clear();
+                long start = System.nanoTime();
+                List<Long> ids = new ArrayList<>(rows);
+                for (int offset = 0; offset < rows; offset += rowsPerTransaction) {
+                    int first = offset;
+                    int count = Math.min(rowsPerTransaction, rows - offset);
+                    transaction.executeWithoutResult(status -> {
+                        List<Image> images = new ArrayList<>(count);
+                        for (int i = first; i < first + count; i++) {
+                            images.add(image(folder, i));
+                        }
+                        imageRepository.saveAll(images).forEach(image -> ids.add(image.getId()));
+                    });
+                }
+                double millis = (System.nanoTime() - start) / 1e6;
+                if (round > 0 && millis < bestMillis) {
+                    bestMillis = millis;
+                    statements = statistics.getPrepareStatementCount();
+                }
+                // Pulizia non misurata: su MySQL le righe resterebbero tra un'esecuzione e l'altra
+                for (int offset = 0; offset < ids.size(); offset += rowsPerTransaction) {
+                    List<Long> batch = ids.subList(offset, Math.min(ids.size(), offset + rowsPerTransaction));
+                    transaction.executeWithoutResult(status -> imageRepository.deleteByIdIn(batch));
+                }
+            }
+            return new InsertResult(mode, batchSize, rows, bestMillis, rows / (bestMillis / 1000), statements);
+        } finally {
+            context.close();
+            deleteTree(root);
+        }
+    }
+
+    private static Image image(Folder folder, int index) {
+        Image image = new Image();
+        String name = String.format("IMG_%06d.jpg", index);
+        image.setName(name);
+        image.setUrl(folder.getName() + "/" + name);
+        image.setFolder(folder);
+        image.setSize(1_000_000L + index);
+        image.setLastModified(System.currentTimeMillis());
+        image.setMetadataStatus(Image.MetadataStatus.PENDING);
+        return image;
+    }
+
+    private static void deleteTree(Path root) throws Exception {
+        try (var paths = Files.walk(root)) {
+            for (Path path : paths.sorted((a, b) -> b.getNameCount() - a.getNameCount()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+}
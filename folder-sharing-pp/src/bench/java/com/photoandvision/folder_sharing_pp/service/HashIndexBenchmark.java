@@ -0,0 +1,108 @@
+package com.photoandvision.folder_sharing_pp.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// HashIndex (multi-index hashing) contro la ricerca esaustiva di HashIndexTest, sugli stessi hash:
+// gruppi di copie con pochi bit diversi, in 100 cartelle, con una voce su sette eliminata (resta nei bucket).
+// Nel pacchetto di HashIndex, che non è pubblico
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = { "-Xmx2g" })
+public class HashIndexBenchmark {
+
+    private static final int FOLDERS = 100;
+    private static final int QUERIES = 1024;
+
+    @Param({ "100000", "1000000" })
+    public int entries;
+
+    @Param({ "4", "8", "15" })
+    public int distance;
+
+    private HashIndex index;
+    // Voci presenti, per la ricerca esaustiva
+    private long[] ids;
+    private long[] folderIds;
+    private long[] codes;
+    private int count;
+    private long[] queries;
+    private int next;
+    private int nextFolder;
+
+    @Setup
+    public void createIndex() {
+        Random random = new Random(42);
+        long[] all = HashIndexTest.clusteredCodes(random, entries);
+        index = new HashIndex();
+        ids = new long[entries];
+        folderIds = new long[entries];
+        codes = new long[entries];
+        for (int i = 0; i < entries; i++) {
+            index.put(i, i % FOLDERS, all[i]);
+        }
+        for (int i = 0; i < entries; i++) {
+            if (i % 7 == 0) {
+                index.remove(i);
+            } else {
+                ids[count] = i;
+                folderIds[count] = i % FOLDERS;
+                codes[count] = all[i];
+                count++;
+            }
+        }
+        // Una ricerca per immagine: l'hash di un'immagine presente
+        queries = new long[QUERIES];
+        for (int q = 0; q < QUERIES; q++) {
+            queries[q] = codes[random.nextInt(count)];
+        }
+    }
+
+    private long nextQuery() {
+        next = (next + 1) & (QUERIES - 1);
+        return queries[next];
+    }
+
+    private long nextFolder() {
+        nextFolder = (nextFolder + 1) % FOLDERS;
+        return nextFolder;
+    }
+
+    // GET /api/duplicates/{folder}/{image}: tutte le cartelle
+    @Benchmark
+    public List<HashIndex.Match> indexedNear() {
+        return index.near(nextQuery(), distance, -1);
+    }
+
+    @Benchmark
+    public List<HashIndex.Match> bruteForceNear() {
+        return HashIndexTest.bruteForceNear(ids, folderIds, codes, count, nextQuery(), distance, -1);
+    }
+
+    // GET /api/duplicates/{folder}: gruppi di una cartella (entries / 100 immagini)
+    @Benchmark
+    public List<long[]> indexedClusters() {
+        return index.clusters(nextFolder(), distance);
+    }
+
+    @Benchmark
+    public List<long[]> bruteForceClusters() {
+        return HashIndexTest.bruteForceClusters(ids, folderIds, codes, count, nextFolder(), distance);
+    }
+}
@@ -2,9 +2,12 @@ package com.photoandvision.folder_sharing_pp;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
-import org.springframework.boot.autoconfigure.security.servlet.SecurityAutoConfiguration;
+import org.springframework.boot.autoconfigure.security.servlet.UserDetailsServiceAutoConfiguration;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
-@SpringBootApplication(exclude = { SecurityAutoConfiguration.class })
+// Gli utenti sono nel database (AuthService): niente utente in memoria creato da Spring Boot
+@SpringBootApplication(exclude = { UserDetailsServiceAutoConfiguration.class })
+@EnableScheduling
 public class FolderSharingPpApplication {
 
 	public static void main(String[] args) {
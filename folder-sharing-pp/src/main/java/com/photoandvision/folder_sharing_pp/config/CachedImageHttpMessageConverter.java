@@ -0,0 +1,98 @@
+package com.photoandvision.folder_sharing_pp.config;
+
+import com.photoandvision.folder_sharing_pp.ratelimit.RateLimiter;
+import com.photoandvision.folder_sharing_pp.service.HotImageCache;
+import jakarta.servlet.ServletResponse;
+import jakarta.servlet.ServletResponseWrapper;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.http.server.ServletServerHttpResponse;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+// Scrive nella risposta un'immagine della HotImageCache. Il buffer diretto viene passato al canale
+// di RequestMetricsFilter, che lo consegna a Tomcat senza allocare array per la risposta: i byte vengono comunque
+// copiati nel buffer di uscita di Tomcat (sull'heap, riusato tra le richieste) prima di arrivare al socket.
+// La scrittura segue il budget di byte del client, come i download letti dall'archivio
+public class CachedImageHttpMessageConverter extends AbstractHttpMessageConverter<HotImageCache.Entry> {
+
+    private static final int CHUNK_SIZE = 64 * 1024; // Byte scritti tra due controlli del budget
+
+    private final RateLimiter rateLimiter;
+
+    public CachedImageHttpMessageConverter(RateLimiter rateLimiter) {
+        super(MediaType.ALL);
+        this.rateLimiter = rateLimiter;
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return HotImageCache.Entry.class.isAssignableFrom(clazz);
+    }
+
+    @Override
+    protected boolean canRead(MediaType mediaType) {
+        return false; // Solo in scrittura
+    }
+
+    @Override
+    protected HotImageCache.Entry readInternal(Class<? extends HotImageCache.Entry> clazz, HttpInputMessage inputMessage) {
+        throw new HttpMessageNotReadableException("Tipo non leggibile: " + clazz.getName(), inputMessage);
+    }
+
+    @Override
+    protected Long getContentLength(HotImageCache.Entry entry, MediaType contentType) {
+        return entry.size();
+    }
+
+    @Override
+    protected void writeInternal(HotImageCache.Entry entry, HttpOutputMessage outputMessage) throws IOException {
+        RateLimiter.Client client = rateLimiter.currentClient(); // Sul thread della richiesta: la risposta non è asincrona
+        OutputStream body = outputMessage.getBody(); // Scrive gli header nella risposta
+        WritableByteChannel channel = null;
+        if (outputMessage instanceof ServletServerHttpResponse servletResponse) {
+            HttpServletResponse response = servletResponse.getServletResponse();
+            response.flushBuffer(); // Commit attraverso tutti i wrapper, così i filtri aggiungono i loro header
+            channel = findChannel(response);
+        }
+
+        ByteBuffer content = entry.content();
+        byte[] chunk = null; // Solo senza canale
+        while (content.hasRemaining()) {
+            int length = Math.min(CHUNK_SIZE, content.remaining());
+            client.pace(length);
+            ByteBuffer slice = content.slice(content.position(), length);
+            if (channel != null) {
+                while (slice.hasRemaining()) {
+                    channel.write(slice);
+                }
+            } else {
+                if (chunk == null) {
+                    chunk = new byte[Math.min(CHUNK_SIZE, content.remaining())];
+                }
+                slice.get(chunk, 0, length);
+                body.write(chunk, 0, length);
+            }
+            content.position(content.position() + length);
+        }
+    }
+
+    // Cerca tra i wrapper della risposta il primo stream che accetta ByteBuffer
+    private static WritableByteChannel findChannel(ServletResponse response) throws IOException {
+        ServletResponse current = response;
+        while (current != null) {
+            if (current.getOutputStream() instanceof WritableByteChannel channel) {
+                return channel;
+            }
+            current = current instanceof ServletResponseWrapper wrapper ? wrapper.getResponse() : null;
+        }
+        return null;
+    }
+}
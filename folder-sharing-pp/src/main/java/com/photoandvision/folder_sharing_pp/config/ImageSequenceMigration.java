@@ -0,0 +1,43 @@
+package com.photoandvision.folder_sharing_pp.config;
+
+import com.photoandvision.folder_sharing_pp.entity.Image;
+import jakarta.annotation.PostConstruct;
+import jakarta.persistence.EntityManagerFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+// Porta la sequenza degli id delle immagini oltre l'id più alto già presente.
+// Le righe esistenti sono state create con AUTO_INCREMENT, mentre la tabella image_seq (che su MySQL emula la sequenza)
+// viene creata da Hibernate con valore iniziale 1: senza questo passo i primi insert userebbero id già occupati.
+// Viene eseguita a ogni avvio, prima che il server accetti richieste, e non cambia nulla se la sequenza è già avanti
+@Component
+public class ImageSequenceMigration {
+
+    private static final Logger logger = LoggerFactory.getLogger(ImageSequenceMigration.class);
+
+    private final JdbcTemplate jdbcTemplate;
+
+    // L'EntityManagerFactory garantisce che lo schema (tabella image_seq compresa) sia già stato aggiornato
+    public ImageSequenceMigration(EntityManagerFactory entityManagerFactory, JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @PostConstruct
+    public void migrate() {
+        String database = jdbcTemplate.execute((ConnectionCallback<String>) connection ->
+                connection.getMetaData().getDatabaseProductName());
+        if (!"MySQL".equalsIgnoreCase(database)) {
+            return; // Sequenze native (es. H2 nel profilo bench): il database viene creato vuoto
+        }
+        Long maxId = jdbcTemplate.queryForObject("select coalesce(max(id), 0) from image", Long.class);
+        // Con l'ottimizzatore pooled il valore letto è il limite superiore del blocco: il primo id è next_val - allocazione + 1
+        long nextValue = maxId + Image.ID_ALLOCATION_SIZE + 1;
+        int updated = jdbcTemplate.update("update image_seq set next_val = ? where next_val < ?", nextValue, nextValue);
+        if (updated > 0) {
+            logger.info("Sequenza image_seq portata a {} (id massimo {})", nextValue, maxId);
+        }
+    }
+}
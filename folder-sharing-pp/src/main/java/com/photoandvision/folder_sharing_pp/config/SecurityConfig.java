@@ -0,0 +1,82 @@
+package com.photoandvision.folder_sharing_pp.config;
+
+import com.photoandvision.folder_sharing_pp.security.JwtAuthenticationFilter;
+import com.photoandvision.folder_sharing_pp.security.JwtService;
+import jakarta.servlet.DispatcherType;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.authorization.AuthorityAuthorizationManager;
+import org.springframework.security.authorization.AuthorizationDecision;
+import org.springframework.security.authorization.AuthorizationManager;
+import org.springframework.security.authorization.AuthorizationManagers;
+import org.springframework.security.config.Customizer;
+import org.springframework.security.config.annotation.web.builders.HttpSecurity;
+import org.springframework.security.config.annotation.web.configurers.AbstractHttpConfigurer;
+import org.springframework.security.config.http.SessionCreationPolicy;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.security.web.SecurityFilterChain;
+import org.springframework.security.web.authentication.HttpStatusEntryPoint;
+import org.springframework.security.web.access.intercept.RequestAuthorizationContext;
+import org.springframework.security.web.authentication.UsernamePasswordAuthenticationFilter;
+import org.springframework.security.web.util.matcher.IpAddressMatcher;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Autenticazione senza stato con token JWT. Qui si decide solo chi deve essere autenticato:
+// i permessi sulle singole cartelle sono controllati da FolderAccessInterceptor
+@Configuration
+public class SecurityConfig {
+
+    @Bean
+    public SecurityFilterChain securityFilterChain(HttpSecurity http, JwtService jwtService,
+                                                   @Value("${metrics.scrape-addresses:127.0.0.1,::1}") String[] scrapeAddresses) throws Exception {
+        // Prometheus non ha un token JWT: le metriche si leggono dagli indirizzi della rete di gestione, o con un token ADMIN
+        List<AuthorizationManager<RequestAuthorizationContext>> scrapers = new ArrayList<>();
+        for (String address : scrapeAddresses) {
+            IpAddressMatcher matcher = new IpAddressMatcher(address.trim());
+            scrapers.add((authentication, context) -> new AuthorizationDecision(matcher.matches(context.getRequest())));
+        }
+        scrapers.add(AuthorityAuthorizationManager.hasRole("ADMIN"));
+        AuthorizationManager<RequestAuthorizationContext> prometheusAccess = AuthorizationManagers.anyOf(toArray(scrapers));
+
+        http.csrf(AbstractHttpConfigurer::disable) // Nessun cookie di sessione: il token viaggia nell'intestazione
+                .cors(Customizer.withDefaults()) // Usa le regole @CrossOrigin dei controller
+                .httpBasic(AbstractHttpConfigurer::disable)
+                .formLogin(AbstractHttpConfigurer::disable)
+                .sessionManagement(session -> session.sessionCreationPolicy(SessionCreationPolicy.STATELESS))
+                .authorizeHttpRequests(requests -> requests
+                        // Le risposte in streaming e gli errori vengono completati con un secondo dispatch già autorizzato
+                        .dispatcherTypeMatchers(DispatcherType.ASYNC, DispatcherType.ERROR).permitAll()
+                        .requestMatchers(HttpMethod.POST, "/api/auth/login").permitAll()
+                        .requestMatchers("/actuator/health").permitAll()
+                        .requestMatchers(HttpMethod.GET, "/actuator/prometheus").access(prometheusAccess)
+                        // Accessibili anche con un link di condivisione: l'interceptor verifica link o permessi
+                        .requestMatchers(HttpMethod.GET, "/api/folders/*/images", "/api/folders/*/images/*",
+                                "/api/folders/*/archive", "/api/folders/*/events", "/api/images/folder/*").permitAll()
+                        .requestMatchers(HttpMethod.POST, "/api/folders/*/archive").permitAll()
+                        // Elenchi di tutte le immagini, statistiche e metriche
+                        .requestMatchers(HttpMethod.GET, "/api/images", "/api/folders/cache/stats").hasRole("ADMIN")
+                        .requestMatchers("/actuator/**", "/api/auth/users").hasRole("ADMIN")
+                        .anyRequest().authenticated())
+                .exceptionHandling(exceptions -> exceptions.authenticationEntryPoint(new HttpStatusEntryPoint(HttpStatus.UNAUTHORIZED)))
+                .addFilterBefore(new JwtAuthenticationFilter(jwtService), UsernamePasswordAuthenticationFilter.class);
+        return http.build();
+    }
+
+    // anyOf accetta un varargs, ma Java non crea array di un tipo generico: l'array è tipizzato solo qui
+    private static AuthorizationManager<RequestAuthorizationContext>[] toArray(List<AuthorizationManager<RequestAuthorizationContext>> managers) {
+        @SuppressWarnings("unchecked")
+        AuthorizationManager<RequestAuthorizationContext>[] array = new AuthorizationManager[managers.size()];
+        return managers.toArray(array);
+    }
+
+    @Bean
+    public PasswordEncoder passwordEncoder() {
+        return new BCryptPasswordEncoder();
+    }
+}
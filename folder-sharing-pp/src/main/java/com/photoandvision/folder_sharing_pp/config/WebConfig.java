@@ -0,0 +1,41 @@
+package com.photoandvision.folder_sharing_pp.config;
+
+import com.photoandvision.folder_sharing_pp.ratelimit.RateLimitInterceptor;
+import com.photoandvision.folder_sharing_pp.ratelimit.RateLimiter;
+import com.photoandvision.folder_sharing_pp.security.FolderAccessInterceptor;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.util.List;
+
+// Registra sugli endpoint dell'API i limiti per client e il controllo di accesso alle cartelle,
+// e la scrittura delle immagini servite dalla HotImageCache
+@Configuration
+public class WebConfig implements WebMvcConfigurer {
+
+    private final RateLimitInterceptor rateLimitInterceptor;
+    private final FolderAccessInterceptor folderAccessInterceptor;
+    private final RateLimiter rateLimiter;
+
+    public WebConfig(RateLimitInterceptor rateLimitInterceptor, FolderAccessInterceptor folderAccessInterceptor,
+                     RateLimiter rateLimiter) {
+        this.rateLimitInterceptor = rateLimitInterceptor;
+        this.folderAccessInterceptor = folderAccessInterceptor;
+        this.rateLimiter = rateLimiter;
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        // Prima i limiti: una richiesta rifiutata non costa il controllo dei permessi
+        registry.addInterceptor(rateLimitInterceptor).addPathPatterns("/api/folders/**", "/api/images/**", "/api/uploads/**",
+                "/api/duplicates/**");
+        registry.addInterceptor(folderAccessInterceptor).addPathPatterns("/api/**");
+    }
+
+    @Override
+    public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+        converters.add(0, new CachedImageHttpMessageConverter(rateLimiter));
+    }
+}
@@ -0,0 +1,128 @@
+package com.photoandvision.folder_sharing_pp.config;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Crea i pool di thread usati dai lavori in background dell'applicazione.
+// I pool non sono registrati come bean Executor per non sostituire l'executor di Spring MVC.
+// Con spring.threads.virtual.enabled=true i task girano su thread virtuali, con gli stessi limiti di concorrenza e di coda
+@Component
+public class WorkerPoolFactory {
+
+    private final boolean virtualThreads;
+    private final List<ExecutorService> pools = new CopyOnWriteArrayList<>(); // Pool creati, da chiudere allo spegnimento
+
+    public WorkerPoolFactory(@Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
+    // Crea un pool che esegue al massimo "threads" task alla volta e tiene in attesa al massimo "queueCapacity" task:
+    // oltre la capacità i task vengono rifiutati con RejectedExecutionException
+    public ExecutorService newBoundedPool(String name, int threads, int queueCapacity) {
+        ExecutorService pool = virtualThreads
+                ? new BoundedVirtualThreadExecutor(name, threads, queueCapacity)
+                : newPlatformPool(name, threads, queueCapacity);
+        pools.add(pool);
+        return pool;
+    }
+
+    private ExecutorService newPlatformPool(String name, int threads, int queueCapacity) {
+        AtomicInteger counter = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        pool.allowCoreThreadTimeOut(true); // I thread inattivi vengono rilasciati
+        return pool;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        for (ExecutorService pool : pools) {
+            pool.shutdownNow();
+        }
+    }
+
+    // Un thread virtuale per task. Il semaforo "admitted" limita i task accettati (in esecuzione + in attesa),
+    // il semaforo "running" limita quelli in esecuzione: i task in attesa sono thread virtuali parcheggiati
+    static final class BoundedVirtualThreadExecutor extends AbstractExecutorService {
+
+        private final ExecutorService delegate;
+        private final Semaphore admitted;
+        private final Semaphore running;
+
+        BoundedVirtualThreadExecutor(String name, int threads, int queueCapacity) {
+            this.delegate = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + "-", 1).factory());
+            this.admitted = new Semaphore(threads + queueCapacity);
+            this.running = new Semaphore(threads);
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            if (!admitted.tryAcquire()) {
+                throw new RejectedExecutionException("Coda piena");
+            }
+            try {
+                delegate.execute(() -> {
+                    try {
+                        running.acquire();
+                        try {
+                            command.run();
+                        } finally {
+                            running.release();
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        admitted.release();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                admitted.release();
+                throw e;
+            }
+        }
+
+        @Override
+        public void shutdown() {
+            delegate.shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return delegate.shutdownNow();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return delegate.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return delegate.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return delegate.awaitTermination(timeout, unit);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.photoandvision.folder_sharing_pp.controller;
+
+import com.photoandvision.folder_sharing_pp.entity.User;
+import com.photoandvision.folder_sharing_pp.security.JwtService;
+import com.photoandvision.folder_sharing_pp.service.AuthService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Optional;
+
+@RestController
+@CrossOrigin("*")
+@RequestMapping("/api/auth") // Login e gestione degli account
+public class AuthController {
+
+    private static final Logger logger = LoggerFactory.getLogger(AuthController.class);
+
+    @Autowired
+    private AuthService authService;
+
+    @Autowired
+    private JwtService jwtService;
+
+    // Endpoint di login: restituisce il token da inviare come "Authorization: Bearer <token>"
+    @PostMapping("/login")
+    public ResponseEntity<JwtService.IssuedToken> login(@RequestBody Credentials credentials) {
+        if (credentials.getUsername() == null || credentials.getPassword() == null) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(null);
+        }
+        Optional<User> user = authService.authenticate(credentials.getUsername(), credentials.getPassword());
+        if (user.isEmpty()) {
+            logger.info("Login fallito per l'utente {}", credentials.getUsername());
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(null); // Credenziali errate
+        }
+        return ResponseEntity.ok(jwtService.issue(user.get().getId(), user.get().getUsername(),
+                user.get().getRole() == User.Role.ADMIN));
+    }
+
+    // Endpoint per creare un utente (solo amministratori)
+    @PostMapping("/users")
+    public ResponseEntity<String> createUser(@RequestBody Credentials credentials,
+                                             @RequestParam(value = "admin", defaultValue = "false") boolean admin) {
+        if (credentials.getUsername() == null || credentials.getUsername().isBlank()
+                || credentials.getPassword() == null || credentials.getPassword().length() < 8) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Username and a password of at least 8 characters are required.");
+        }
+        try {
+            authService.createUser(credentials.getUsername(), credentials.getPassword(), admin ? User.Role.ADMIN : User.Role.USER);
+            return ResponseEntity.status(HttpStatus.CREATED).body("User created: " + credentials.getUsername());
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body("User already exists.");
+        }
+    }
+
+    // Classe interna per le credenziali
+    public static class Credentials {
+        private String username;
+        private String password;
+
+        public String getUsername() {
+            return username;
+        }
+
+        public void setUsername(String username) {
+            this.username = username;
+        }
+
+        public String getPassword() {
+            return password;
+        }
+
+        public void setPassword(String password) {
+            this.password = password;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.photoandvision.folder_sharing_pp.controller;
+
+import com.photoandvision.folder_sharing_pp.entity.FolderGrant;
+import com.photoandvision.folder_sharing_pp.ratelimit.RateLimiter;
+import com.photoandvision.folder_sharing_pp.security.FolderAccess;
+import com.photoandvision.folder_sharing_pp.service.ChunkedUploadService;
+import com.photoandvision.folder_sharing_pp.service.ImageIngestService;
+import jakarta.servlet.http.HttpServletRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.NoSuchElementException;
+
+@RestController
+@CrossOrigin("*")
+@RequestMapping("/api/uploads") // Upload a blocchi riprendibili per i file di grandi dimensioni
+public class ChunkedUploadController {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChunkedUploadController.class);
+
+    @Autowired
+    private ChunkedUploadService chunkedUploadService;
+
+    @Autowired
+    private FolderAccess folderAccess; // Controllo dei permessi dell'utente corrente
+
+    @Autowired
+    private RateLimiter rateLimiter; // Budget di upload del client
+
+    // Endpoint per aprire una sessione di upload
+    @PostMapping
+    public ResponseEntity<?> initUpload(@RequestBody UploadRequest uploadRequest) {
+        String fileName = uploadRequest.getFileName();
+        Path name = fileName != null ? Paths.get(fileName).getFileName() : null;
+        if (uploadRequest.getFolderName() == null || uploadRequest.getFolderName().trim().isEmpty()
+                || name == null || name.toString().startsWith(".")) {
+            return ResponseEntity.badRequest().body("Folder name and file name are required.");
+        }
+        // Le richieste successive usano l'id della sessione, che è casuale e noto solo a chi l'ha aperta
+        if (!folderAccess.canAccess(uploadRequest.getFolderName(), FolderGrant.Permission.WRITE)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body("Write access to the folder is required.");
+        }
+
+        try {
+            ChunkedUploadService.UploadStatus status = chunkedUploadService.init(uploadRequest.getFolderName(),
+                    name.toString(), uploadRequest.getSize(), uploadRequest.getSha256());
+            return ResponseEntity.status(HttpStatus.CREATED).body(status);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(e.getMessage());
+        } catch (IOException e) {
+            logger.error("Errore nell'apertura della sessione di upload: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Failed to start upload: " + e.getMessage());
+        }
+    }
+
+    // Endpoint per inviare un blocco: il corpo contiene i byte grezzi da scrivere a partire da offset
+    @PutMapping("/{id}")
+    public ResponseEntity<?> uploadChunk(@PathVariable String id, @RequestParam("offset") long offset, HttpServletRequest request) {
+        long length = request.getContentLengthLong();
+        if (length < 0) {
+            return ResponseEntity.status(HttpStatus.LENGTH_REQUIRED).body("Content-Length is required.");
+        }
+        RateLimiter.Client client = rateLimiter.currentClient();
+        return handle(() -> chunkedUploadService.writeChunk(id, offset, length, client.throttleUpload(request.getInputStream()))); // Letto al ritmo del budget del client
+    }
+
+    // Endpoint per conoscere i byte ricevuti e gli intervalli mancanti (per riprendere un upload interrotto)
+    @GetMapping("/{id}")
+    public ResponseEntity<?> getUploadStatus(@PathVariable String id) {
+        return handle(() -> chunkedUploadService.getStatus(id));
+    }
+
+    // Endpoint per completare l'upload: verifica integrità e pubblica il file nella cartella
+    @PostMapping("/{id}/complete")
+    public ResponseEntity<?> completeUpload(@PathVariable String id) {
+        return handle(() -> chunkedUploadService.complete(id));
+    }
+
+    // Endpoint per annullare una sessione di upload
+    @DeleteMapping("/{id}")
+    public ResponseEntity<?> abortUpload(@PathVariable String id) {
+        return handle(() -> {
+            chunkedUploadService.abort(id);
+            return "Upload aborted.";
+        });
+    }
+
+    private interface UploadAction {
+        Object run() throws IOException;
+    }
+
+    // Traduce gli esiti del servizio nei codici HTTP
+    private ResponseEntity<?> handle(UploadAction action) {
+        try {
+            return ResponseEntity.ok(action.run());
+        } catch (NoSuchElementException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage()); // Sessione inesistente o scaduta
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage()); // Upload incompleto, in corso o hash errato
+        } catch (IOException e) {
+            logger.warn("Errore durante l'upload a blocchi: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(e.getMessage());
+        }
+    }
+
+    // Classe interna per la richiesta di apertura di una sessione
+    public static class UploadRequest {
+        private String folderName; // Cartella di destinazione
+        private String fileName; // Nome del file
+        private long size; // Dimensione totale in byte
+        private String sha256; // Hash SHA-256 atteso (opzionale)
+
+        public String getFolderName() {
+            return folderName;
+        }
+
+        public void setFolderName(String folderName) {
+            this.folderName = folderName;
+        }
+
+        public String getFileName() {
+            return fileName;
+        }
+
+        public void setFileName(String fileName) {
+            this.fileName = fileName;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public void setSize(long size) {
+            this.size = size;
+        }
+
+        public String getSha256() {
+            return sha256;
+        }
+
+        public void setSha256(String sha256) {
+            this.sha256 = sha256;
+        }
+    }
+}
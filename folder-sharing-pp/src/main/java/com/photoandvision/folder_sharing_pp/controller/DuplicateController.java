@@ -0,0 +1,72 @@
+package com.photoandvision.folder_sharing_pp.controller;
+
+import com.photoandvision.folder_sharing_pp.entity.FolderGrant;
+import com.photoandvision.folder_sharing_pp.security.FolderAccess;
+import com.photoandvision.folder_sharing_pp.service.DuplicateService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+import java.util.Optional;
+
+@RestController // Indica che questa classe è un controller REST
+@CrossOrigin("*") // Permette le richieste CORS da qualsiasi origine
+@RequestMapping("/api/duplicates") // Ricerca delle immagini simili (hash percettivo)
+public class DuplicateController {
+
+    @Autowired
+    private DuplicateService duplicateService; // Indice degli hash percettivi
+
+    @Autowired
+    private FolderAccess folderAccess; // Permessi dell'utente sulle cartelle
+
+    // Endpoint per le immagini simili a un'immagine, in tutte le cartelle leggibili dall'utente.
+    // distance: differenza massima in bit tra gli hash (0-15, predefinita duplicates.default-distance)
+    @GetMapping("/{folderName}/{imageName}")
+    public ResponseEntity<DuplicateService.NearDuplicates> findNear(@PathVariable String folderName,
+                                                                    @PathVariable String imageName,
+                                                                    @RequestParam(value = "distance", required = false) Integer distance) {
+        ResponseEntity<DuplicateService.NearDuplicates> invalid = check(distance);
+        if (invalid != null) {
+            return invalid;
+        }
+        Optional<DuplicateService.NearDuplicates> result = duplicateService.findNear(folderName, imageName,
+                distance != null ? distance : duplicateService.defaultDistance());
+        if (result.isEmpty()) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(null); // Cartella o immagine inesistente
+        }
+        DuplicateService.NearDuplicates near = result.get();
+        // L'accesso alla cartella richiesta è controllato da FolderAccessInterceptor, quello alle altre qui
+        List<DuplicateService.Duplicate> visible = near.duplicates().stream()
+                .filter(duplicate -> folderAccess.canAccess(duplicate.folderName(), FolderGrant.Permission.READ))
+                .toList();
+        return ResponseEntity.ok(new DuplicateService.NearDuplicates(near.folderName(), near.imageName(), near.hashed(), visible));
+    }
+
+    // Endpoint per i gruppi di immagini simili all'interno di una cartella
+    @GetMapping("/{folderName}")
+    public ResponseEntity<List<DuplicateService.DuplicateCluster>> findClusters(@PathVariable String folderName,
+                                                                                @RequestParam(value = "distance", required = false) Integer distance) {
+        ResponseEntity<List<DuplicateService.DuplicateCluster>> invalid = check(distance);
+        if (invalid != null) {
+            return invalid;
+        }
+        return duplicateService.findClusters(folderName, distance != null ? distance : duplicateService.defaultDistance())
+                .map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.status(HttpStatus.NOT_FOUND).body(null));
+    }
+
+    // 400 per una distanza fuori dall'intervallo, 503 finché l'indice non è stato caricato
+    private <T> ResponseEntity<T> check(Integer distance) {
+        if (distance != null && (distance < 0 || distance > DuplicateService.MAX_DISTANCE)) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(null);
+        }
+        if (!duplicateService.isReady()) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, "30").body(null);
+        }
+        return null;
+    }
+}
@@ -1,18 +1,46 @@
 package com.photoandvision.folder_sharing_pp.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.photoandvision.folder_sharing_pp.entity.Folder;
+import com.photoandvision.folder_sharing_pp.entity.FolderGrant;
+import com.photoandvision.folder_sharing_pp.event.FolderChangeEvent;
+import com.photoandvision.folder_sharing_pp.metrics.RequestTrace;
+import com.photoandvision.folder_sharing_pp.ratelimit.RateLimiter;
+import com.photoandvision.folder_sharing_pp.security.AuthenticatedUser;
+import com.photoandvision.folder_sharing_pp.security.FolderAccess;
+import com.photoandvision.folder_sharing_pp.service.ArchiveService;
+import com.photoandvision.folder_sharing_pp.service.DirectoryListingService;
+import com.photoandvision.folder_sharing_pp.service.FolderChangeFeed;
+import com.photoandvision.folder_sharing_pp.service.FolderDeletionService;
+import com.photoandvision.folder_sharing_pp.service.FolderMetadataCache;
+import com.photoandvision.folder_sharing_pp.service.FolderService;
+import com.photoandvision.folder_sharing_pp.service.HotImageCache;
+import com.photoandvision.folder_sharing_pp.service.GrantService;
+import com.photoandvision.folder_sharing_pp.service.ThumbnailService;
+import com.photoandvision.folder_sharing_pp.storage.StorageBackend;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
-import java.io.File;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
 import java.net.URLConnection;
-import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
 
 @RestController // Indica che questa classe è un controller REST
 @CrossOrigin("*") // Permette le richieste CORS da qualsiasi origine
@@ -20,7 +48,51 @@ import java.util.List;
 public class FolderController {
 
     private static final Logger logger = LoggerFactory.getLogger(FolderController.class); // Logger per registrare eventi
-    private final String baseDirectory = "E:\\PhotoAndVision\\"; // Modifica il percorso base per le cartelle
+
+    @Autowired
+    private StorageBackend storage; // Archivio dei file (disco locale o object store)
+
+    @Autowired
+    private ThumbnailService thumbnailService; // Generazione e cache delle miniature
+
+    @Autowired
+    private FolderService folderService; // Cartelle registrate nel database
+
+    @Autowired
+    private DirectoryListingService directoryListingService; // Elenchi paginati delle cartelle
+
+    @Autowired
+    private ArchiveService archiveService; // Esportazione delle cartelle come archivio ZIP
+
+    @Autowired
+    private FolderDeletionService folderDeletionService; // Eliminazione delle cartelle in background
+
+    @Autowired
+    private FolderMetadataCache folderMetadataCache; // Cache del contenuto delle cartelle
+
+    @Autowired
+    private GrantService grantService; // Permessi degli utenti sulle cartelle
+
+    @Autowired
+    private FolderAccess folderAccess; // Controllo dei permessi dell'utente corrente
+
+    @Autowired
+    private HotImageCache hotImageCache; // Contenuto delle immagini piccole e richieste spesso, fuori dall'heap
+
+    @Autowired
+    private RateLimiter rateLimiter; // Banda massima per client dei download
+
+    @Autowired
+    private FolderChangeFeed changeFeed; // Notifiche SSE delle modifiche alle cartelle
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher; // Notifica le modifiche alle cartelle (es. invalidazione della cache)
+
+    @Autowired
+    private ObjectMapper objectMapper; // Serializzazione delle righe NDJSON
+
+    private static final int MAX_PAGE_SIZE = 5000; // Dimensione massima di una pagina
+    private static final String NEXT_CURSOR_HEADER = "X-Next-Cursor"; // Intestazione con il cursore della pagina successiva
 
     // Endpoint per creare una nuova cartella
     @PostMapping
@@ -32,93 +104,313 @@ public class FolderController {
             return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Il nome della cartella non può essere vuoto."); // Restituisce un errore se il nome è vuoto
         }
 
-        File folder = new File(baseDirectory + folderName); // Crea un oggetto File per la nuova cartella
-
-        // Controlla se la cartella esiste già
-        if (folder.exists()) {
-            logger.warn("Tentativo di creare una cartella esistente: {}", folderName); // Registra un avviso
-            return ResponseEntity.status(HttpStatus.CONFLICT).body("La cartella esiste già."); // Restituisce un errore di conflitto
+        if (!StorageBackend.isValidName(folderName)) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Nome della cartella non valido."); // Niente separatori o nomi nascosti
         }
 
-        // Crea la cartella
-        if (folder.mkdirs()) {
+        // Crea la cartella, se non esiste già
+        try {
+            if (!storage.createFolder(folderName)) {
+                logger.warn("Tentativo di creare una cartella esistente: {}", folderName); // Registra un avviso
+                return ResponseEntity.status(HttpStatus.CONFLICT).body("La cartella esiste già."); // Restituisce un errore di conflitto
+            }
+            Folder folder = folderService.findOrCreate(folderName); // Registra la cartella nella tabella folders
+            AuthenticatedUser user = FolderAccess.currentUser();
+            if (user != null) {
+                grantService.grantOwner(folder, user.userId()); // Chi crea la cartella ne è il proprietario
+            }
+            eventPublisher.publishEvent(FolderChangeEvent.folder(FolderChangeEvent.Type.FOLDER_CREATED, folderName));
             logger.info("Cartella creata con successo: {}", folderName); // Registra un'informazione
             return ResponseEntity.status(HttpStatus.CREATED).body("Cartella creata con successo: " + folderName); // Restituisce una risposta di successo
-        } else {
-            logger.error("Errore nella creazione della cartella: {}", folderName); // Registra un errore
+        } catch (IOException e) {
+            logger.error("Errore nella creazione della cartella {}: {}", folderName, e.getMessage()); // Registra un errore
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Errore nella creazione della cartella."); // Restituisce un errore interno
         }
     }
 
-    // Endpoint per ottenere tutte le cartelle
+    // Endpoint per ottenere le cartelle, una pagina alla volta
+    // Il client passa il cursore ricevuto nell'intestazione X-Next-Cursor per ottenere la pagina successiva
     @GetMapping
-    public ResponseEntity<List<String>> getAllFolders() {
-        File baseDir = new File(baseDirectory); // Crea un oggetto File per la directory base
-        File[] directories = baseDir.listFiles(File::isDirectory); // Ottiene tutte le directory nella base
-
-        List<String> folderNames = new ArrayList<>(); // Lista per memorizzare i nomi delle cartelle
-        if (directories != null) {
-            for (File dir : directories) {
-                folderNames.add(dir.getName()); // Aggiunge il nome della cartella alla lista
-            }
+    public ResponseEntity<List<String>> getAllFolders(@RequestParam(value = "after", required = false) String after,
+                                                      @RequestParam(value = "limit", defaultValue = "1000") int limit,
+                                                      @RequestParam(value = "sort", defaultValue = "name") String sort) {
+        DirectoryListingService.SortOrder sortOrder = DirectoryListingService.SortOrder.parse(sort);
+        if (sortOrder == null || limit < 1 || limit > MAX_PAGE_SIZE) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(null); // Parametri di paginazione non validi
+        }
+
+        try {
+            // Per chi non è amministratore solo le cartelle condivise con l'utente, lette dalla PermissionCache
+            DirectoryListingService.ListingPage page = FolderAccess.isAdmin()
+                    ? directoryListingService.listFolders(sortOrder, after, limit)
+                    : directoryListingService.listFolders(sortOrder, after, limit, folderAccess.accessibleFolders(FolderGrant.Permission.READ));
+            logger.debug("Elenco delle cartelle recuperato con successo."); // Registra un'informazione (solo in debug: è il percorso più frequente)
+            return pageResponse(page); // Restituisce l'elenco delle cartelle
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(null); // Cursore non valido
+        } catch (IOException e) {
+            logger.error("Errore nella lettura delle cartelle: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(null);
         }
+    }
 
-        logger.info("Elenco delle cartelle recuperato con successo."); // Registra un'informazione
-        return ResponseEntity.ok(folderNames); // Restituisce l'elenco delle cartelle
+    // Endpoint per ottenere le cartelle in streaming (una riga JSON per cartella, Accept: application/x-ndjson)
+    // Le voci vengono scritte mentre la directory viene letta, senza costruire l'elenco in memoria
+    @GetMapping(produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamAllFolders() {
+        AuthenticatedUser user = FolderAccess.currentUser(); // Letto qui: il corpo viene scritto da un altro thread
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(output -> directoryListingService.forEachFolder(entry -> {
+                    if (folderAccess.canAccess(user, entry.name(), FolderGrant.Permission.READ)) {
+                        writeLine(output, entry);
+                    }
+                }));
     }
 
-    // Nuovo endpoint per ottenere le immagini in una cartella specifica
+    // Nuovo endpoint per ottenere le immagini in una cartella specifica, una pagina alla volta
     @GetMapping("/{folderName}/images")
-    public ResponseEntity<List<String>> getImagesByFolder(@PathVariable String folderName) {
-        File folder = new File(baseDirectory + folderName); // Crea un oggetto File per la cartella specificata
-        if (!folder.exists() || !folder.isDirectory()) {
+    public ResponseEntity<List<String>> getImagesByFolder(@PathVariable String folderName,
+                                                          @RequestParam(value = "after", required = false) String after,
+                                                          @RequestParam(value = "limit", defaultValue = "1000") int limit,
+                                                          @RequestParam(value = "sort", defaultValue = "name") String sort) {
+        DirectoryListingService.SortOrder sortOrder = DirectoryListingService.SortOrder.parse(sort);
+        if (sortOrder == null || limit < 1 || limit > MAX_PAGE_SIZE) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(null); // Parametri di paginazione non validi
+        }
+
+        try {
+            DirectoryListingService.ListingPage page = directoryListingService.listImages(folderName, sortOrder, after, limit);
+            logger.debug("Immagini recuperate per la cartella: {}", folderName); // Registra un'informazione (solo in debug: è il percorso più frequente)
+            return pageResponse(page); // Restituisce l'elenco delle immagini trovate nella cartella
+        } catch (NoSuchFileException | NotDirectoryException e) {
             return ResponseEntity.status(HttpStatus.NOT_FOUND).body(null); // Restituisce un errore se la cartella non esiste
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(null); // Cursore non valido
+        } catch (IOException e) {
+            logger.error("Errore nella lettura della cartella {}: {}", folderName, e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(null);
         }
+    }
 
-        List<String> imageNames = new ArrayList<>(); // Lista per memorizzare i nomi delle immagini
-        File[] files = folder.listFiles(); // Ottiene tutti i file nella cartella
-        if (files != null) {
-            for (File file : files) {
-                if (isImageFile(file)) { // Controlla se il file è un'immagine
-                    imageNames.add(file.getName()); // Aggiunge il nome dell'immagine alla lista
-                }
+    // Endpoint per ottenere le immagini di una cartella in streaming (Accept: application/x-ndjson)
+    @GetMapping(value = "/{folderName}/images", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamImagesByFolder(@PathVariable String folderName) {
+        try {
+            if (!directoryListingService.folderExists(folderName)) {
+                return ResponseEntity.status(HttpStatus.NOT_FOUND).body(null); // Restituisce un errore se la cartella non esiste
             }
+        } catch (IOException e) {
+            logger.error("Errore nella lettura della cartella {}: {}", folderName, e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(null);
+        }
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(output -> directoryListingService.forEachImage(folderName, entry -> writeLine(output, entry)));
+    }
+
+    // Endpoint per ricevere le cartelle create ed eliminate come Server-Sent Events, invece di rileggere l'elenco.
+    // Ogni evento contiene type e folderName; un evento "overflow" indica che alcuni eventi sono andati persi
+    @GetMapping(value = "/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> folderEvents() {
+        return eventStream(changeFeed.subscribe(null, FolderAccess.currentUser()));
+    }
+
+    // Endpoint per ricevere le immagini caricate ed eliminate in una cartella come Server-Sent Events.
+    // Il flusso termina quando la cartella viene eliminata
+    @GetMapping(value = "/{folderName}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> imageEvents(@PathVariable String folderName) {
+        try {
+            if (!directoryListingService.folderExists(folderName)) {
+                return ResponseEntity.status(HttpStatus.NOT_FOUND).body(null); // Restituisce un errore se la cartella non esiste
+            }
+        } catch (IOException e) {
+            logger.error("Errore nella lettura della cartella {}: {}", folderName, e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(null);
+        }
+        return eventStream(changeFeed.subscribe(folderName, FolderAccess.currentUser()));
+    }
+
+    // Risposta di un flusso di eventi: 503 se il numero massimo di iscritti è stato raggiunto
+    private ResponseEntity<SseEmitter> eventStream(SseEmitter emitter) {
+        if (emitter == null) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, "30").body(null);
         }
+        return ResponseEntity.ok()
+                .cacheControl(CacheControl.noStore())
+                .header("X-Accel-Buffering", "no") // I proxy nginx non devono trattenere gli eventi nel buffer
+                .body(emitter);
+    }
+
+    // Endpoint per le statistiche della cache del contenuto delle cartelle
+    @GetMapping("/cache/stats")
+    public ResponseEntity<FolderMetadataCache.Stats> getCacheStats() {
+        return ResponseEntity.ok(folderMetadataCache.stats());
+    }
 
-        logger.info("Immagini recuperate per la cartella: {}", folderName); // Registra un'informazione
-        return ResponseEntity.ok(imageNames); // Restituisce l'elenco delle immagini trovate nella cartella
+    // Costruisce la risposta di una pagina: i nomi nel corpo, il cursore successivo nell'intestazione
+    private ResponseEntity<List<String>> pageResponse(DirectoryListingService.ListingPage page) {
+        List<String> names = new ArrayList<>(page.entries().size());
+        for (DirectoryListingService.FileEntry entry : page.entries()) {
+            names.add(entry.name());
+        }
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (page.nextCursor() != null) {
+            response.header(NEXT_CURSOR_HEADER, page.nextCursor());
+        }
+        return response.body(names);
+    }
+
+    // Scrive una voce come riga NDJSON
+    private void writeLine(OutputStream output, Object value) throws IOException {
+        output.write(objectMapper.writeValueAsBytes(value));
+        output.write('\n');
     }
 
     // Nuovo endpoint per servire le immagini
+    // Il file viene restituito come Resource: Spring lo copia sul socket con un buffer fisso
+    // (nessun byte[] grande quanto l'immagine nell'heap) e gestisce da solo le richieste Range (206 Partial Content).
+    // Le richieste condizionali If-None-Match/If-Modified-Since ricevono 304 prima di leggere il file.
+    // La copia rallenta quando il client supera il suo budget di byte al secondo.
+    // Le immagini piccole e richieste spesso sono servite dalla HotImageCache; le richieste Range leggono sempre l'archivio
     @GetMapping("/{folderName}/images/{imageName}")
-    public ResponseEntity<byte[]> getImage(@PathVariable String folderName, @PathVariable String imageName) {
-        File imageFile = new File(baseDirectory + folderName + File.separator + imageName); // Crea un oggetto File per l'immagine specificata
-        if (!imageFile.exists()) {
+    public ResponseEntity<?> getImage(@PathVariable String folderName, @PathVariable String imageName,
+                                      @RequestHeader(value = HttpHeaders.RANGE, required = false) String range,
+                                      WebRequest request) {
+        try {
+            StorageBackend.ObjectInfo info; // Esistenza, dimensione e data di modifica in una sola chiamata
+            try (RequestTrace.Step step = RequestTrace.step(RequestTrace.FS_STAT)) {
+                info = storage.stat(folderName, imageName);
+            }
+            if (info == null) {
+                return ResponseEntity.status(HttpStatus.NOT_FOUND).body(null); // Restituisce un errore se l'immagine non esiste
+            }
+            long lastModified = info.lastModified();
+            String eTag = eTag(info.size(), lastModified);
+            if (request.checkNotModified(eTag, lastModified)) {
+                return null; // 304 Not Modified: la copia del client è valida, niente da leggere né da caricare in cache
+            }
+            String mimeType = URLConnection.guessContentTypeFromName(imageName); // Ottiene il tipo MIME dell'immagine
+            ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                    .contentType(MediaType.parseMediaType(mimeType != null ? mimeType : "application/octet-stream")) // Imposta il tipo di contenuto
+                    .eTag(eTag) // Permette al client di rivalidare la copia in cache
+                    .lastModified(lastModified)
+                    .cacheControl(CacheControl.noCache()) // Il client può tenere l'immagine ma deve rivalidarla (costa solo un 304)
+                    .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + imageName + "\""); // Aggiungi l'intestazione per il download
+            if (range == null) {
+                HotImageCache.Entry cached = hotImageCache.get(folderName, imageName, info);
+                if (cached != null) {
+                    return response.body(cached); // Scritto dal buffer diretto (CachedImageHttpMessageConverter)
+                }
+            }
+            return response.body(rateLimiter.currentClient().throttle(storage.resource(folderName, imageName, info))); // Letto in streaming dall'archivio, al ritmo del budget del client
+        } catch (IOException e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(null); // Restituisce un errore interno in caso di eccezione
+        }
+    }
+
+    // Endpoint per servire una versione ridimensionata dell'immagine (es. ?w=320&fmt=jpeg)
+    // Le varianti vengono generate una sola volta e servite dalla cache su disco
+    @GetMapping(value = "/{folderName}/images/{imageName}", params = "w")
+    public ResponseEntity<Resource> getImageVariant(@PathVariable String folderName, @PathVariable String imageName,
+                                                    @RequestParam("w") int width,
+                                                    @RequestParam(value = "fmt", defaultValue = "jpeg") String fmt,
+                                                    WebRequest request) {
+        ThumbnailService.Format format = ThumbnailService.Format.parse(fmt);
+        if (format == null || !thumbnailService.isValidWidth(width)) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(null); // Larghezza o formato non supportati
+        }
+
+        if (!DirectoryListingService.isImageFile(imageName)) {
             return ResponseEntity.status(HttpStatus.NOT_FOUND).body(null); // Restituisce un errore se l'immagine non esiste
         }
 
         try {
-            byte[] imageBytes = Files.readAllBytes(imageFile.toPath()); // Legge i byte dell'immagine
-            String mimeType = URLConnection.guessContentTypeFromName(imageFile.getName()); // Ottiene il tipo MIME dell'immagine
+            ThumbnailService.Variant variant;
+            try (RequestTrace.Step step = RequestTrace.step(RequestTrace.THUMBNAIL)) {
+                variant = thumbnailService.openVariant(folderName, imageName, width, format);
+            }
+            if (request.checkNotModified(variant.key())) {
+                variant.input().close(); // 304 Not Modified: il corpo non viene scritto, quindi nessuno chiuderebbe il file
+                return null;
+            }
             return ResponseEntity.ok()
-                    .contentType(MediaType.parseMediaType(mimeType != null ? mimeType : "application/octet-stream")) // Imposta il tipo di contenuto
-                    .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + imageFile.getName() + "\"") // Aggiungi l'intestazione per il download
-                    .body(imageBytes); // Restituisce i byte dell'immagine
+                    .contentType(MediaType.parseMediaType(format.getMimeType()))
+                    .eTag(variant.key()) // La chiave in cache identifica già la versione
+                    .cacheControl(CacheControl.noCache())
+                    .body(rateLimiter.currentClient().throttle(variant.resource())); // Già aperta: la pulizia della cache non la interrompe
+        } catch (NoSuchFileException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(null); // L'originale non esiste
+        } catch (RejectedExecutionException e) {
+            logger.warn("Coda delle miniature piena, richiesta rifiutata: {}/{}", folderName, imageName);
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, "1").body(null);
         } catch (IOException e) {
+            logger.error("Errore nella generazione della miniatura {}/{}: {}", folderName, imageName, e.getMessage());
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(null); // Restituisce un errore interno in caso di eccezione
         }
     }
 
-    // Metodo privato per verificare se un file è un'immagine
-    private boolean isImageFile(File file) {
-        String[] imageExtensions = { "jpg", "jpeg", "png", "gif", "bmp", "tiff" }; // Estensioni valide per le immagini
-        String fileName = file.getName().toLowerCase(); // Ottiene il nome del file in minuscolo
-        for (String extension : imageExtensions) {
-            if (fileName.endsWith(extension)) {
-                return true; // Restituisce true se il file ha un'estensione valida
-            }
+    // Endpoint per scaricare la cartella come archivio ZIP, scritto in streaming senza file temporanei.
+    // Con ?files=a.jpg&files=b.jpg si scaricano solo i file indicati; con ?parts=N&part=K (K da 1 a N)
+    // si scarica la K-esima di N parti, ognuna un archivio completo: se il download si interrompe basta ripetere quella parte
+    @GetMapping("/{folderName}/archive")
+    public ResponseEntity<StreamingResponseBody> getArchive(@PathVariable String folderName,
+                                                            @RequestParam(value = "files", required = false) List<String> files,
+                                                            @RequestParam(value = "part", defaultValue = "1") int part,
+                                                            @RequestParam(value = "parts", defaultValue = "1") int parts) {
+        return archiveResponse(folderName, files, part, parts);
+    }
+
+    // Come sopra, con l'elenco dei file nel corpo della richiesta (per selezioni troppo lunghe per l'URL)
+    @PostMapping("/{folderName}/archive")
+    public ResponseEntity<StreamingResponseBody> postArchive(@PathVariable String folderName,
+                                                             @RequestBody List<String> files,
+                                                             @RequestParam(value = "part", defaultValue = "1") int part,
+                                                             @RequestParam(value = "parts", defaultValue = "1") int parts) {
+        if (files == null || files.isEmpty()) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(null); // Nessun file selezionato
+        }
+        return archiveResponse(folderName, files, part, parts);
+    }
+
+    private ResponseEntity<StreamingResponseBody> archiveResponse(String folderName, List<String> files, int part, int parts) {
+        ArchiveService.ArchivePlan plan;
+        try (RequestTrace.Step step = RequestTrace.step(RequestTrace.FS_SCAN)) {
+            plan = archiveService.plan(folderName, files, part, parts);
+        } catch (NoSuchFileException | NotDirectoryException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(null); // Restituisce un errore se la cartella non esiste
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(null); // Parte o nomi dei file non validi
+        } catch (IOException e) {
+            logger.error("Errore nella lettura della cartella {}: {}", folderName, e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(null);
         }
-        return false; // Restituisce false se il file non è un'immagine
+        if (files != null && !files.isEmpty() && plan.entries().isEmpty() && parts == 1) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(null); // Nessuno dei file selezionati esiste
+        }
+
+        String fileName = parts == 1 ? folderName + ".zip" : folderName + ".part" + part + "of" + parts + ".zip";
+        RateLimiter.Client client = rateLimiter.currentClient(); // Letto qui: il corpo viene scritto da un altro thread
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType("application/zip"))
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + fileName + "\"")
+                .header("X-Archive-Entries", String.valueOf(plan.entries().size())) // Numero di file nella parte
+                .header("X-Archive-Bytes", String.valueOf(plan.totalBytes())) // Byte dei file, esclusi gli header ZIP
+                .cacheControl(CacheControl.noStore())
+                .body(output -> {
+                    try {
+                        archiveService.write(plan, client.throttle(output));
+                    } catch (IOException e) {
+                        // La risposta è già iniziata: il client riceve un archivio troncato e può ripetere la parte
+                        logger.warn("Archivio {} interrotto: {}", fileName, e.getMessage());
+                        throw e;
+                    }
+                });
+    }
+
+    // Metodo privato per calcolare l'ETag di un file a partire da dimensione e data di modifica
+    private String eTag(long size, long lastModified) {
+        return "\"" + Long.toHexString(size) + "-" + Long.toHexString(lastModified) + "\"";
     }
 
     // Classe interna per la richiesta di creazione della cartella
@@ -135,45 +427,29 @@ public class FolderController {
     }
 
     // Nuovo endpoint per cancellare una o più cartelle
+    // L'eliminazione avviene in background: la risposta contiene l'id del job da consultare per l'avanzamento
     @DeleteMapping
-    public ResponseEntity<String> deleteFolders(@RequestBody List<String> folderNames) {
+    public ResponseEntity<?> deleteFolders(@RequestBody List<String> folderNames) {
         if (folderNames == null || folderNames.isEmpty()) {
             return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Nessun nome di cartella fornito."); // Restituisce un errore se non ci sono nomi
         }
-
-        StringBuilder responseMessage = new StringBuilder();
         for (String folderName : folderNames) {
-            File folder = new File(baseDirectory + folderName); // Crea un oggetto File per la cartella
-
-            // Controlla se la cartella esiste
-            if (!folder.exists() || !folder.isDirectory()) {
-                responseMessage.append("La cartella ").append(folderName).append(" non esiste.\n");
-                continue; // Passa alla prossima cartella
-            }
-
-            // Cancella la cartella
-            if (deleteDirectory(folder)) {
-                responseMessage.append("Cartella ").append(folderName).append(" eliminata con successo.\n");
-            } else {
-                responseMessage.append("Errore nell'eliminazione della cartella ").append(folderName).append(".\n");
+            if (!folderAccess.canAccess(folderName, FolderGrant.Permission.OWNER)) {
+                return ResponseEntity.status(HttpStatus.FORBIDDEN).body("Permesso negato per la cartella: " + folderName); // Solo il proprietario può eliminarla
             }
         }
 
-        return ResponseEntity.ok(responseMessage.toString()); // Restituisce un messaggio di successo o errore
+        FolderDeletionService.JobStatus job = folderDeletionService.submit(folderNames);
+        return ResponseEntity.accepted()
+                .location(URI.create("/api/folders/delete-jobs/" + job.id())) // Dove consultare lo stato del job
+                .body(job);
     }
 
-    // Metodo privato per eliminare una directory e il suo contenuto
-    private boolean deleteDirectory(File directory) {
-        File[] files = directory.listFiles(); // Ottiene tutti i file nella directory
-        if (files != null) {
-            for (File file : files) {
-                if (file.isDirectory()) {
-                    deleteDirectory(file); // Ricorsivamente elimina le sottodirectory
-                } else {
-                    file.delete(); // Elimina il file
-                }
-            }
-        }
-        return directory.delete(); // Elimina la directory stessa
+    // Endpoint per consultare lo stato di un job di eliminazione
+    @GetMapping("/delete-jobs/{jobId}")
+    public ResponseEntity<FolderDeletionService.JobStatus> getDeleteJob(@PathVariable String jobId) {
+        return folderDeletionService.getStatus(jobId)
+                .map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.status(HttpStatus.NOT_FOUND).body(null)); // Job inesistente o scaduto
     }
-}
\ No newline at end of file
+}
@@ -1,20 +1,44 @@
 package com.photoandvision.folder_sharing_pp.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.photoandvision.folder_sharing_pp.entity.Folder;
+import com.photoandvision.folder_sharing_pp.entity.FolderGrant;
+import com.photoandvision.folder_sharing_pp.event.FolderChangeEvent;
 import com.photoandvision.folder_sharing_pp.entity.Image;
+import com.photoandvision.folder_sharing_pp.repo.ImageDetails;
 import com.photoandvision.folder_sharing_pp.repo.ImageRepository;
+import com.photoandvision.folder_sharing_pp.repo.ImageSummary;
+import com.photoandvision.folder_sharing_pp.security.FolderAccess;
+import com.photoandvision.folder_sharing_pp.service.FolderService;
+import com.photoandvision.folder_sharing_pp.service.ImageIngestService;
+import com.photoandvision.folder_sharing_pp.storage.StorageBackend;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.io.IOException;
-import java.nio.file.Files;
+import java.io.UncheckedIOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.stream.Stream;
 
 @Controller
 @CrossOrigin("*")
@@ -23,60 +47,110 @@ public class ImageUploadController {
     @Autowired
     private ImageRepository imageRepository;
 
-    // Imposta un percorso assoluto per la directory di upload
-    @Value("${upload.dir}")
-    private String uploadDir;
+    @Autowired
+    private ImageIngestService imageIngestService;
+
+    @Autowired
+    private FolderService folderService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    private StorageBackend storage; // Archivio dei file (disco locale o object store)
+
+    @Autowired
+    private FolderAccess folderAccess; // Controllo dei permessi dell'utente corrente
+
+    private final TransactionTemplate readOnlyTransaction; // Transazione in sola lettura per le query in streaming
+    private final TransactionTemplate transaction; // Transazione per le istruzioni di modifica
+
+    private static final int MAX_PAGE_SIZE = 1000; // Dimensione massima di una pagina
+    private static final List<String> SEARCH_SORTS = List.of("takenAt", "name", "size", "id"); // Ordinamenti della ricerca
+
+    public ImageUploadController(PlatformTransactionManager transactionManager) {
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.transaction = new TransactionTemplate(transactionManager);
+    }
 
-    // Endpoint per ottenere l'elenco di tutte le immagini
+    // Endpoint per ottenere l'elenco delle immagini, una pagina alla volta in ordine di id
+    // Il client passa come "after" il valore dell'intestazione X-Next-Cursor della risposta precedente
     @GetMapping
-    public ResponseEntity<List<Image>> listImages() {
-        List<Image> images = imageRepository.findAll();
-        return ResponseEntity.ok(images); // Restituisce un JSON con l'elenco delle immagini
+    public ResponseEntity<List<ImageSummary>> listImages(@RequestParam(value = "after", defaultValue = "0") long after,
+                                                         @RequestParam(value = "limit", defaultValue = "1000") int limit) {
+        if (after < 0 || limit < 1 || limit > MAX_PAGE_SIZE) {
+            return ResponseEntity.badRequest().body(null); // Parametri di paginazione non validi
+        }
+
+        List<ImageSummary> images = imageRepository.findByIdGreaterThanOrderByIdAsc(after, Limit.of(limit));
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (images.size() == limit) {
+            response.header("X-Next-Cursor", String.valueOf(images.get(images.size() - 1).getId()));
+        }
+        return response.body(images); // Restituisce un JSON con l'elenco delle immagini
+    }
+
+    // Endpoint per ottenere tutte le immagini in streaming (una riga JSON per immagine, Accept: application/x-ndjson)
+    // Le righe vengono lette dal database e scritte sulla risposta una alla volta
+    @GetMapping(produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamImages() {
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(output -> readOnlyTransaction.executeWithoutResult(status -> {
+                    try (Stream<ImageSummary> images = imageRepository.streamAllByOrderByIdAsc()) {
+                        Iterator<ImageSummary> iterator = images.iterator();
+                        while (iterator.hasNext()) {
+                            output.write(objectMapper.writeValueAsBytes(iterator.next()));
+                            output.write('\n');
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e); // Il client ha chiuso la connessione
+                    }
+                }));
     }
 
     // Endpoint per caricare un'immagine in una cartella specificata
+    // I file vengono salvati in parallelo; i contenuti già presenti non vengono scritti una seconda volta
     @PostMapping("/upload/{folderName}")
     public ResponseEntity<String> uploadImage(@PathVariable String folderName, @RequestParam("file") MultipartFile[] files) {
+        if (!StorageBackend.isValidName(folderName)) {
+            return ResponseEntity.badRequest().body("Folder name is not valid.");
+        }
+
         // Controlla se i file sono vuoti
         if (files.length == 0) {
             return ResponseEntity.badRequest().body("No files selected. Please select at least one file to upload.");
         }
 
-        StringBuilder responseMessage = new StringBuilder();
-
-        try {
-            // Crea la directory se non esiste
-            Path folderPath = Paths.get(uploadDir, folderName); // Crea il percorso della cartella
-            if (!Files.exists(folderPath)) {
-                // Se la cartella non esiste, creala
-                Files.createDirectories(folderPath);
+        List<MultipartSource> sources = new ArrayList<>(files.length);
+        for (MultipartFile file : files) {
+            // Controlla se il file è vuoto
+            if (file.isEmpty()) {
+                continue; // Salta i file vuoti
             }
 
-            for (MultipartFile file : files) {
-                // Controlla se il file è vuoto
-                if (file.isEmpty()) {
-                    continue; // Salta i file vuoti
-                }
+            // Estrai il nome del file dal MultipartFile, senza eventuali directory
+            String fileName = file.getOriginalFilename(); // Ottiene il nome originale del file
+            Path name = fileName != null ? Paths.get(fileName).getFileName() : null;
+            if (name == null || name.toString().startsWith(".")) {
+                return ResponseEntity.badRequest().body("File name is not valid."); // Controlla se il nome del file è valido
+            }
+            sources.add(new MultipartSource(name.toString(), file));
+        }
 
-                // Estrai il nome del file dal MultipartFile
-                String fileName = file.getOriginalFilename(); // Ottiene il nome originale del file
-                if (fileName == null) {
-                    return ResponseEntity.badRequest().body("File name is not valid."); // Controlla se il nome del file è valido
+        try {
+            StringBuilder responseMessage = new StringBuilder();
+            for (ImageIngestService.IngestResult result : imageIngestService.ingest(folderName, sources)) {
+                if (result.error() != null) {
+                    responseMessage.append(result.fileName()).append(" failed: ").append(result.error()).append("\n");
+                } else {
+                    responseMessage.append(result.fileName()).append(" uploaded successfully.\n"); // Aggiungi il messaggio di successo
                 }
-
-                // Salva il file nella cartella specificata
-                Path filePath = folderPath.resolve(fileName); // Crea il percorso completo del file
-                file.transferTo(filePath); // Trasferisce il file nella directory
-
-                // Salva i dettagli dell'immagine nel database
-                Image image = new Image(); // Crea un nuovo oggetto immagine
-                image.setName(fileName); // Usa il nome del file come nome dell'immagine
-                image.setUrl(filePath.toString()); // Imposta l'URL del file (potresti voler usare solo il nome del file qui)
-                imageRepository.save(image); // Salva l'immagine nel database
-
-                responseMessage.append(fileName).append(" uploaded successfully.\n"); // Aggiungi il messaggio di successo
             }
-
             return ResponseEntity.ok(responseMessage.toString()); // Restituisce una risposta di successo
         } catch (IOException e) {
             e.printStackTrace(); // Stampa lo stack trace in caso di errore
@@ -84,54 +158,115 @@ public class ImageUploadController {
         }
     }
 
+    // File ricevuto via multipart: transferTo sposta il file temporaneo del container quando è sullo stesso volume
+    private record MultipartSource(String fileName, MultipartFile file) implements ImageIngestService.Source {
+        @Override
+        public void transferTo(Path target) throws IOException {
+            file.transferTo(target);
+        }
+    }
+
     // Endpoint per ottenere le immagini in una cartella specificata
+    // La ricerca usa l'indice (folder_id, name) e restituisce una pagina di proiezioni,
+    // quindi il costo non dipende dal numero totale di immagini nel sistema
     @GetMapping("/folder/{folderName}")
-    public ResponseEntity<List<Image>> getImagesByFolder(@PathVariable String folderName) {
-        try {
-            // Crea il percorso della cartella
-            Path folderPath = Paths.get(uploadDir, folderName);
+    public ResponseEntity<List<ImageSummary>> getImagesByFolder(@PathVariable String folderName,
+                                                                @RequestParam(value = "page", defaultValue = "0") int page,
+                                                                @RequestParam(value = "size", defaultValue = "200") int size,
+                                                                @RequestParam(value = "sort", defaultValue = "name") String sort) {
+        if (page < 0 || size < 1 || size > MAX_PAGE_SIZE || !("name".equals(sort) || "id".equals(sort))) {
+            return ResponseEntity.badRequest().body(null); // Parametri di paginazione non validi
+        }
 
-            // Controlla se la cartella esiste
-            if (!Files.exists(folderPath) || !Files.isDirectory(folderPath)) {
-                return ResponseEntity.badRequest().body(null); // Restituisce un errore se la cartella non esiste
+        try {
+            Optional<Folder> folder = folderService.getFolderByName(folderName);
+            if (folder.isEmpty()) {
+                // Nessuna immagine registrata: la cartella può comunque esistere nell'archivio ed essere vuota
+                if (!storage.folderExists(folderName)) {
+                    return ResponseEntity.badRequest().body(null); // Restituisce un errore se la cartella non esiste
+                }
+                return ResponseEntity.ok(List.of());
             }
 
-            // Ottieni tutti i file nella cartella
-            List<Image> images = imageRepository.findAll(); // Ottieni tutte le immagini dal database
-            List<Image> imagesInFolder = new ArrayList<>();
+            Slice<ImageSummary> images = imageRepository.findByFolderId(folder.get().getId(),
+                    PageRequest.of(page, size, Sort.by(sort, "id")));
 
-            for (Image image : images) {
-                // Controlla se l'immagine è nella cartella specificata
-                if (image.getUrl().startsWith(folderPath.toString())) {
-                    imagesInFolder.add(image);
-                }
+            ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+            if (images.hasNext()) {
+                response.header("X-Next-Page", String.valueOf(page + 1)); // Indica al client che ci sono altre pagine
             }
-
-            return ResponseEntity.ok(imagesInFolder); // Restituisce le immagini trovate nella cartella
+            return response.body(images.getContent()); // Restituisce le immagini trovate nella cartella
         } catch (Exception e) {
             e.printStackTrace();
             return ResponseEntity.status(500).body(null); // Restituisce un errore interno del server
         }
     }
+    // Endpoint per cercare le immagini per metadati (es. ?from=2024-06-01T00:00:00&camera=X100V&orientation=portrait&sort=takenAt&dir=desc)
+    // Filtri e ordinamento usano le colonne estratte dall'EXIF: i file non vengono letti
+    @GetMapping("/search")
+    public ResponseEntity<List<ImageDetails>> searchImages(@RequestParam(value = "folder", required = false) String folderName,
+                                                           @RequestParam(value = "from", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+                                                           @RequestParam(value = "to", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+                                                           @RequestParam(value = "camera", required = false) String camera,
+                                                           @RequestParam(value = "orientation", required = false) String orientation,
+                                                           @RequestParam(value = "sort", defaultValue = "takenAt") String sort,
+                                                           @RequestParam(value = "dir", defaultValue = "desc") String dir,
+                                                           @RequestParam(value = "page", defaultValue = "0") int page,
+                                                           @RequestParam(value = "size", defaultValue = "200") int size) {
+        if (page < 0 || size < 1 || size > MAX_PAGE_SIZE || !SEARCH_SORTS.contains(sort)
+                || !("asc".equals(dir) || "desc".equals(dir))) {
+            return ResponseEntity.badRequest().body(null); // Parametri di paginazione non validi
+        }
+
+        Image.Orientation orientationFilter = null;
+        if (orientation != null) {
+            try {
+                orientationFilter = Image.Orientation.valueOf(orientation.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                return ResponseEntity.badRequest().body(null); // Orientamento sconosciuto
+            }
+        }
+
+        // Senza cartella la ricerca copre tutte le immagini: riservata agli amministratori
+        if (folderName == null ? !FolderAccess.isAdmin() : !folderAccess.canAccess(folderName, FolderGrant.Permission.READ)) {
+            return ResponseEntity.status(403).body(null);
+        }
+
+        Long folderId = null;
+        if (folderName != null) {
+            Optional<Folder> folder = folderService.getFolderByName(folderName);
+            if (folder.isEmpty()) {
+                return ResponseEntity.ok(List.of()); // Nessuna immagine registrata nella cartella
+            }
+            folderId = folder.get().getId();
+        }
+
+        Sort.Direction direction = "asc".equals(dir) ? Sort.Direction.ASC : Sort.Direction.DESC;
+        Slice<ImageDetails> images = imageRepository.search(folderId, from, to, camera, orientationFilter,
+                PageRequest.of(page, size, Sort.by(direction, sort, "id"))); // L'id rende stabile l'ordine a parità di valore
+
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (images.hasNext()) {
+            response.header("X-Next-Page", String.valueOf(page + 1)); // Indica al client che ci sono altre pagine
+        }
+        return response.body(images.getContent());
+    }
+
     // Endpoint per eliminare un'immagine
     @DeleteMapping("/delete/{folderName}/{fileName}")
     public ResponseEntity<String> deleteImage(@PathVariable String folderName, @PathVariable String fileName) {
         try {
-            // Crea il percorso del file da eliminare
-            Path filePath = Paths.get(uploadDir, folderName, fileName);
-
-            // Controlla se il file esiste
-            if (!Files.exists(filePath)) {
+            // Elimina il file dall'archivio, se esiste
+            if (!storage.delete(folderName, fileName)) {
                 return ResponseEntity.badRequest().body("File not found."); // Restituisce un errore se il file non esiste
             }
+            eventPublisher.publishEvent(FolderChangeEvent.image(FolderChangeEvent.Type.IMAGE_DELETED, folderName, fileName));
 
-            // Elimina il file dal filesystem
-            Files.delete(filePath);
-
-            // Rimuovi l'immagine dal database
-            Image image = imageRepository.findByName(fileName); // Assicurati di avere un metodo per trovare l'immagine per nome
-            if (image != null) {
-                imageRepository.delete(image); // Elimina l'immagine dal database
+            // Rimuovi l'immagine dal database: cartella e nome, perché lo stesso nome può esistere in più cartelle
+            Optional<Folder> folder = folderService.getFolderByName(folderName);
+            if (folder.isPresent()) {
+                transaction.executeWithoutResult(status ->
+                        imageRepository.deleteByFolderIdAndNameIn(folder.get().getId(), List.of(fileName)));
             }
 
             return ResponseEntity.ok(fileName + " deleted successfully."); // Restituisce una risposta di successo
@@ -0,0 +1,94 @@
+package com.photoandvision.folder_sharing_pp.controller;
+
+import com.photoandvision.folder_sharing_pp.entity.FolderGrant;
+import com.photoandvision.folder_sharing_pp.repo.GrantedUser;
+import com.photoandvision.folder_sharing_pp.security.FolderAccess;
+import com.photoandvision.folder_sharing_pp.security.ShareLinkService;
+import com.photoandvision.folder_sharing_pp.service.GrantService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+
+@RestController
+@CrossOrigin("*")
+@RequestMapping("/api/folders/{folderName}") // Permessi e link di condivisione di una cartella (solo per il proprietario)
+public class ShareController {
+
+    @Autowired
+    private GrantService grantService;
+
+    @Autowired
+    private ShareLinkService shareLinkService;
+
+    @Autowired
+    private FolderAccess folderAccess;
+
+    // Endpoint per elencare i permessi della cartella
+    @GetMapping("/grants")
+    public ResponseEntity<List<GrantedUser>> getGrants(@PathVariable String folderName) {
+        if (!folderAccess.canAccess(folderName, FolderGrant.Permission.OWNER)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(null);
+        }
+        try {
+            return ResponseEntity.ok(grantService.list(folderName));
+        } catch (NoSuchElementException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(null); // Cartella non registrata
+        }
+    }
+
+    // Endpoint per assegnare un permesso (READ, WRITE o OWNER) a un utente
+    @PutMapping("/grants/{username}")
+    public ResponseEntity<String> putGrant(@PathVariable String folderName, @PathVariable String username,
+                                           @RequestParam("permission") String permission) {
+        if (!folderAccess.canAccess(folderName, FolderGrant.Permission.OWNER)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body("Only the folder owner can share it.");
+        }
+        FolderGrant.Permission level;
+        try {
+            level = FolderGrant.Permission.valueOf(permission.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Permission must be READ, WRITE or OWNER.");
+        }
+        try {
+            grantService.grant(folderName, username, level);
+            return ResponseEntity.ok(username + " now has " + level + " access to " + folderName + ".");
+        } catch (NoSuchElementException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage()); // Cartella o utente inesistente
+        }
+    }
+
+    // Endpoint per revocare il permesso di un utente
+    @DeleteMapping("/grants/{username}")
+    public ResponseEntity<String> deleteGrant(@PathVariable String folderName, @PathVariable String username) {
+        if (!folderAccess.canAccess(folderName, FolderGrant.Permission.OWNER)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body("Only the folder owner can share it.");
+        }
+        try {
+            if (!grantService.revoke(folderName, username)) {
+                return ResponseEntity.status(HttpStatus.NOT_FOUND).body("No grant for " + username + ".");
+            }
+            return ResponseEntity.ok("Grant revoked.");
+        } catch (NoSuchElementException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage());
+        }
+    }
+
+    // Endpoint per creare un link di condivisione in sola lettura, valido per ttlMinutes minuti
+    @PostMapping("/share-links")
+    public ResponseEntity<ShareLinkService.ShareLink> createShareLink(@PathVariable String folderName,
+                                                                      @RequestParam(value = "ttlMinutes", defaultValue = "1440") long ttlMinutes) {
+        if (!folderAccess.canAccess(folderName, FolderGrant.Permission.OWNER)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(null);
+        }
+        try {
+            return ResponseEntity.status(HttpStatus.CREATED).body(shareLinkService.create(folderName, ttlMinutes * 60));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(null); // Durata non valida
+        }
+    }
+}
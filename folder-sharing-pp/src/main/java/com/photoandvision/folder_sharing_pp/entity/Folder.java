@@ -2,11 +2,18 @@ package com.photoandvision.folder_sharing_pp.entity;
 
 
 import jakarta.persistence.*;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 import java.util.Date;
 
+// Letta a ogni richiesta su una cartella e modificata di rado: resta nella cache di secondo livello (regione folders)
 @Entity
-@Table(name = "folders")
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "folders")
+@Table(name = "folders", indexes = {
+        @Index(name = "idx_folder_name", columnList = "name", unique = true) // Ricerca della cartella per nome
+})
 public class Folder {
 
     @Id
@@ -22,6 +29,9 @@ public class Folder {
     @Temporal(TemporalType.TIMESTAMP)
     private Date updatedAt;
 
+    // Versione della cartella nell'archivio all'ultima riconciliazione: se non è cambiata la cartella non viene riletta
+    private Long scannedVersion;
+
     // Costruttori, getter e setter
 
     public Folder() {
@@ -53,4 +63,12 @@ public class Folder {
     public Date getUpdatedAt() {
         return updatedAt;
     }
+
+    public Long getScannedVersion() {
+        return scannedVersion;
+    }
+
+    public void setScannedVersion(Long scannedVersion) {
+        this.scannedVersion = scannedVersion;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,68 @@
+package com.photoandvision.folder_sharing_pp.entity;
+
+import jakarta.persistence.*;
+
+// Permesso di un utente su una cartella condivisa
+@Entity
+@Table(name = "folder_grants", uniqueConstraints = {
+        @UniqueConstraint(name = "uk_grant_user_folder", columnNames = { "user_id", "folder_id" }) // Un solo permesso per utente e cartella
+}, indexes = {
+        @Index(name = "idx_grant_folder", columnList = "folder_id") // Permessi di una cartella, per elencarli o eliminarli
+})
+public class FolderGrant {
+
+    // Livelli di accesso in ordine crescente: ogni livello comprende i precedenti
+    public enum Permission {
+        READ, // Vede le immagini e scarica l'archivio
+        WRITE, // Carica ed elimina immagini
+        OWNER; // Gestisce anche i permessi e i link di condivisione
+
+        public boolean includes(Permission required) {
+            return compareTo(required) >= 0;
+        }
+    }
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @ManyToOne(fetch = FetchType.LAZY, optional = false)
+    @JoinColumn(name = "user_id")
+    private User user;
+
+    @ManyToOne(fetch = FetchType.LAZY, optional = false)
+    @JoinColumn(name = "folder_id")
+    private Folder folder;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 16)
+    private Permission permission;
+
+    public Long getId() {
+        return id;
+    }
+
+    public User getUser() {
+        return user;
+    }
+
+    public void setUser(User user) {
+        this.user = user;
+    }
+
+    public Folder getFolder() {
+        return folder;
+    }
+
+    public void setFolder(Folder folder) {
+        this.folder = folder;
+    }
+
+    public Permission getPermission() {
+        return permission;
+    }
+
+    public void setPermission(Permission permission) {
+        this.permission = permission;
+    }
+}
@@ -1,17 +1,80 @@
 package com.photoandvision.folder_sharing_pp.entity;
 
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import jakarta.persistence.*;
 
+import java.time.LocalDateTime;
+
 @Entity
+@Table(indexes = {
+        @Index(name = "idx_image_folder_name", columnList = "folder_id, name"), // Elenco ordinato delle immagini di una cartella
+        @Index(name = "idx_image_folder_mtime", columnList = "folder_id, lastModified, name"), // Elenco per data di modifica
+        @Index(name = "idx_image_content_hash", columnList = "contentHash"), // Ricerca dei file con lo stesso contenuto
+        @Index(name = "idx_image_folder_taken", columnList = "folder_id, takenAt, id"), // Galleria di una cartella per data di scatto
+        @Index(name = "idx_image_taken", columnList = "takenAt, id"), // Ricerca per intervallo di date su tutte le cartelle
+        @Index(name = "idx_image_camera", columnList = "cameraModel, takenAt"), // Ricerca per fotocamera
+        @Index(name = "idx_image_metadata_status", columnList = "metadataStatus, id"), // Immagini ancora da analizzare
+        @Index(name = "idx_image_phash_status", columnList = "perceptualHashStatus, id") // Immagini senza hash percettivo
+})
 public class Image {
 
+    // Orientamento dell'immagine come viene mostrata (già ruotata secondo il tag EXIF Orientation)
+    public enum Orientation { LANDSCAPE, PORTRAIT, SQUARE }
+
+    // Stato dell'estrazione dei metadati: null per le righe create prima dell'estrazione
+    public enum MetadataStatus { PENDING, DONE, FAILED }
+
+    // Numero di id riservati a ogni lettura della sequenza (ottimizzatore pooled)
+    public static final int ID_ALLOCATION_SIZE = 100;
+
+    // Id da sequenza: con IDENTITY Hibernate deve eseguire ogni insert subito per leggere l'id e non può raggrupparli.
+    // Su MySQL la sequenza è emulata dalla tabella image_seq (vedi ImageSequenceMigration)
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "image_seq")
+    @SequenceGenerator(name = "image_seq", sequenceName = "image_seq", allocationSize = ID_ALLOCATION_SIZE)
     private Long id;
     private String name;
     private String url;
 
+    @Column(length = 64)
+    private String contentHash; // Hash SHA-256 del contenuto, in esadecimale
+
+    private Long size; // Dimensione del file in byte
+    private Long lastModified; // Data di modifica del file nell'archivio, in millisecondi
+    private Integer width; // Larghezza in pixel come viene mostrata
+    private Integer height; // Altezza in pixel come viene mostrata
+    private LocalDateTime takenAt; // Data di scatto EXIF (ora locale della fotocamera)
+
+    @Column(length = 64)
+    private String cameraMake;
+
+    @Column(length = 128)
+    private String cameraModel;
+
+    @Enumerated(EnumType.STRING)
+    @Column(length = 16)
+    private Orientation orientation;
+
+    @Enumerated(EnumType.STRING)
+    @Column(length = 16)
+    @JsonIgnore
+    private MetadataStatus metadataStatus;
+
+    @JsonIgnore
+    private Long perceptualHash; // dHash a 64 bit: immagini simili hanno hash a distanza di Hamming piccola
+
+    // Stato del calcolo dell'hash percettivo: null per le righe nuove o con il contenuto cambiato
+    @Enumerated(EnumType.STRING)
+    @Column(length = 16)
+    @JsonIgnore
+    private MetadataStatus perceptualHashStatus;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "folder_id")
+    @JsonIgnore // Evita di serializzare il proxy lazy della cartella
+    private Folder folder; // Cartella che contiene l'immagine
+
     // Getters e Setters
     public Long getId() {
         return id;
@@ -36,4 +99,108 @@ public class Image {
     public void setUrl(String url) {
         this.url = url;
     }
+
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    public Long getSize() {
+        return size;
+    }
+
+    public void setSize(Long size) {
+        this.size = size;
+    }
+
+    public Long getLastModified() {
+        return lastModified;
+    }
+
+    public void setLastModified(Long lastModified) {
+        this.lastModified = lastModified;
+    }
+
+    public Integer getWidth() {
+        return width;
+    }
+
+    public void setWidth(Integer width) {
+        this.width = width;
+    }
+
+    public Integer getHeight() {
+        return height;
+    }
+
+    public void setHeight(Integer height) {
+        this.height = height;
+    }
+
+    public LocalDateTime getTakenAt() {
+        return takenAt;
+    }
+
+    public void setTakenAt(LocalDateTime takenAt) {
+        this.takenAt = takenAt;
+    }
+
+    public String getCameraMake() {
+        return cameraMake;
+    }
+
+    public void setCameraMake(String cameraMake) {
+        this.cameraMake = cameraMake;
+    }
+
+    public String getCameraModel() {
+        return cameraModel;
+    }
+
+    public void setCameraModel(String cameraModel) {
+        this.cameraModel = cameraModel;
+    }
+
+    public Orientation getOrientation() {
+        return orientation;
+    }
+
+    public void setOrientation(Orientation orientation) {
+        this.orientation = orientation;
+    }
+
+    public MetadataStatus getMetadataStatus() {
+        return metadataStatus;
+    }
+
+    public void setMetadataStatus(MetadataStatus metadataStatus) {
+        this.metadataStatus = metadataStatus;
+    }
+
+    public Long getPerceptualHash() {
+        return perceptualHash;
+    }
+
+    public void setPerceptualHash(Long perceptualHash) {
+        this.perceptualHash = perceptualHash;
+    }
+
+    public MetadataStatus getPerceptualHashStatus() {
+        return perceptualHashStatus;
+    }
+
+    public void setPerceptualHashStatus(MetadataStatus perceptualHashStatus) {
+        this.perceptualHashStatus = perceptualHashStatus;
+    }
+
+    public Folder getFolder() {
+        return folder;
+    }
+
+    public void setFolder(Folder folder) {
+        this.folder = folder;
+    }
 }
\ No newline at end of file
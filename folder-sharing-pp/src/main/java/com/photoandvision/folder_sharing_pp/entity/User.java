@@ -4,11 +4,19 @@ import jakarta.persistence.*;
 
 @Entity
 public class User {
+
+    // Ruolo dell'utente: ADMIN accede a tutte le cartelle senza bisogno di permessi
+    public enum Role { USER, ADMIN }
+
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
     private String username;
-    private String password;
+    private String password; // Hash BCrypt della password
+
+    @Enumerated(EnumType.STRING)
+    @Column(length = 16)
+    private Role role; // null per gli utenti creati prima dei ruoli, trattati come USER
     // getters and setters
 
 
@@ -35,4 +43,12 @@ public class User {
     public void setPassword(String password) {
         this.password = password;
     }
+
+    public Role getRole() {
+        return role;
+    }
+
+    public void setRole(Role role) {
+        this.role = role;
+    }
 }
@@ -0,0 +1,21 @@
+package com.photoandvision.folder_sharing_pp.event;
+
+// Evento pubblicato quando l'applicazione modifica il contenuto di una cartella
+// imageName è null per gli eventi che riguardano l'intera cartella
+public record FolderChangeEvent(Type type, String folderName, String imageName) {
+
+    public enum Type {
+        FOLDER_CREATED,
+        FOLDER_DELETED,
+        IMAGE_UPLOADED,
+        IMAGE_DELETED
+    }
+
+    public static FolderChangeEvent folder(Type type, String folderName) {
+        return new FolderChangeEvent(type, folderName, null);
+    }
+
+    public static FolderChangeEvent image(Type type, String folderName, String imageName) {
+        return new FolderChangeEvent(type, folderName, imageName);
+    }
+}
@@ -0,0 +1,90 @@
+package com.photoandvision.folder_sharing_pp.metrics;
+
+import com.photoandvision.folder_sharing_pp.config.VirtualThreadPinningMonitor;
+import com.photoandvision.folder_sharing_pp.service.DuplicateService;
+import com.photoandvision.folder_sharing_pp.service.FolderChangeFeed;
+import com.photoandvision.folder_sharing_pp.service.FolderMetadataCache;
+import com.photoandvision.folder_sharing_pp.service.HotImageCache;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.stereotype.Component;
+
+// Espone come metriche le statistiche già raccolte dai componenti dell'applicazione:
+// la cache del contenuto delle cartelle, la cache delle immagini, il flusso SSE delle modifiche,
+// l'indice dei duplicati e i blocchi dei thread virtuali sul carrier
+@Component
+public class ApplicationMetrics implements MeterBinder {
+
+    private final FolderMetadataCache folderMetadataCache;
+    private final HotImageCache hotImageCache;
+    private final FolderChangeFeed changeFeed;
+    private final DuplicateService duplicateService;
+    private final ObjectProvider<VirtualThreadPinningMonitor> pinningMonitor; // Presente solo con i thread virtuali attivi
+
+    public ApplicationMetrics(FolderMetadataCache folderMetadataCache, HotImageCache hotImageCache,
+                              FolderChangeFeed changeFeed, DuplicateService duplicateService,
+                              ObjectProvider<VirtualThreadPinningMonitor> pinningMonitor) {
+        this.folderMetadataCache = folderMetadataCache;
+        this.hotImageCache = hotImageCache;
+        this.changeFeed = changeFeed;
+        this.duplicateService = duplicateService;
+        this.pinningMonitor = pinningMonitor;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("folder.cache.hits", folderMetadataCache, cache -> cache.stats().hits()).register(registry);
+        FunctionCounter.builder("folder.cache.misses", folderMetadataCache, cache -> cache.stats().misses()).register(registry);
+        FunctionCounter.builder("folder.cache.evictions", folderMetadataCache, cache -> cache.stats().evictions()).register(registry);
+        FunctionCounter.builder("folder.cache.invalidations", folderMetadataCache, cache -> cache.stats().invalidations()).register(registry);
+        Gauge.builder("folder.cache.size", folderMetadataCache, cache -> cache.stats().size())
+                .description("Cartelle con il contenuto in cache")
+                .register(registry);
+        Gauge.builder("folder.cache.entries", folderMetadataCache, cache -> cache.stats().entries())
+                .description("File in cache, sommati su tutte le cartelle")
+                .register(registry);
+
+        FunctionCounter.builder("image.cache.hits", hotImageCache, cache -> cache.stats().hits()).register(registry);
+        FunctionCounter.builder("image.cache.misses", hotImageCache, cache -> cache.stats().misses()).register(registry);
+        FunctionCounter.builder("image.cache.loads", hotImageCache, cache -> cache.stats().loads()).register(registry);
+        FunctionCounter.builder("image.cache.evictions", hotImageCache, cache -> cache.stats().evictions()).register(registry);
+        FunctionCounter.builder("image.cache.rejections", hotImageCache, cache -> cache.stats().rejections())
+                .description("Immagini non ammesse perché meno richieste di quelle in cache")
+                .register(registry);
+        FunctionCounter.builder("image.cache.invalidations", hotImageCache, cache -> cache.stats().invalidations()).register(registry);
+        Gauge.builder("image.cache.size", hotImageCache, cache -> cache.stats().size()).register(registry);
+        Gauge.builder("image.cache.bytes", hotImageCache, cache -> cache.stats().bytes())
+                .baseUnit("bytes")
+                .description("Memoria fuori dall'heap occupata dalle immagini in cache")
+                .register(registry);
+
+        Gauge.builder("change.feed.subscribers", changeFeed, feed -> feed.stats().subscribers())
+                .description("Connessioni SSE aperte")
+                .register(registry);
+        FunctionCounter.builder("change.feed.delivered", changeFeed, feed -> feed.stats().delivered()).register(registry);
+        FunctionCounter.builder("change.feed.dropped", changeFeed, feed -> feed.stats().dropped())
+                .description("Eventi scartati perché il client non li leggeva abbastanza in fretta")
+                .register(registry);
+        FunctionCounter.builder("change.feed.rejected", changeFeed, feed -> feed.stats().rejected())
+                .description("Iscrizioni rifiutate oltre il numero massimo di connessioni")
+                .register(registry);
+
+        Gauge.builder("duplicates.index.size", duplicateService, service -> service.stats().indexed())
+                .description("Immagini con l'hash percettivo nell'indice dei duplicati")
+                .register(registry);
+        FunctionCounter.builder("duplicates.hashed", duplicateService, service -> service.stats().hashed()).register(registry);
+        FunctionCounter.builder("duplicates.failed", duplicateService, service -> service.stats().failed())
+                .description("Immagini che non è stato possibile decodificare")
+                .register(registry);
+
+        VirtualThreadPinningMonitor monitor = pinningMonitor.getIfAvailable();
+        if (monitor != null) {
+            FunctionCounter.builder("jvm.threads.virtual.pinned", monitor, VirtualThreadPinningMonitor::getPinnedEvents)
+                    .description("Blocchi di thread virtuali sul carrier oltre la soglia configurata")
+                    .register(registry);
+        }
+    }
+}
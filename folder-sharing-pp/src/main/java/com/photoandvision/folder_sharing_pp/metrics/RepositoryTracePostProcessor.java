@@ -0,0 +1,22 @@
+package com.photoandvision.folder_sharing_pp.metrics;
+
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.data.repository.core.support.RepositoryFactoryBeanSupport;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+// Registra nella traccia della richiesta la durata di ogni chiamata ai repository JPA.
+// Il tempo di attesa di una connessione dal pool è misurato a parte da Hikari (hikaricp.connections.acquire)
+@Component
+public class RepositoryTracePostProcessor implements BeanPostProcessor {
+
+    @Override
+    public Object postProcessBeforeInitialization(Object bean, String beanName) {
+        if (bean instanceof RepositoryFactoryBeanSupport<?, ?, ?> factoryBean) {
+            factoryBean.addRepositoryFactoryCustomizer(factory -> factory.addInvocationListener(
+                    invocation -> RequestTrace.record(RequestTrace.DB_QUERY, invocation.getDuration(TimeUnit.NANOSECONDS))));
+        }
+        return bean;
+    }
+}
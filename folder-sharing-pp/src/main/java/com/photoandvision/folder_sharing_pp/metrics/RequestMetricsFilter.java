@@ -0,0 +1,220 @@
+package com.photoandvision.folder_sharing_pp.metrics;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+import org.apache.catalina.connector.CoyoteOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Misura i byte ricevuti e inviati da ogni endpoint e la durata dei passi della richiesta (RequestTrace).
+// Le richieste più lente della soglia vengono registrate nel log con il passo più lento, senza bisogno del livello debug.
+// Durata e numero delle richieste per endpoint sono già misurati da Spring MVC (http.server.requests)
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 1)
+public class RequestMetricsFilter extends OncePerRequestFilter {
+
+    private static final Logger logger = LoggerFactory.getLogger(RequestMetricsFilter.class);
+    private static final String UNKNOWN_URI = "UNKNOWN"; // Richieste senza handler: evita un tag per ogni URL
+
+    private final MeterRegistry registry;
+    private final long slowRequestNanos; // Soglia oltre la quale una richiesta viene registrata nel log
+
+    public RequestMetricsFilter(MeterRegistry registry,
+                                @Value("${metrics.slow-request-threshold-ms:500}") long slowRequestMs) {
+        this.registry = registry;
+        this.slowRequestNanos = TimeUnit.MILLISECONDS.toNanos(slowRequestMs);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        RequestTrace trace = RequestTrace.start();
+        CountingResponse countingResponse = new CountingResponse(response);
+        try {
+            chain.doFilter(request, countingResponse);
+        } finally {
+            RequestTrace.detach();
+            if (request.isAsyncStarted()) {
+                // Risposta in streaming: i byte vengono scritti da un altro thread, si registra al termine.
+                // Una risposta interrotta (errore o timeout) non sempre arriva a onComplete: si registra una sola volta
+                AtomicBoolean recorded = new AtomicBoolean();
+                request.getAsyncContext().addListener(new AsyncListener() {
+                    @Override
+                    public void onComplete(AsyncEvent event) {
+                        recordOnce();
+                    }
+
+                    @Override
+                    public void onTimeout(AsyncEvent event) {
+                        recordOnce();
+                    }
+
+                    @Override
+                    public void onError(AsyncEvent event) {
+                        recordOnce();
+                    }
+
+                    @Override
+                    public void onStartAsync(AsyncEvent event) {
+                    }
+
+                    private void recordOnce() {
+                        if (recorded.compareAndSet(false, true)) {
+                            record(request, countingResponse, trace);
+                        }
+                    }
+                });
+            } else {
+                record(request, countingResponse, trace);
+            }
+        }
+    }
+
+    private void record(HttpServletRequest request, CountingResponse response, RequestTrace trace) {
+        long totalNanos = trace.finish();
+        Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        String uri = pattern != null ? pattern.toString() : UNKNOWN_URI;
+        String method = request.getMethod();
+
+        long received = request.getContentLengthLong(); // Anche per i multipart, letti da Tomcat senza passare dal filtro
+        if (received > 0) {
+            DistributionSummary.builder("http.server.request.bytes").baseUnit("bytes")
+                    .tags("method", method, "uri", uri).register(registry).record(received);
+        }
+        DistributionSummary.builder("http.server.response.bytes").baseUnit("bytes")
+                .tags("method", method, "uri", uri).register(registry).record(response.bytesWritten);
+
+        Map<String, long[]> steps = trace.steps();
+        String slowestStep = null;
+        long slowestNanos = 0;
+        long stepsNanos = 0;
+        for (Map.Entry<String, long[]> step : steps.entrySet()) {
+            long nanos = step.getValue()[0];
+            Timer.builder("http.server.request.steps").tags("step", step.getKey(), "uri", uri)
+                    .register(registry).record(nanos, TimeUnit.NANOSECONDS);
+            stepsNanos += nanos;
+            if (nanos > slowestNanos) {
+                slowestStep = step.getKey();
+                slowestNanos = nanos;
+            }
+        }
+
+        if (totalNanos >= slowRequestNanos) {
+            StringBuilder breakdown = new StringBuilder();
+            for (Map.Entry<String, long[]> step : steps.entrySet()) {
+                breakdown.append(step.getKey()).append('=').append(TimeUnit.NANOSECONDS.toMillis(step.getValue()[0]))
+                        .append("ms/").append(step.getValue()[1]).append("x ");
+            }
+            breakdown.append("altro=").append(TimeUnit.NANOSECONDS.toMillis(Math.max(0, totalNanos - stepsNanos))).append("ms");
+            logger.warn("Richiesta lenta: {} {} {} ms, passo più lento {} [{}]", method, uri,
+                    TimeUnit.NANOSECONDS.toMillis(totalNanos), slowestStep != null ? slowestStep : "nessuno", breakdown);
+        }
+    }
+
+    // Conta i byte scritti nel corpo della risposta
+    private static final class CountingResponse extends HttpServletResponseWrapper {
+
+        private volatile long bytesWritten;
+        private ServletOutputStream outputStream;
+
+        CountingResponse(HttpServletResponse response) {
+            super(response);
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (outputStream == null) {
+                outputStream = new CountingOutputStream(super.getOutputStream());
+            }
+            return outputStream;
+        }
+
+        // Accetta anche ByteBuffer (WritableByteChannel): con Tomcat un buffer diretto viene copiato solo nel buffer
+        // di uscita della risposta, senza array intermedi allocati qui (es. le immagini della HotImageCache)
+        private final class CountingOutputStream extends ServletOutputStream implements WritableByteChannel {
+
+            private final ServletOutputStream delegate;
+
+            CountingOutputStream(ServletOutputStream delegate) {
+                this.delegate = delegate;
+            }
+
+            @Override
+            public int write(ByteBuffer source) throws IOException {
+                int length = source.remaining();
+                if (delegate instanceof CoyoteOutputStream coyote) {
+                    coyote.write(source);
+                } else {
+                    byte[] chunk = new byte[Math.min(length, 8192)];
+                    while (source.hasRemaining()) {
+                        int n = Math.min(chunk.length, source.remaining());
+                        source.get(chunk, 0, n);
+                        delegate.write(chunk, 0, n);
+                    }
+                }
+                bytesWritten += length;
+                return length;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void write(int b) throws IOException {
+                delegate.write(b);
+                bytesWritten++;
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                delegate.write(b, off, len);
+                bytesWritten += len;
+            }
+
+            @Override
+            public void flush() throws IOException {
+                delegate.flush();
+            }
+
+            @Override
+            public void close() throws IOException {
+                delegate.close();
+            }
+
+            @Override
+            public boolean isReady() {
+                return delegate.isReady();
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+                delegate.setWriteListener(writeListener);
+            }
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.photoandvision.folder_sharing_pp.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Traccia dei passi di una richiesta HTTP (accesso al disco, query, serializzazione) con la loro durata.
+// Viene aperta da RequestMetricsFilter sul thread della richiesta: fuori da una richiesta, o su altri thread, i passi non vengono registrati
+public final class RequestTrace {
+
+    public static final String FS_STAT = "fs.stat"; // Attributi di un file
+    public static final String FS_SCAN = "fs.scan"; // Lettura di una directory
+    public static final String DB_QUERY = "db.query"; // Chiamate ai repository
+    public static final String THUMBNAIL = "thumbnail"; // Attesa o generazione di una miniatura
+    public static final String SERIALIZATION = "serialization"; // Scrittura di un corpo JSON
+    public static final String RESPONSE_WRITE = "response.write"; // Scrittura di un corpo non JSON (es. un file)
+
+    private static final ThreadLocal<RequestTrace> CURRENT = new ThreadLocal<>();
+    private static final Step NO_STEP = () -> { };
+
+    // Passo in corso: va chiuso con try-with-resources
+    @FunctionalInterface
+    public interface Step extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    private final long startNanos = System.nanoTime();
+    private final Map<String, long[]> steps = new LinkedHashMap<>(); // Nome -> { durata totale in ns, numero di chiamate }
+    private String openStep; // Passo aperto fino alla fine della richiesta
+    private long openStepStart;
+    private long totalNanos = -1;
+
+    private RequestTrace() {
+    }
+
+    // Apre la traccia sul thread corrente
+    static RequestTrace start() {
+        RequestTrace trace = new RequestTrace();
+        CURRENT.set(trace);
+        return trace;
+    }
+
+    // Stacca la traccia dal thread corrente (la richiesta può continuare in modo asincrono)
+    static void detach() {
+        CURRENT.remove();
+    }
+
+    // Misura un passo: try (RequestTrace.Step step = RequestTrace.step(RequestTrace.FS_STAT)) { ... }
+    public static Step step(String name) {
+        RequestTrace trace = CURRENT.get();
+        if (trace == null) {
+            return NO_STEP;
+        }
+        long start = System.nanoTime();
+        return () -> trace.add(name, System.nanoTime() - start);
+    }
+
+    // Registra un passo già misurato
+    public static void record(String name, long nanos) {
+        RequestTrace trace = CURRENT.get();
+        if (trace != null) {
+            trace.add(name, nanos);
+        }
+    }
+
+    // Apre un passo che dura fino alla fine della richiesta (es. la scrittura della risposta)
+    public static void begin(String name) {
+        RequestTrace trace = CURRENT.get();
+        if (trace != null && trace.openStep == null) {
+            trace.openStep = name;
+            trace.openStepStart = System.nanoTime();
+        }
+    }
+
+    // Chiude la traccia e restituisce la durata totale in nanosecondi
+    synchronized long finish() {
+        if (totalNanos < 0) {
+            long now = System.nanoTime();
+            if (openStep != null) {
+                add(openStep, now - openStepStart);
+                openStep = null;
+            }
+            totalNanos = now - startNanos;
+        }
+        return totalNanos;
+    }
+
+    synchronized Map<String, long[]> steps() {
+        return steps;
+    }
+
+    private synchronized void add(String name, long nanos) {
+        long[] step = steps.computeIfAbsent(name, key -> new long[2]);
+        step[0] += nanos;
+        step[1]++;
+    }
+}
@@ -0,0 +1,29 @@
+package com.photoandvision.folder_sharing_pp.metrics;
+
+import org.springframework.core.MethodParameter;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyAdvice;
+
+// Segna nella traccia della richiesta l'inizio della scrittura del corpo: da qui alla fine della richiesta
+// il tempo è serializzazione JSON oppure copia del file sul socket
+@ControllerAdvice
+public class ResponseTraceAdvice implements ResponseBodyAdvice<Object> {
+
+    @Override
+    public boolean supports(MethodParameter returnType, Class<? extends HttpMessageConverter<?>> converterType) {
+        return true;
+    }
+
+    @Override
+    public Object beforeBodyWrite(Object body, MethodParameter returnType, MediaType selectedContentType,
+                                  Class<? extends HttpMessageConverter<?>> selectedConverterType,
+                                  ServerHttpRequest request, ServerHttpResponse response) {
+        boolean json = selectedContentType != null && selectedContentType.isCompatibleWith(MediaType.APPLICATION_JSON);
+        RequestTrace.begin(json ? RequestTrace.SERIALIZATION : RequestTrace.RESPONSE_WRITE);
+        return body;
+    }
+}
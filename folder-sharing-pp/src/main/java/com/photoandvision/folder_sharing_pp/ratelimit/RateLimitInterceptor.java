@@ -0,0 +1,80 @@
+package com.photoandvision.folder_sharing_pp.ratelimit;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.DispatcherType;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// Applica i limiti del client a ogni richiesta: una richiesta oltre il budget, o di un client che ha già
+// scaricato più di quanto il budget di byte recupera in rate-limit.max-wait-seconds, riceve 429 con Retry-After.
+// I byte scaricati e quelli caricati a blocchi vengono rallentati dagli stream di RateLimiter.Client, mentre vengono trasferiti.
+// Il corpo multipart è già stato ricevuto da Tomcat prima dell'interceptor: non viene addebitato, conta solo come richiesta.
+// Le miniature (GET con ?w=) non consumano il budget di richieste: una galleria ne chiede centinaia insieme e un <img>
+// rifiutato non viene ritentato. Restano limitate dal budget di byte e dalla coda di ThumbnailService
+@Component
+public class RateLimitInterceptor implements HandlerInterceptor {
+
+    private static final Logger logger = LoggerFactory.getLogger(RateLimitInterceptor.class);
+    private static final String VARIANT_PATH = "/api/folders/*/images/*"; // FolderController.getImageVariant
+    private static final AntPathMatcher pathMatcher = new AntPathMatcher();
+
+    private final RateLimiter rateLimiter;
+    private final Counter rejectedRequests;
+    private final Counter rejectedBytes;
+
+    public RateLimitInterceptor(RateLimiter rateLimiter, MeterRegistry registry) {
+        this.rateLimiter = rateLimiter;
+        this.rejectedRequests = registry.counter("ratelimit.rejected", "budget", "requests");
+        this.rejectedBytes = registry.counter("ratelimit.rejected", "budget", "bytes");
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws IOException {
+        if (!rateLimiter.isEnabled() || request.getDispatcherType() != DispatcherType.REQUEST) {
+            return true; // Le risposte in streaming ripassano dall'interceptor al termine (dispatch ASYNC): già contate
+        }
+
+        String key = RateLimiter.clientKey(request);
+        RateLimiter.Client client = rateLimiter.client(key);
+        long now = System.nanoTime();
+
+        long backlog = client.byteBacklog(now);
+        if (backlog > rateLimiter.maxWaitNanos()) {
+            rejectedBytes.increment();
+            return reject(response, key, backlog - rateLimiter.maxWaitNanos());
+        }
+        long wait = isVariant(request) ? 0 : client.tryAcquireRequest(now);
+        if (wait > 0) {
+            rejectedRequests.increment();
+            return reject(response, key, wait);
+        }
+
+        request.setAttribute(RateLimiter.CLIENT_ATTRIBUTE, client);
+        return true;
+    }
+
+    private static boolean isVariant(HttpServletRequest request) {
+        return HttpMethod.GET.matches(request.getMethod()) && request.getParameter("w") != null
+                && pathMatcher.match(VARIANT_PATH, request.getRequestURI().substring(request.getContextPath().length()));
+    }
+
+    private static boolean reject(HttpServletResponse response, String key, long waitNanos) throws IOException {
+        long seconds = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + TimeUnit.SECONDS.toNanos(1) - 1)); // Per eccesso
+        logger.debug("Richiesta limitata per {}: riprovare tra {} s", key, seconds);
+        response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(seconds));
+        response.sendError(HttpStatus.TOO_MANY_REQUESTS.value());
+        return false;
+    }
+}
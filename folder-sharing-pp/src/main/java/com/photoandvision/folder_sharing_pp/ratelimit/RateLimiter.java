@@ -0,0 +1,220 @@
+package com.photoandvision.folder_sharing_pp.ratelimit;
+
+import com.photoandvision.folder_sharing_pp.security.AuthenticatedUser;
+import com.photoandvision.folder_sharing_pp.security.FolderAccess;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.http.HttpServletRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Limiti per client: richieste al secondo, byte scaricati e byte caricati al secondo, ognuno con il proprio secchio di token.
+// Il client è l'utente autenticato oppure, per le richieste anonime (link di condivisione), l'indirizzo IP.
+// I client inattivi con i secchi pieni vengono rimossi periodicamente; oltre il numero massimo di client
+// vengono rimossi anche quelli inattivi da più tempo, così la memoria usata resta limitata
+@Component
+public class RateLimiter {
+
+    private static final Logger logger = LoggerFactory.getLogger(RateLimiter.class);
+
+    // Attributo della richiesta con il client, impostato da RateLimitInterceptor
+    static final String CLIENT_ATTRIBUTE = RateLimiter.class.getName() + ".client";
+
+    private static final int THROTTLE_CHUNK = 64 * 1024; // Byte massimi scritti o letti tra due attese
+
+    // Client senza limiti: usato quando la limitazione è disattivata o fuori da una richiesta HTTP
+    private static final Client UNLIMITED = new Client(null, null, null, 0);
+
+    private final boolean enabled;
+    private final double requestsPerSecond;
+    private final int requestBurst;
+    private final long bytesPerSecond;
+    private final long byteBurst;
+    private final long uploadBytesPerSecond;
+    private final long uploadByteBurst;
+    private final long maxWaitNanos; // Debito di byte oltre il quale le nuove richieste vengono rifiutate
+    private final int maxClients;
+    private final long idleNanos;
+
+    private final Map<String, Client> clients = new ConcurrentHashMap<>();
+    private final AtomicBoolean evicting = new AtomicBoolean(); // Una sola pulizia alla volta
+
+    public RateLimiter(MeterRegistry registry,
+                       @Value("${rate-limit.enabled:true}") boolean enabled,
+                       @Value("${rate-limit.requests-per-second:20}") double requestsPerSecond,
+                       @Value("${rate-limit.request-burst:100}") int requestBurst,
+                       @Value("${rate-limit.bytes-per-second:20971520}") long bytesPerSecond,
+                       @Value("${rate-limit.byte-burst:20971520}") long byteBurst,
+                       @Value("${rate-limit.upload-bytes-per-second:20971520}") long uploadBytesPerSecond,
+                       @Value("${rate-limit.upload-byte-burst:20971520}") long uploadByteBurst,
+                       @Value("${rate-limit.max-wait-seconds:10}") long maxWaitSeconds,
+                       @Value("${rate-limit.max-clients:100000}") int maxClients,
+                       @Value("${rate-limit.idle-seconds:600}") long idleSeconds) {
+        this.enabled = enabled;
+        this.requestsPerSecond = requestsPerSecond;
+        this.requestBurst = requestBurst;
+        this.bytesPerSecond = bytesPerSecond;
+        this.byteBurst = byteBurst;
+        this.uploadBytesPerSecond = uploadBytesPerSecond;
+        this.uploadByteBurst = uploadByteBurst;
+        this.maxWaitNanos = TimeUnit.SECONDS.toNanos(maxWaitSeconds);
+        this.maxClients = maxClients;
+        this.idleNanos = TimeUnit.SECONDS.toNanos(idleSeconds);
+        Gauge.builder("ratelimit.clients", clients, Map::size)
+                .description("Client con i limiti in memoria")
+                .register(registry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    long maxWaitNanos() {
+        return maxWaitNanos;
+    }
+
+    // Identifica il client della richiesta: l'utente autenticato, altrimenti l'indirizzo IP.
+    // Dietro un proxy l'indirizzo è quello del client solo con server.forward-headers-strategy impostato
+    public static String clientKey(HttpServletRequest request) {
+        AuthenticatedUser user = FolderAccess.currentUser();
+        return user != null ? "user:" + user.userId() : "ip:" + request.getRemoteAddr();
+    }
+
+    // Restituisce lo stato del client, creandolo alla prima richiesta
+    public Client client(String key) {
+        if (!enabled) {
+            return UNLIMITED;
+        }
+        long now = System.nanoTime();
+        Client client = clients.get(key);
+        if (client == null) {
+            if (clients.size() >= maxClients) {
+                evict(now);
+            }
+            client = clients.computeIfAbsent(key, k -> new Client(new TokenBucket(requestsPerSecond, requestBurst, now),
+                    new TokenBucket(bytesPerSecond, byteBurst, now), new TokenBucket(uploadBytesPerSecond, uploadByteBurst, now), now));
+        }
+        client.lastSeen = now;
+        return client;
+    }
+
+    // Client della richiesta corrente. Va letto sul thread della richiesta: le risposte in streaming
+    // vengono scritte da un altro thread
+    public Client currentClient() {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        Object client = attributes != null ? attributes.getAttribute(CLIENT_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST) : null;
+        return client instanceof Client c ? c : UNLIMITED;
+    }
+
+    // Rimuove i client inattivi che non hanno debiti: rimuoverli non concede niente in più
+    @Scheduled(fixedDelayString = "${rate-limit.gc-interval-ms:60000}")
+    public void removeIdleClients() {
+        long now = System.nanoTime();
+        int removed = 0;
+        for (Map.Entry<String, Client> entry : clients.entrySet()) {
+            if (entry.getValue().isIdle(now, idleNanos) && clients.remove(entry.getKey(), entry.getValue())) {
+                removed++;
+            }
+        }
+        if (removed > 0) {
+            logger.debug("Rimossi {} client inattivi dal limitatore", removed);
+        }
+    }
+
+    // Chiamato quando la mappa è piena: prima i client inattivi, poi il 10% di quelli visti meno di recente
+    private void evict(long now) {
+        if (!evicting.compareAndSet(false, true)) {
+            return; // Un'altra richiesta sta già liberando spazio
+        }
+        try {
+            removeIdleClients();
+            if (clients.size() < maxClients) {
+                return;
+            }
+            // Età copiata prima dell'ordinamento: lastSeen cambia mentre le richieste continuano
+            List<Candidate> entries = new ArrayList<>(clients.size());
+            clients.forEach((key, client) -> entries.add(new Candidate(key, client, now - client.lastSeen)));
+            entries.sort(Comparator.comparingLong(Candidate::idleNanos).reversed());
+            int toRemove = Math.max(1, entries.size() / 10);
+            for (int i = 0; i < toRemove; i++) {
+                clients.remove(entries.get(i).key(), entries.get(i).client());
+            }
+            logger.warn("Limitatore pieno ({} client): rimossi {} client attivi", entries.size(), toRemove);
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    private record Candidate(String key, Client client, long idleNanos) {
+    }
+
+    // Stato di un client: i tre secchi e l'ultima richiesta vista
+    public static final class Client {
+
+        private final TokenBucket requests; // null per il client senza limiti
+        private final TokenBucket bytes;
+        private final TokenBucket uploads; // Separato: un upload non consuma la banda dei download del client
+        private volatile long lastSeen;
+
+        private Client(TokenBucket requests, TokenBucket bytes, TokenBucket uploads, long now) {
+            this.requests = requests;
+            this.bytes = bytes;
+            this.uploads = uploads;
+            this.lastSeen = now;
+        }
+
+        // 0 se la richiesta è ammessa, altrimenti i nanosecondi da attendere
+        long tryAcquireRequest(long now) {
+            return requests != null ? requests.tryAcquire(1, now) : 0;
+        }
+
+        // Nanosecondi di debito sul budget di byte
+        long byteBacklog(long now) {
+            return bytes != null ? bytes.backlog(now) : 0;
+        }
+
+        // Attende i token per i byte che stanno per essere inviati (per chi scrive la risposta senza uno stream)
+        public void pace(long count) throws IOException {
+            if (bytes != null) {
+                ThrottledOutputStream.pace(bytes, count);
+            }
+        }
+
+        // Stream che rallenta la scrittura al budget di byte del client
+        public OutputStream throttle(OutputStream output) {
+            return bytes != null ? new ThrottledOutputStream(output, bytes, THROTTLE_CHUNK) : output;
+        }
+
+        // Resource il cui contenuto viene letto al ritmo del budget di byte del client
+        public Resource throttle(Resource resource) {
+            return bytes != null ? new ThrottledResource(resource, bytes, THROTTLE_CHUNK) : resource;
+        }
+
+        // Corpo di un upload letto al ritmo del budget di upload del client: il debito non supera mai un blocco,
+        // quindi un file grande rallenta solo sé stesso
+        public InputStream throttleUpload(InputStream input) {
+            return uploads != null ? new ThrottledInputStream(input, uploads, THROTTLE_CHUNK) : input;
+        }
+
+        private boolean isIdle(long now, long idleNanos) {
+            return now - lastSeen > idleNanos && requests.isFull(now) && bytes.isFull(now) && uploads.isFull(now);
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.photoandvision.folder_sharing_pp.ratelimit;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+// Legge a blocchi, attendendo dopo ogni blocco i token del secchio dei byte.
+// Gli skip (usati da Spring per le richieste Range) non consumano token: si paga solo ciò che viene letto
+class ThrottledInputStream extends FilterInputStream {
+
+    private final TokenBucket bucket;
+    private final int chunkSize;
+
+    ThrottledInputStream(InputStream in, TokenBucket bucket, int chunkSize) {
+        super(in);
+        this.bucket = bucket;
+        this.chunkSize = chunkSize;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b != -1) {
+            ThrottledOutputStream.pace(bucket, 1);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int read = super.read(b, off, Math.min(len, chunkSize));
+        if (read > 0) {
+            ThrottledOutputStream.pace(bucket, read);
+        }
+        return read;
+    }
+}
@@ -0,0 +1,51 @@
+package com.photoandvision.folder_sharing_pp.ratelimit;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+// Scrive a blocchi, attendendo prima di ogni blocco i token del secchio dei byte.
+// Il secchio è condiviso da tutti i download del client: aprire più connessioni non aumenta la banda
+class ThrottledOutputStream extends FilterOutputStream {
+
+    private final TokenBucket bucket;
+    private final int chunkSize;
+
+    ThrottledOutputStream(OutputStream out, TokenBucket bucket, int chunkSize) {
+        super(out);
+        this.bucket = bucket;
+        this.chunkSize = chunkSize;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        pace(bucket, 1);
+        out.write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            int chunk = Math.min(len, chunkSize);
+            pace(bucket, chunk);
+            out.write(b, off, chunk);
+            off += chunk;
+            len -= chunk;
+        }
+    }
+
+    // Preleva i token e, se il secchio è in debito, sospende il thread (virtuale: non occupa un thread di piattaforma)
+    static void pace(TokenBucket bucket, long bytes) throws IOException {
+        long wait = bucket.reserve(bytes, System.nanoTime());
+        if (wait > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Trasferimento interrotto");
+            }
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.photoandvision.folder_sharing_pp.ratelimit;
+
+import org.springframework.core.io.AbstractResource;
+import org.springframework.core.io.Resource;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+// Resource che legge il contenuto di un'altra al ritmo del secchio dei byte (vedi ThrottledInputStream)
+class ThrottledResource extends AbstractResource {
+
+    private final Resource delegate;
+    private final TokenBucket bucket;
+    private final int chunkSize;
+
+    ThrottledResource(Resource delegate, TokenBucket bucket, int chunkSize) {
+        this.delegate = delegate;
+        this.bucket = bucket;
+        this.chunkSize = chunkSize;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return new ThrottledInputStream(delegate.getInputStream(), bucket, chunkSize);
+    }
+
+    @Override
+    public boolean exists() {
+        return delegate.exists();
+    }
+
+    @Override
+    public long contentLength() throws IOException {
+        return delegate.contentLength();
+    }
+
+    @Override
+    public long lastModified() throws IOException {
+        return delegate.lastModified();
+    }
+
+    @Override
+    public String getFilename() {
+        return delegate.getFilename();
+    }
+
+    @Override
+    public String getDescription() {
+        return "throttled " + delegate.getDescription();
+    }
+}
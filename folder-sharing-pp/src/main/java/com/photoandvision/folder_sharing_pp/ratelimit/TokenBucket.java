@@ -0,0 +1,66 @@
+package com.photoandvision.folder_sharing_pp.ratelimit;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Secchio di token senza lock. Invece del numero di token viene salvato un solo istante (System.nanoTime):
+// il momento in cui il secchio tornerà pieno. Prelevare n token sposta l'istante in avanti di n intervalli,
+// quindi ogni operazione è un compareAndSet su un solo long e il tempo di attesa si calcola senza ricariche periodiche
+public final class TokenBucket {
+
+    private final double nanosPerToken; // Intervallo tra due token
+    private final long capacityNanos; // Tempo per riempire il secchio vuoto (capacità in token * intervallo)
+
+    private final AtomicLong fullAt; // Istante in cui il secchio sarà di nuovo pieno
+
+    public TokenBucket(double tokensPerSecond, long capacity, long now) {
+        if (tokensPerSecond <= 0 || capacity < 1) {
+            throw new IllegalArgumentException("Velocità e capacità devono essere positive");
+        }
+        this.nanosPerToken = 1_000_000_000d / tokensPerSecond;
+        this.capacityNanos = nanos(capacity);
+        this.fullAt = new AtomicLong(now); // Pieno alla creazione
+    }
+
+    // Preleva i token solo se sono disponibili: restituisce 0, oppure i nanosecondi da attendere prima di riprovare
+    public long tryAcquire(long tokens, long now) {
+        long cost = nanos(tokens);
+        while (true) {
+            long current = fullAt.get();
+            long next = Math.max(current, now) + cost;
+            long wait = next - now - capacityNanos;
+            if (wait > 0) {
+                return wait;
+            }
+            if (fullAt.compareAndSet(current, next)) {
+                return 0;
+            }
+        }
+    }
+
+    // Preleva i token anche se il secchio non li ha ancora (va in debito): restituisce i nanosecondi da attendere
+    // prima di usarli. Serve per il traffico già in corso, che va rallentato e non rifiutato
+    public long reserve(long tokens, long now) {
+        long cost = nanos(tokens);
+        while (true) {
+            long current = fullAt.get();
+            long next = Math.max(current, now) + cost;
+            if (fullAt.compareAndSet(current, next)) {
+                return Math.max(0, next - now - capacityNanos);
+            }
+        }
+    }
+
+    // Nanosecondi di debito: quanto manca perché i token prelevati in anticipo siano ripagati (0 se non è in debito)
+    public long backlog(long now) {
+        return Math.max(0, fullAt.get() - now - capacityNanos);
+    }
+
+    public boolean isFull(long now) {
+        return fullAt.get() - now <= 0;
+    }
+
+    private long nanos(long tokens) {
+        double nanos = tokens * nanosPerToken;
+        return nanos >= Long.MAX_VALUE / 4 ? Long.MAX_VALUE / 4 : (long) nanos; // Nessun overflow sommando a nanoTime
+    }
+}
@@ -0,0 +1,30 @@
+package com.photoandvision.folder_sharing_pp.repo;
+
+import com.photoandvision.folder_sharing_pp.entity.FolderGrant;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface FolderGrantRepository extends JpaRepository<FolderGrant, Long> {
+
+    // Permessi di un utente con il nome della cartella, in una sola query (caricati nella cache dei permessi)
+    @Query("select g.folder.name as folderName, g.permission as permission from FolderGrant g where g.user.id = :userId")
+    List<GrantedFolder> findByUserId(@Param("userId") Long userId);
+
+    // Permessi di una cartella con il nome dell'utente
+    @Query("select g.user.username as username, g.permission as permission from FolderGrant g where g.folder.id = :folderId order by g.user.username")
+    List<GrantedUser> findByFolderId(@Param("folderId") Long folderId);
+
+    Optional<FolderGrant> findByUserIdAndFolderId(Long userId, Long folderId);
+
+    // Elimina i permessi di una cartella prima di eliminarne la riga
+    @Modifying
+    @Query("delete from FolderGrant g where g.folder.id = :folderId")
+    int deleteByFolderId(@Param("folderId") Long folderId);
+}
@@ -2,9 +2,26 @@ package com.photoandvision.folder_sharing_pp.repo;
 
 
 import com.photoandvision.folder_sharing_pp.entity.Folder;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Optional;
+
 @Repository
 public interface FolderRepository extends JpaRepository<Folder, Long> {
+    // Ricerca per nome tramite l'indice univoco. Il risultato resta nella cache delle query, invalidata da Hibernate
+    // a ogni modifica della tabella folders; le entità arrivano dalla regione folders
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "true"))
+    Optional<Folder> findByName(String name);
+
+    // Registra la versione della cartella riconciliata senza caricare l'entità
+    @Modifying
+    @Query("update Folder f set f.scannedVersion = :version where f.id = :id")
+    int updateScannedVersion(@Param("id") Long id, @Param("version") Long version);
 }
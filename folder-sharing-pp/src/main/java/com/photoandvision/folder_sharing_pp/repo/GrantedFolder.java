@@ -0,0 +1,10 @@
+package com.photoandvision.folder_sharing_pp.repo;
+
+import com.photoandvision.folder_sharing_pp.entity.FolderGrant;
+
+// Proiezione di un permesso di un utente: nome della cartella e livello di accesso
+public interface GrantedFolder {
+    String getFolderName();
+
+    FolderGrant.Permission getPermission();
+}
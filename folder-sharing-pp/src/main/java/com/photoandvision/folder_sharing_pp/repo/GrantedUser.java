@@ -0,0 +1,10 @@
+package com.photoandvision.folder_sharing_pp.repo;
+
+import com.photoandvision.folder_sharing_pp.entity.FolderGrant;
+
+// Proiezione di un permesso su una cartella: nome dell'utente e livello di accesso
+public interface GrantedUser {
+    String getUsername();
+
+    FolderGrant.Permission getPermission();
+}
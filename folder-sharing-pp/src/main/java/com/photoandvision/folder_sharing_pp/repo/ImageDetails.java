@@ -0,0 +1,22 @@
+package com.photoandvision.folder_sharing_pp.repo;
+
+import com.photoandvision.folder_sharing_pp.entity.Image;
+
+import java.time.LocalDateTime;
+
+// Proiezione con i metadati usati dalla galleria per ordinare e filtrare le immagini
+public interface ImageDetails extends ImageSummary {
+    Long getSize();
+
+    Integer getWidth();
+
+    Integer getHeight();
+
+    LocalDateTime getTakenAt();
+
+    String getCameraMake();
+
+    String getCameraModel();
+
+    Image.Orientation getOrientation();
+}
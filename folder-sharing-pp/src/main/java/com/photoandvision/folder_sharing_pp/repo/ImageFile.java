@@ -0,0 +1,12 @@
+package com.photoandvision.folder_sharing_pp.repo;
+
+// Proiezione con gli attributi del file, confrontati con l'archivio dalla riconciliazione e usati dall'elenco dal database
+public interface ImageFile {
+    Long getId();
+
+    String getName();
+
+    Long getSize();
+
+    Long getLastModified();
+}
@@ -0,0 +1,10 @@
+package com.photoandvision.folder_sharing_pp.repo;
+
+// Proiezione con l'hash percettivo di un'immagine, per caricare l'indice dei duplicati
+public interface ImageHash {
+    Long getId();
+
+    Long getFolderId();
+
+    Long getPerceptualHash();
+}
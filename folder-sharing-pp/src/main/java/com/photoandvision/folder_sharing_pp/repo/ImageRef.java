@@ -0,0 +1,14 @@
+package com.photoandvision.folder_sharing_pp.repo;
+
+// Proiezione con cartella, nome e hash percettivo attuale, per restituire i risultati dell'indice dei duplicati
+public interface ImageRef {
+    Long getId();
+
+    String getName();
+
+    Long getFolderId();
+
+    String getFolderName();
+
+    Long getPerceptualHash();
+}
@@ -1,12 +1,102 @@
 package com.photoandvision.folder_sharing_pp.repo;
 
 import com.photoandvision.folder_sharing_pp.entity.Image;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
+import java.util.stream.Stream;
 
 @Repository
 public interface ImageRepository extends JpaRepository<Image, Long> {
-    Image findByName(String name); // Metodo per trovare un'immagine per nome
-}
\ No newline at end of file
+    // Pagina ordinata delle immagini di una cartella, servita dall'indice (folder_id, name)
+    Slice<ImageSummary> findByFolderId(Long folderId, Pageable pageable);
+
+    // Immagini di una cartella con i nomi indicati, per aggiornare le righe esistenti invece di duplicarle
+    List<Image> findByFolderIdAndNameIn(Long folderId, Collection<String> names);
+
+    // Nome, dimensione e data di tutte le righe di una cartella, per il confronto con l'archivio
+    @Query("select i.id as id, i.name as name, i.size as size, i.lastModified as lastModified"
+            + " from Image i where i.folder.id = :folderId order by i.id")
+    List<ImageFile> findFilesByFolderId(@Param("folderId") Long folderId);
+
+    // Pagine a cursore per l'elenco dal database, servite dagli indici (folder_id, name) e (folder_id, lastModified, name)
+    List<ImageFile> findByFolderIdOrderByNameAsc(Long folderId, Limit limit);
+
+    List<ImageFile> findByFolderIdAndNameGreaterThanOrderByNameAsc(Long folderId, String name, Limit limit);
+
+    List<ImageFile> findByFolderIdOrderByLastModifiedAscNameAsc(Long folderId, Limit limit);
+
+    @Query("select i.id as id, i.name as name, i.size as size, i.lastModified as lastModified from Image i"
+            + " where i.folder.id = :folderId and (i.lastModified > :lastModified or (i.lastModified = :lastModified and i.name > :name))"
+            + " order by i.lastModified, i.name")
+    List<ImageFile> findPageByLastModified(@Param("folderId") Long folderId, @Param("lastModified") Long lastModified,
+                                           @Param("name") String name, Limit limit);
+
+    // Elimina con una sola istruzione le righe indicate
+    @Modifying
+    @Query("delete from Image i where i.id in :ids")
+    int deleteByIdIn(@Param("ids") Collection<Long> ids);
+
+    // Elimina con una sola istruzione le righe delle immagini indicate di una cartella
+    @Modifying
+    @Query("delete from Image i where i.folder.id = :folderId and i.name in :names")
+    int deleteByFolderIdAndNameIn(@Param("folderId") Long folderId, @Param("names") Collection<String> names);
+
+    // Pagina a cursore: le immagini con id successivo all'ultimo restituito, lette dalla chiave primaria
+    List<ImageSummary> findByIdGreaterThanOrderByIdAsc(Long id, Limit limit);
+
+    // Tutte le immagini in streaming: con MySQL una fetch size di Integer.MIN_VALUE legge le righe una alla volta
+    // invece di caricare l'intero risultato. Va consumato dentro una transazione e chiuso al termine
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "-2147483648"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    Stream<ImageSummary> streamAllByOrderByIdAsc();
+
+    // Ricerca per metadati senza leggere i file: i filtri null vengono ignorati, l'ordinamento arriva dal Pageable.
+    // Gli indici (folder_id, takenAt), (takenAt) e (cameraModel, takenAt) coprono i filtri e l'ordinamento per data
+    @Query("select i from Image i where (:folderId is null or i.folder.id = :folderId)"
+            + " and (:from is null or i.takenAt >= :from) and (:to is null or i.takenAt < :to)"
+            + " and (:camera is null or i.cameraModel = :camera)"
+            + " and (:orientation is null or i.orientation = :orientation)")
+    Slice<ImageDetails> search(@Param("folderId") Long folderId,
+                               @Param("from") LocalDateTime from,
+                               @Param("to") LocalDateTime to,
+                               @Param("camera") String camera,
+                               @Param("orientation") Image.Orientation orientation,
+                               Pageable pageable);
+
+    // Immagini ancora senza metadati (righe precedenti all'estrazione o rimaste in coda), a blocchi per id crescente
+    @Query("select i from Image i join fetch i.folder where (i.metadataStatus is null or i.metadataStatus = :pending)"
+            + " and i.id > :after order by i.id")
+    List<Image> findPendingMetadata(@Param("after") Long after, @Param("pending") Image.MetadataStatus pending, Limit limit);
+
+    // Immagini senza hash percettivo (nuove o con il contenuto cambiato), a blocchi per id crescente
+    @Query("select i from Image i join fetch i.folder where (i.perceptualHashStatus is null or i.perceptualHashStatus = :pending)"
+            + " and i.id > :after order by i.id")
+    List<Image> findPendingPerceptualHash(@Param("after") Long after, @Param("pending") Image.MetadataStatus pending, Limit limit);
+
+    // Hash percettivi calcolati, a blocchi per id crescente
+    @Query("select i.id as id, i.folder.id as folderId, i.perceptualHash as perceptualHash from Image i"
+            + " where i.perceptualHash is not null and i.id > :after order by i.id")
+    List<ImageHash> findPerceptualHashes(@Param("after") Long after, Limit limit);
+
+    @Query("select i.id as id, i.name as name, f.id as folderId, f.name as folderName, i.perceptualHash as perceptualHash"
+            + " from Image i join i.folder f where i.id in :ids")
+    List<ImageRef> findRefsByIdIn(@Param("ids") Collection<Long> ids);
+
+    // Immagini non ancora collegate a una cartella, lette a blocchi per id crescente
+    List<Image> findByFolderIsNullAndIdGreaterThanOrderByIdAsc(Long id, Pageable pageable);
+}
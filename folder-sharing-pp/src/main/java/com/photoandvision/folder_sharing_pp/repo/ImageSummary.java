@@ -0,0 +1,10 @@
+package com.photoandvision.folder_sharing_pp.repo;
+
+// Proiezione con i soli campi necessari agli elenchi: evita di caricare le entità complete
+public interface ImageSummary {
+    Long getId();
+
+    String getName();
+
+    String getUrl();
+}
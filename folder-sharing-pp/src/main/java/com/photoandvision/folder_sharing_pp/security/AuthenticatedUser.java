@@ -0,0 +1,5 @@
+package com.photoandvision.folder_sharing_pp.security;
+
+// Utente autenticato ricavato dal token JWT, senza accesso al database
+public record AuthenticatedUser(long userId, String username, boolean admin) {
+}
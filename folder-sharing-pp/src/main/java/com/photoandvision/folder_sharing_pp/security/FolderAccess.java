@@ -0,0 +1,48 @@
+package com.photoandvision.folder_sharing_pp.security;
+
+import com.photoandvision.folder_sharing_pp.entity.FolderGrant;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+
+import java.util.Set;
+
+// Controllo dei permessi dell'utente corrente sulle cartelle, servito dalla PermissionCache
+@Component
+public class FolderAccess {
+
+    private final PermissionCache permissionCache;
+
+    public FolderAccess(PermissionCache permissionCache) {
+        this.permissionCache = permissionCache;
+    }
+
+    // Utente autenticato della richiesta corrente, oppure null per le richieste anonime
+    public static AuthenticatedUser currentUser() {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        return authentication != null && authentication.getPrincipal() instanceof AuthenticatedUser user ? user : null;
+    }
+
+    public static boolean isAdmin() {
+        AuthenticatedUser user = currentUser();
+        return user != null && user.admin();
+    }
+
+    public boolean canAccess(String folderName, FolderGrant.Permission required) {
+        return canAccess(currentUser(), folderName, required);
+    }
+
+    // Cartelle su cui l'utente corrente ha il permesso richiesto; non ha senso per un amministratore (le vede tutte)
+    public Set<String> accessibleFolders(FolderGrant.Permission required) {
+        AuthenticatedUser user = currentUser();
+        return user != null ? permissionCache.get(user.userId()).folders(required) : Set.of();
+    }
+
+    // Variante per il codice che gira fuori dal thread della richiesta (es. le risposte in streaming)
+    public boolean canAccess(AuthenticatedUser user, String folderName, FolderGrant.Permission required) {
+        if (user == null) {
+            return false;
+        }
+        return user.admin() || permissionCache.get(user.userId()).allows(folderName, required);
+    }
+}
@@ -0,0 +1,64 @@
+package com.photoandvision.folder_sharing_pp.security;
+
+import com.photoandvision.folder_sharing_pp.entity.FolderGrant;
+import jakarta.servlet.DispatcherType;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+import java.io.IOException;
+import java.util.Map;
+
+// Controlla l'accesso a ogni endpoint con la variabile di percorso {folderName}:
+// lettura per GET/HEAD e per l'archivio ZIP, scrittura per le altre richieste.
+// Le richieste in sola lettura sono ammesse anche con un link di condivisione valido (parametri exp e sig)
+@Component
+public class FolderAccessInterceptor implements HandlerInterceptor {
+
+    private static final String FOLDER_VARIABLE = "folderName";
+
+    private final FolderAccess folderAccess;
+    private final ShareLinkService shareLinkService;
+
+    public FolderAccessInterceptor(FolderAccess folderAccess, ShareLinkService shareLinkService) {
+        this.folderAccess = folderAccess;
+        this.shareLinkService = shareLinkService;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws IOException {
+        if (request.getDispatcherType() != DispatcherType.REQUEST) {
+            // Le risposte in streaming ripassano dall'interceptor al termine (dispatch ASYNC): l'accesso è già stato
+            // controllato, e JwtAuthenticationFilter non autentica di nuovo il dispatch, quindi l'utente non c'è più
+            return true;
+        }
+        @SuppressWarnings("unchecked")
+        Map<String, String> variables = (Map<String, String>) request.getAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+        String folderName = variables != null ? variables.get(FOLDER_VARIABLE) : null;
+        if (folderName == null) {
+            return true; // Endpoint non legato a una cartella: vale la configurazione di SecurityConfig
+        }
+
+        FolderGrant.Permission required = isReadOnly(request) ? FolderGrant.Permission.READ : FolderGrant.Permission.WRITE;
+        if (folderAccess.canAccess(folderName, required)) {
+            return true;
+        }
+        if (required == FolderGrant.Permission.READ && shareLinkService.verify(folderName,
+                request.getParameter(ShareLinkService.EXPIRES_PARAM), request.getParameter(ShareLinkService.SIGNATURE_PARAM))) {
+            return true;
+        }
+
+        // 401 se manca l'autenticazione, 403 se l'utente non ha il permesso
+        response.sendError(FolderAccess.currentUser() == null ? HttpStatus.UNAUTHORIZED.value() : HttpStatus.FORBIDDEN.value());
+        return false;
+    }
+
+    private static boolean isReadOnly(HttpServletRequest request) {
+        String method = request.getMethod();
+        return "GET".equals(method) || "HEAD".equals(method)
+                || ("POST".equals(method) && request.getRequestURI().endsWith("/archive")); // Selezione di file da scaricare
+    }
+}
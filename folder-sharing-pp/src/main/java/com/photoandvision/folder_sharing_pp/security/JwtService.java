@@ -0,0 +1,72 @@
+package com.photoandvision.folder_sharing_pp.security;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.JwtParser;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.security.Keys;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.crypto.SecretKey;
+import java.time.Instant;
+import java.util.Date;
+
+// Emette e verifica i token JWT firmati con HMAC-SHA256. La verifica usa solo la chiave in memoria:
+// id, nome e ruolo dell'utente sono nel token, quindi nessuna richiesta autenticata interroga il database
+@Service
+public class JwtService {
+
+    private static final Logger logger = LoggerFactory.getLogger(JwtService.class);
+    private static final String ISSUER = "folder-sharing-pp";
+    private static final String USER_ID_CLAIM = "uid";
+    private static final String ROLE_CLAIM = "role";
+    private static final String ADMIN_ROLE = "ADMIN";
+
+    // Token emesso al login
+    public record IssuedToken(String token, Instant expiresAt) {
+    }
+
+    private final SecretKey key;
+    private final JwtParser parser;
+    private final long ttlSeconds;
+
+    public JwtService(@Value("${security.jwt.secret:}") String secret,
+                      @Value("${security.jwt.ttl-minutes:60}") long ttlMinutes) {
+        this.key = Keys.hmacShaKeyFor(SecretKeys.decodeOrGenerate(secret, "security.jwt.secret", logger));
+        this.parser = Jwts.parser().verifyWith(key).requireIssuer(ISSUER).clockSkewSeconds(30).build();
+        this.ttlSeconds = ttlMinutes * 60;
+    }
+
+    public IssuedToken issue(long userId, String username, boolean admin) {
+        Instant now = Instant.now();
+        Instant expiresAt = now.plusSeconds(ttlSeconds);
+        String token = Jwts.builder()
+                .issuer(ISSUER)
+                .subject(username)
+                .claim(USER_ID_CLAIM, userId)
+                .claim(ROLE_CLAIM, admin ? ADMIN_ROLE : "USER")
+                .issuedAt(Date.from(now))
+                .expiration(Date.from(expiresAt))
+                .signWith(key)
+                .compact();
+        return new IssuedToken(token, expiresAt);
+    }
+
+    // Verifica firma e scadenza; restituisce null se il token non è valido
+    public AuthenticatedUser verify(String token) {
+        try {
+            Claims claims = parser.parseSignedClaims(token).getPayload();
+            Long userId = claims.get(USER_ID_CLAIM, Long.class);
+            if (userId == null || claims.getSubject() == null) {
+                return null;
+            }
+            return new AuthenticatedUser(userId, claims.getSubject(), ADMIN_ROLE.equals(claims.get(ROLE_CLAIM, String.class)));
+        } catch (JwtException | IllegalArgumentException e) {
+            logger.debug("Token JWT rifiutato: {}", e.getMessage());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.photoandvision.folder_sharing_pp.security;
+
+import com.photoandvision.folder_sharing_pp.entity.FolderGrant;
+import com.photoandvision.folder_sharing_pp.event.FolderChangeEvent;
+import com.photoandvision.folder_sharing_pp.repo.FolderGrantRepository;
+import com.photoandvision.folder_sharing_pp.repo.GrantedFolder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Cache in memoria dei permessi di ogni utente sulle cartelle: il controllo di accesso di una richiesta
+// (es. il download di un'immagine) non interroga il database. Le voci scadono dopo un TTL e vengono invalidate
+// quando l'applicazione modifica i permessi o elimina una cartella
+@Component
+public class PermissionCache {
+
+    // Permessi di un utente per nome di cartella
+    public record FolderPermissions(Map<String, FolderGrant.Permission> byFolder) {
+
+        public boolean allows(String folderName, FolderGrant.Permission required) {
+            FolderGrant.Permission granted = byFolder.get(folderName);
+            return granted != null && granted.includes(required);
+        }
+
+        // Nomi delle cartelle con almeno il permesso richiesto
+        public Set<String> folders(FolderGrant.Permission required) {
+            Set<String> names = new HashSet<>();
+            byFolder.forEach((folderName, granted) -> {
+                if (granted.includes(required)) {
+                    names.add(folderName);
+                }
+            });
+            return names;
+        }
+    }
+
+    // Statistiche di utilizzo della cache
+    public record Stats(long hits, long misses, long evictions, long invalidations, int size) {
+    }
+
+    private record Entry(FolderPermissions permissions, long loadedAt) {
+    }
+
+    private final FolderGrantRepository grantRepository;
+    private final int maxUsers; // Numero massimo di utenti in cache
+    private final long ttlMillis;
+
+    // Voci in ordine di accesso (LRU), protette dal lock su entries
+    private final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+
+    // Caricamenti in corso per utente: invalidate(userId) rimuove solo il token di quell'utente,
+    // invalidateAll tutti. Un caricamento salva il risultato solo se il suo token è ancora presente
+    private final ConcurrentHashMap<Long, Object> loads = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public PermissionCache(FolderGrantRepository grantRepository,
+                           @Value("${security.permission-cache.max-users:10000}") int maxUsers,
+                           @Value("${security.permission-cache.ttl-seconds:300}") long ttlSeconds) {
+        this.grantRepository = grantRepository;
+        this.maxUsers = maxUsers;
+        this.ttlMillis = ttlSeconds * 1000;
+    }
+
+    // Restituisce i permessi dell'utente, caricandoli con una sola query in caso di miss
+    public FolderPermissions get(long userId) {
+        synchronized (entries) {
+            Entry entry = entries.get(userId);
+            if (entry != null && System.currentTimeMillis() - entry.loadedAt() < ttlMillis) {
+                hits.incrementAndGet();
+                return entry.permissions();
+            }
+            if (entry != null) {
+                entries.remove(userId); // Scaduta
+            }
+        }
+        misses.incrementAndGet();
+
+        Object token = new Object();
+        loads.put(userId, token);
+        Map<String, FolderGrant.Permission> byFolder = new HashMap<>();
+        try {
+            for (GrantedFolder grant : grantRepository.findByUserId(userId)) {
+                byFolder.put(grant.getFolderName(), grant.getPermission());
+            }
+        } catch (RuntimeException e) {
+            loads.remove(userId, token);
+            throw e;
+        }
+        FolderPermissions permissions = new FolderPermissions(Map.copyOf(byFolder));
+
+        synchronized (entries) {
+            if (loads.remove(userId, token)) {
+                entries.put(userId, new Entry(permissions, System.currentTimeMillis()));
+                Iterator<Long> eldest = entries.keySet().iterator();
+                while (entries.size() > maxUsers && eldest.hasNext()) {
+                    eldest.next();
+                    eldest.remove();
+                    evictions.incrementAndGet();
+                }
+            }
+        }
+        return permissions;
+    }
+
+    public void invalidate(long userId) {
+        loads.remove(userId);
+        synchronized (entries) {
+            if (entries.remove(userId) != null) {
+                invalidations.incrementAndGet();
+            }
+        }
+    }
+
+    public void invalidateAll() {
+        loads.clear();
+        synchronized (entries) {
+            invalidations.addAndGet(entries.size());
+            entries.clear();
+        }
+    }
+
+    public Stats stats() {
+        synchronized (entries) {
+            return new Stats(hits.get(), misses.get(), evictions.get(), invalidations.get(), entries.size());
+        }
+    }
+
+    // Una cartella eliminata perde i suoi permessi; se viene ricreata con lo stesso nome non deve ereditarli
+    @EventListener
+    public void onFolderChange(FolderChangeEvent event) {
+        if (event.type() == FolderChangeEvent.Type.FOLDER_DELETED) {
+            invalidateAll();
+        }
+    }
+}
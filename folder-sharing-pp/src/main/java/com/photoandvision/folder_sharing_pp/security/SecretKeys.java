@@ -0,0 +1,30 @@
+package com.photoandvision.folder_sharing_pp.security;
+
+import org.slf4j.Logger;
+
+import java.security.SecureRandom;
+import java.util.Base64;
+
+// Chiavi HMAC lette dalla configurazione (Base64, almeno 256 bit)
+final class SecretKeys {
+
+    private static final int MIN_BYTES = 32;
+
+    private SecretKeys() {
+    }
+
+    // Senza chiave configurata ne genera una casuale: i token e i link emessi non sopravvivono al riavvio
+    static byte[] decodeOrGenerate(String secret, String property, Logger logger) {
+        if (secret == null || secret.isBlank()) {
+            logger.warn("{} non configurata: uso una chiave casuale valida fino al riavvio", property);
+            byte[] generated = new byte[MIN_BYTES];
+            new SecureRandom().nextBytes(generated);
+            return generated;
+        }
+        byte[] decoded = Base64.getDecoder().decode(secret.trim());
+        if (decoded.length < MIN_BYTES) {
+            throw new IllegalStateException(property + " deve essere di almeno " + MIN_BYTES + " byte in Base64");
+        }
+        return decoded;
+    }
+}
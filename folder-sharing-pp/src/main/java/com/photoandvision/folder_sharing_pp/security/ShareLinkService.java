@@ -0,0 +1,79 @@
+package com.photoandvision.folder_sharing_pp.security;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.util.Base64;
+
+// Link di condivisione a tempo per chi non ha un account: i parametri exp e sig danno accesso in sola lettura
+// a una cartella fino alla scadenza. La firma HMAC-SHA256 si verifica senza interrogare il database.
+// Un link non può essere revocato prima della scadenza se non cambiando security.share-link.secret
+@Service
+public class ShareLinkService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ShareLinkService.class);
+    private static final String ALGORITHM = "HmacSHA256";
+
+    public static final String EXPIRES_PARAM = "exp";
+    public static final String SIGNATURE_PARAM = "sig";
+
+    // Link emesso: query da aggiungere agli URL della cartella
+    public record ShareLink(String folderName, Instant expiresAt, String query) {
+    }
+
+    private final SecretKeySpec key;
+    private final long maxTtlSeconds;
+
+    public ShareLinkService(@Value("${security.share-link.secret:}") String secret,
+                            @Value("${security.share-link.max-ttl-hours:720}") long maxTtlHours) {
+        this.key = new SecretKeySpec(SecretKeys.decodeOrGenerate(secret, "security.share-link.secret", logger), ALGORITHM);
+        this.maxTtlSeconds = maxTtlHours * 3600;
+    }
+
+    public ShareLink create(String folderName, long ttlSeconds) {
+        if (ttlSeconds <= 0 || ttlSeconds > maxTtlSeconds) {
+            throw new IllegalArgumentException("Durata non valida: " + ttlSeconds + " s");
+        }
+        long expires = Instant.now().getEpochSecond() + ttlSeconds;
+        String query = EXPIRES_PARAM + "=" + expires + "&" + SIGNATURE_PARAM + "=" + sign(folderName, expires);
+        return new ShareLink(folderName, Instant.ofEpochSecond(expires), query);
+    }
+
+    // true se exp e sig sono un link valido e non scaduto per la cartella
+    public boolean verify(String folderName, String expires, String signature) {
+        if (expires == null || signature == null) {
+            return false;
+        }
+        long expiresAt;
+        try {
+            expiresAt = Long.parseLong(expires);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        if (expiresAt < Instant.now().getEpochSecond()) {
+            return false;
+        }
+        // Confronto a tempo costante: non rivela quanti byte della firma sono corretti
+        return MessageDigest.isEqual(sign(folderName, expiresAt).getBytes(StandardCharsets.US_ASCII),
+                signature.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private String sign(String folderName, long expires) {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM); // Mac non è thread-safe: un'istanza per chiamata
+            mac.init(key);
+            byte[] digest = mac.doFinal((folderName + "\n" + expires).getBytes(StandardCharsets.UTF_8));
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(digest);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.photoandvision.folder_sharing_pp.service;
+
+import com.photoandvision.folder_sharing_pp.storage.StorageBackend;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+// Servizio che esporta una cartella come archivio ZIP scritto direttamente sulla risposta, senza file temporanei.
+// Le voci sono in modalità STORED (le immagini sono già compresse): il CRC richiesto dall'intestazione locale
+// viene calcolato con una prima lettura del file, poi il contenuto viene copiato con un buffer di dimensione fissa.
+// Le cartelle molto grandi possono essere scaricate in più parti, ognuna un archivio completo
+@Service
+public class ArchiveService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ArchiveService.class);
+    private static final int BUFFER_SIZE = 64 * 1024; // Buffer di lettura, unico per tutto l'archivio
+
+    public static final int MAX_PARTS = 1000; // Numero massimo di parti in cui dividere una cartella
+
+    // Contenuto di una parte dell'archivio: le voci in ordine di nome e il totale dei loro byte
+    public record ArchivePlan(String folderName, int part, int parts, List<StorageBackend.ObjectInfo> entries, long totalBytes) {
+    }
+
+    private final StorageBackend storage;
+    private final Counter archivedFiles;
+    private final Counter skippedFiles;
+
+    public ArchiveService(StorageBackend storage, MeterRegistry registry) {
+        this.storage = storage;
+        this.archivedFiles = registry.counter("archive.files", "result", "written");
+        this.skippedFiles = registry.counter("archive.files", "result", "skipped");
+    }
+
+    // Elenca i file della parte richiesta (part da 1 a parts). selection limita l'archivio ai nomi indicati (null per tutti).
+    // Le parti sono intervalli consecutivi dell'elenco ordinato per nome, bilanciati per byte:
+    // finché la cartella non cambia, la stessa parte contiene sempre gli stessi file e può essere riscaricata da sola.
+    // Lancia NoSuchFileException se la cartella non esiste
+    public ArchivePlan plan(String folderName, Collection<String> selection, int part, int parts) throws IOException {
+        if (parts < 1 || parts > MAX_PARTS || part < 1 || part > parts) {
+            throw new IllegalArgumentException("Parte non valida: " + part + " di " + parts);
+        }
+        Set<String> selected = null;
+        if (selection != null && !selection.isEmpty()) {
+            selected = new HashSet<>(selection);
+            for (String name : selected) {
+                if (!StorageBackend.isValidName(name)) {
+                    throw new IllegalArgumentException("Nome non valido: " + name);
+                }
+            }
+        }
+        if (!StorageBackend.isValidName(folderName)) {
+            throw new NoSuchFileException(folderName);
+        }
+
+        Set<String> filter = selected;
+        List<StorageBackend.ObjectInfo> all = new ArrayList<>();
+        storage.list(folderName, info -> {
+            if (filter == null || filter.contains(info.name())) {
+                all.add(info);
+            }
+        });
+        all.sort(Comparator.comparing(StorageBackend.ObjectInfo::name));
+
+        long total = 0;
+        for (StorageBackend.ObjectInfo info : all) {
+            total += info.size();
+        }
+
+        // Un file appartiene alla parte in cui cade il suo primo byte (o la sua posizione, se la cartella è vuota di byte)
+        List<StorageBackend.ObjectInfo> entries = new ArrayList<>();
+        long partBytes = 0;
+        long offset = 0;
+        for (int i = 0; i < all.size(); i++) {
+            StorageBackend.ObjectInfo info = all.get(i);
+            int owner = total > 0 ? (int) (offset * parts / total) + 1 : (int) ((long) i * parts / all.size()) + 1;
+            if (owner == part) {
+                entries.add(info);
+                partBytes += info.size();
+            }
+            offset += info.size();
+        }
+        return new ArchivePlan(folderName, part, parts, entries, partBytes);
+    }
+
+    // Scrive l'archivio sullo stream. I file eliminati dopo la pianificazione vengono saltati;
+    // un file modificato durante la copia interrompe l'archivio (ZipException) invece di produrre una voce corrotta
+    public void write(ArchivePlan plan, OutputStream output) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        ZipOutputStream zip = new ZipOutputStream(output); // Nomi in UTF-8; ZIP64 aggiunto in automatico oltre i 4 GB
+        for (StorageBackend.ObjectInfo info : plan.entries()) {
+            long crc;
+            try {
+                crc = crc(plan.folderName(), info, buffer);
+            } catch (NoSuchFileException e) {
+                skippedFiles.increment();
+                logger.debug("File eliminato durante l'archiviazione: {}/{}", plan.folderName(), info.name());
+                continue;
+            }
+
+            ZipEntry entry = new ZipEntry(info.name());
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(info.size());
+            entry.setCompressedSize(info.size());
+            entry.setCrc(crc);
+            entry.setTime(info.lastModified());
+            zip.putNextEntry(entry);
+            try (InputStream input = storage.getRange(plan.folderName(), info.name(), 0, -1)) {
+                copy(input, zip, buffer);
+            }
+            zip.closeEntry(); // Verifica dimensione e CRC dichiarati
+            archivedFiles.increment();
+        }
+        zip.finish(); // Scrive la directory centrale senza chiudere lo stream della risposta
+        output.flush();
+    }
+
+    // Prima lettura del file per il CRC dell'intestazione locale
+    private long crc(String folderName, StorageBackend.ObjectInfo info, byte[] buffer) throws IOException {
+        CRC32 crc = new CRC32();
+        try (InputStream input = storage.getRange(folderName, info.name(), 0, -1)) {
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                crc.update(buffer, 0, read);
+            }
+        }
+        return crc.getValue();
+    }
+
+    private static void copy(InputStream input, OutputStream output, byte[] buffer) throws IOException {
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+            output.write(buffer, 0, read);
+        }
+    }
+}
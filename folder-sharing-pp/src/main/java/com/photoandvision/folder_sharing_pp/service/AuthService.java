@@ -0,0 +1,92 @@
+package com.photoandvision.folder_sharing_pp.service;
+
+import com.photoandvision.folder_sharing_pp.entity.User;
+import com.photoandvision.folder_sharing_pp.repo.UserRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Optional;
+
+// Verifica le credenziali al login e gestisce gli account. È l'unico punto in cui si legge la tabella degli utenti:
+// dopo il login l'utente viene riconosciuto dal token JWT
+@Service
+public class AuthService {
+
+    private static final Logger logger = LoggerFactory.getLogger(AuthService.class);
+
+    private final UserRepository userRepository;
+    private final PasswordEncoder passwordEncoder;
+    private final String adminUsername;
+    private final String adminPassword;
+    private final String dummyHash; // Confrontato quando l'utente non esiste, così i tempi di risposta non lo rivelano
+
+    public AuthService(UserRepository userRepository,
+                       PasswordEncoder passwordEncoder,
+                       @Value("${spring.security.user.name:admin}") String adminUsername,
+                       @Value("${spring.security.user.password:}") String adminPassword) {
+        this.userRepository = userRepository;
+        this.passwordEncoder = passwordEncoder;
+        this.adminUsername = adminUsername;
+        this.adminPassword = adminPassword;
+        this.dummyHash = passwordEncoder.encode("dummy-password");
+    }
+
+    // Restituisce l'utente se le credenziali sono corrette
+    public Optional<User> authenticate(String username, String password) {
+        User user = userRepository.findByUsername(username);
+        if (user == null || user.getPassword() == null) {
+            passwordEncoder.matches(password, dummyHash);
+            return Optional.empty();
+        }
+        if (isEncoded(user.getPassword())) {
+            return passwordEncoder.matches(password, user.getPassword()) ? Optional.of(user) : Optional.empty();
+        }
+
+        // Password salvata in chiaro prima dell'autenticazione: al primo login corretto viene sostituita dall'hash
+        if (!MessageDigest.isEqual(password.getBytes(StandardCharsets.UTF_8), user.getPassword().getBytes(StandardCharsets.UTF_8))) {
+            return Optional.empty();
+        }
+        user.setPassword(passwordEncoder.encode(password));
+        userRepository.save(user);
+        logger.info("Password dell'utente {} convertita in hash", username);
+        return Optional.of(user);
+    }
+
+    // Crea un utente; lancia IllegalStateException se il nome è già usato
+    public User createUser(String username, String password, User.Role role) {
+        if (userRepository.findByUsername(username) != null) {
+            throw new IllegalStateException("Utente già esistente: " + username);
+        }
+        User user = new User();
+        user.setUsername(username);
+        user.setPassword(passwordEncoder.encode(password));
+        user.setRole(role);
+        return userRepository.save(user);
+    }
+
+    // Al primo avvio crea l'amministratore con le credenziali di spring.security.user.
+    // Senza password configurata non crea niente: nessun amministratore con una password nota
+    @EventListener(ApplicationReadyEvent.class)
+    public void createAdminIfMissing() {
+        if (userRepository.findByUsername(adminUsername) != null) {
+            return;
+        }
+        if (adminPassword.isBlank()) {
+            logger.warn("Amministratore {} non creato: spring.security.user.password non è impostata", adminUsername);
+            return;
+        }
+        createUser(adminUsername, adminPassword, User.Role.ADMIN);
+        logger.info("Creato l'utente amministratore {}", adminUsername);
+    }
+
+    private static boolean isEncoded(String password) {
+        return password.startsWith("$2a$") || password.startsWith("$2b$") || password.startsWith("$2y$"); // Formato BCrypt
+    }
+}
@@ -0,0 +1,309 @@
+package com.photoandvision.folder_sharing_pp.service;
+
+import com.photoandvision.folder_sharing_pp.storage.StorageBackend;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Servizio per gli upload a blocchi riprendibili: il client apre una sessione, invia i blocchi
+// (anche in parallelo e in qualsiasi ordine) indicando l'offset, e infine chiede la pubblicazione del file.
+// Le sessioni abbandonate vengono eliminate dopo un periodo di inattività
+@Service
+public class ChunkedUploadService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChunkedUploadService.class);
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    // Intervallo di byte [start, end)
+    public record Range(long start, long end) {
+    }
+
+    // Stato di una sessione restituito al client
+    public record UploadStatus(String id, String folderName, String fileName, long size, long received,
+                               List<Range> missing, boolean completed) {
+    }
+
+    private static final class Session {
+        final String id;
+        final String folderName;
+        final String fileName;
+        final long size;
+        final String expectedHash; // Hash SHA-256 atteso, opzionale
+        final Path partFile;
+        final ReentrantLock lock = new ReentrantLock(); // Protegge ranges, activeWrites e completing
+        final TreeMap<Long, Long> ranges = new TreeMap<>(); // Intervalli ricevuti, disgiunti: inizio -> fine
+        int activeWrites;
+        boolean completing;
+        volatile long lastActivity = System.currentTimeMillis();
+
+        Session(String id, String folderName, String fileName, long size, String expectedHash, Path partFile) {
+            this.id = id;
+            this.folderName = folderName;
+            this.fileName = fileName;
+            this.size = size;
+            this.expectedHash = expectedHash;
+            this.partFile = partFile;
+        }
+    }
+
+    private final ImageIngestService imageIngestService;
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private final long maxSize; // Dimensione massima di un file
+    private final int maxSessions; // Sessioni aperte contemporaneamente
+    private final long ttlMillis; // Inattività dopo la quale una sessione viene eliminata
+    private final Counter receivedBytes; // Byte dei blocchi scritti sul disco
+    private Path chunksDir;
+
+    public ChunkedUploadService(ImageIngestService imageIngestService,
+                                MeterRegistry registry,
+                                @Value("${chunked-upload.max-size:53687091200}") long maxSize,
+                                @Value("${chunked-upload.max-sessions:256}") int maxSessions,
+                                @Value("${chunked-upload.ttl-minutes:1440}") long ttlMinutes) {
+        this.imageIngestService = imageIngestService;
+        this.maxSize = maxSize;
+        this.maxSessions = maxSessions;
+        this.ttlMillis = ttlMinutes * 60_000;
+        this.receivedBytes = Counter.builder("chunked-upload.bytes").baseUnit("bytes").register(registry);
+    }
+
+    // I file parziali stanno nell'area di staging, sullo stesso volume delle cartelle: la pubblicazione è uno spostamento.
+    // Le sessioni vivono in memoria, quindi i file rimasti da un'esecuzione precedente vengono eliminati
+    @PostConstruct
+    public void prepareChunksDir() throws IOException {
+        chunksDir = imageIngestService.getStagingDir().resolve("chunks");
+        Files.createDirectories(chunksDir);
+        try (DirectoryStream<Path> leftovers = Files.newDirectoryStream(chunksDir, "*.part")) {
+            for (Path leftover : leftovers) {
+                Files.deleteIfExists(leftover);
+            }
+        }
+    }
+
+    // Apre una nuova sessione di upload
+    public UploadStatus init(String folderName, String fileName, long size, String expectedHash) throws IOException {
+        if (!StorageBackend.isValidName(folderName) || !StorageBackend.isValidName(fileName)) {
+            throw new IllegalArgumentException("Nome non valido: " + folderName + "/" + fileName);
+        }
+        if (size <= 0 || size > maxSize) {
+            throw new IllegalArgumentException("Dimensione non valida: " + size);
+        }
+        if (sessions.size() >= maxSessions) {
+            throw new IllegalStateException("Troppe sessioni di upload aperte");
+        }
+
+        String id = UUID.randomUUID().toString();
+        Path partFile = chunksDir.resolve(id + ".part");
+        Files.createFile(partFile);
+        Session session = new Session(id, folderName, fileName, size, expectedHash, partFile);
+        sessions.put(id, session);
+        logger.info("Sessione di upload {} aperta per {}/{} ({} byte)", id, folderName, fileName, size);
+        return status(session);
+    }
+
+    // Scrive un blocco a partire dall'offset indicato, con scritture posizionali sul file parziale.
+    // Anche se la connessione si interrompe, la parte già scritta resta registrata e non va reinviata
+    public UploadStatus writeChunk(String id, long offset, long length, InputStream body) throws IOException {
+        Session session = get(id);
+        if (offset < 0 || length < 0 || offset > session.size || length > session.size - offset) { // Senza overflow di offset + length
+            throw new IllegalArgumentException("Blocco fuori dai limiti del file: offset " + offset + ", lunghezza " + length);
+        }
+
+        session.lock.lock();
+        try {
+            if (session.completing) {
+                throw new IllegalStateException("Upload già in fase di completamento");
+            }
+            session.activeWrites++;
+        } finally {
+            session.lock.unlock();
+        }
+
+        long written = 0;
+        try (FileChannel channel = FileChannel.open(session.partFile, StandardOpenOption.WRITE)) {
+            byte[] buffer = new byte[COPY_BUFFER_SIZE];
+            while (written < length) {
+                int read = body.read(buffer, 0, (int) Math.min(buffer.length, length - written));
+                if (read == -1) {
+                    break;
+                }
+                ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, read);
+                while (chunk.hasRemaining()) {
+                    written += channel.write(chunk, offset + written);
+                }
+                session.lastActivity = System.currentTimeMillis();
+            }
+        } finally {
+            session.lock.lock();
+            try {
+                if (written > 0) {
+                    addRange(session.ranges, offset, offset + written);
+                }
+                receivedBytes.increment(written);
+                session.activeWrites--;
+            } finally {
+                session.lock.unlock();
+            }
+        }
+
+        if (written < length) {
+            throw new IOException("Blocco incompleto: ricevuti " + written + " byte su " + length);
+        }
+        return status(session);
+    }
+
+    public UploadStatus getStatus(String id) {
+        return status(get(id));
+    }
+
+    // Verifica che tutti i byte siano arrivati, controlla l'hash e pubblica il file nella cartella in modo atomico
+    public ImageIngestService.IngestResult complete(String id) throws IOException {
+        Session session = get(id);
+        session.lock.lock();
+        try {
+            if (session.completing) {
+                throw new IllegalStateException("Upload già in fase di completamento");
+            }
+            if (session.activeWrites > 0 || !missing(session).isEmpty()) {
+                throw new IllegalStateException("Upload incompleto");
+            }
+            session.completing = true;
+        } finally {
+            session.lock.unlock();
+        }
+
+        try {
+            ImageIngestService.IngestResult result = imageIngestService.publish(
+                    session.folderName, session.fileName, session.partFile, session.expectedHash);
+            remove(session);
+            return result;
+        } catch (IOException | RuntimeException e) {
+            if (!Files.exists(session.partFile)) {
+                // Errore dopo che il file è stato spostato nella cartella: i blocchi non ci sono più, la sessione non può riprendere
+                logger.warn("Sessione di upload {} chiusa dopo un errore di pubblicazione: {}", session.id, e.getMessage());
+                remove(session);
+                throw e;
+            }
+            session.lock.lock();
+            try {
+                if (e instanceof IllegalStateException) {
+                    session.ranges.clear(); // Contenuto corrotto: la sessione resta aperta e il client può reinviare i blocchi
+                }
+                session.completing = false;
+            } finally {
+                session.lock.unlock();
+            }
+            throw e;
+        }
+    }
+
+    public void abort(String id) {
+        remove(get(id));
+    }
+
+    // Elimina le sessioni inattive da più del TTL configurato
+    @Scheduled(fixedDelayString = "${chunked-upload.gc-interval-ms:60000}")
+    public void removeExpiredSessions() {
+        long now = System.currentTimeMillis();
+        for (Session session : sessions.values()) {
+            if (now - session.lastActivity <= ttlMillis) {
+                continue;
+            }
+            session.lock.lock();
+            try {
+                if (session.completing || session.activeWrites > 0) {
+                    continue;
+                }
+                session.completing = true; // Impedisce nuove scritture durante la rimozione
+            } finally {
+                session.lock.unlock();
+            }
+            logger.info("Sessione di upload {} scaduta per inattività", session.id);
+            remove(session);
+        }
+    }
+
+    private Session get(String id) {
+        Session session = sessions.get(id);
+        if (session == null) {
+            throw new NoSuchElementException("Sessione di upload non trovata: " + id);
+        }
+        return session;
+    }
+
+    private void remove(Session session) {
+        sessions.remove(session.id, session);
+        try {
+            Files.deleteIfExists(session.partFile);
+        } catch (IOException e) {
+            logger.warn("Impossibile eliminare il file parziale {}: {}", session.partFile, e.getMessage());
+        }
+    }
+
+    private UploadStatus status(Session session) {
+        session.lock.lock();
+        try {
+            long received = 0;
+            for (Map.Entry<Long, Long> range : session.ranges.entrySet()) {
+                received += range.getValue() - range.getKey();
+            }
+            return new UploadStatus(session.id, session.folderName, session.fileName, session.size, received,
+                    missing(session), session.completing);
+        } finally {
+            session.lock.unlock();
+        }
+    }
+
+    // Intervalli non ancora ricevuti (da chiamare con il lock della sessione)
+    private static List<Range> missing(Session session) {
+        List<Range> missing = new ArrayList<>();
+        long position = 0;
+        for (Map.Entry<Long, Long> range : session.ranges.entrySet()) {
+            if (range.getKey() > position) {
+                missing.add(new Range(position, range.getKey()));
+            }
+            position = Math.max(position, range.getValue());
+        }
+        if (position < session.size) {
+            missing.add(new Range(position, session.size));
+        }
+        return missing;
+    }
+
+    // Aggiunge l'intervallo [start, end) unendolo a quelli adiacenti o sovrapposti
+    private static void addRange(TreeMap<Long, Long> ranges, long start, long end) {
+        Map.Entry<Long, Long> floor = ranges.floorEntry(start);
+        if (floor != null && floor.getValue() >= start) {
+            start = floor.getKey();
+            end = Math.max(end, floor.getValue());
+        }
+        Map.Entry<Long, Long> next = ranges.ceilingEntry(start);
+        while (next != null && next.getKey() <= end) {
+            end = Math.max(end, next.getValue());
+            ranges.remove(next.getKey());
+            next = ranges.ceilingEntry(start);
+        }
+        ranges.put(start, end);
+    }
+}
@@ -0,0 +1,288 @@
+package com.photoandvision.folder_sharing_pp.service;
+
+import com.photoandvision.folder_sharing_pp.entity.Folder;
+import com.photoandvision.folder_sharing_pp.metrics.RequestTrace;
+import com.photoandvision.folder_sharing_pp.repo.FolderRepository;
+import com.photoandvision.folder_sharing_pp.repo.ImageFile;
+import com.photoandvision.folder_sharing_pp.repo.ImageRepository;
+import com.photoandvision.folder_sharing_pp.storage.StorageBackend;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+// Servizio che elenca cartelle e immagini dell'archivio con paginazione a cursore (keyset).
+// Il contenuto delle cartelle viene letto dalla FolderMetadataCache, quindi l'archivio viene letto solo in caso di miss.
+// Con listing.source=database le immagini vengono lette dalla tabella image, tenuta allineata da StorageReconciler
+@Service
+public class DirectoryListingService {
+
+    private static final String[] IMAGE_EXTENSIONS = { "jpg", "jpeg", "png", "gif", "bmp", "tiff" }; // Estensioni valide per le immagini
+
+    // Voce di un elenco: nome, dimensione in byte, data di modifica in millisecondi e tipo MIME (null per le cartelle)
+    public record FileEntry(String name, long size, long lastModified, String mimeType) {
+    }
+
+    // Pagina di risultati: nextCursor è null quando non ci sono altre voci
+    public record ListingPage(List<FileEntry> entries, String nextCursor) {
+    }
+
+    // Ordinamenti stabili supportati: a parità di data si ordina per nome
+    public enum SortOrder {
+        NAME(Comparator.comparing(FileEntry::name)),
+        MTIME(Comparator.comparingLong(FileEntry::lastModified).thenComparing(FileEntry::name));
+
+        private final Comparator<FileEntry> comparator;
+
+        SortOrder(Comparator<FileEntry> comparator) {
+            this.comparator = comparator;
+        }
+
+        // Restituisce l'ordinamento corrispondente al parametro sort, oppure null se non è supportato
+        public static SortOrder parse(String value) {
+            switch (value.toLowerCase(Locale.ROOT)) {
+                case "name":
+                    return NAME;
+                case "mtime":
+                    return MTIME;
+                default:
+                    return null;
+            }
+        }
+    }
+
+    // Riceve le voci man mano che vengono lette dalla directory
+    @FunctionalInterface
+    public interface EntryConsumer {
+        void accept(FileEntry entry) throws IOException;
+    }
+
+    private static final int DATABASE_BATCH_SIZE = 1000; // Righe per query in forEachImage
+
+    private final StorageBackend storage; // Archivio che contiene le cartelle condivise
+    private final FolderMetadataCache cache;
+    private final FolderRepository folderRepository;
+    private final ImageRepository imageRepository;
+    private final boolean fromDatabase; // Immagini lette dagli indici del database invece che dall'archivio
+    private final Timer folderScanTimer; // Durata della lettura della directory base
+    private final Timer imageScanTimer; // Durata della lettura di una cartella
+    private final DistributionSummary scannedImages; // Immagini trovate per cartella letta
+    private final DistributionSummary listedFiles; // Voci restituite per pagina
+
+    public DirectoryListingService(StorageBackend storage, FolderMetadataCache cache,
+                                   FolderRepository folderRepository, ImageRepository imageRepository,
+                                   MeterRegistry registry,
+                                   @Value("${listing.source:storage}") String source) {
+        this.storage = storage;
+        this.cache = cache;
+        this.folderRepository = folderRepository;
+        this.imageRepository = imageRepository;
+        this.fromDatabase = "database".equalsIgnoreCase(source);
+        this.folderScanTimer = Timer.builder("folder.scan").tag("type", "folders").register(registry);
+        this.imageScanTimer = Timer.builder("folder.scan").tag("type", "images").register(registry);
+        this.scannedImages = DistributionSummary.builder("folder.scan.files").register(registry);
+        this.listedFiles = DistributionSummary.builder("folder.listing.files").register(registry);
+    }
+
+    // Verifica dall'estensione se un file è un'immagine
+    public static boolean isImageFile(String fileName) {
+        String lowerCaseName = fileName.toLowerCase(Locale.ROOT);
+        for (String extension : IMAGE_EXTENSIONS) {
+            if (lowerCaseName.endsWith(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Restituisce la pagina di cartelle che segue il cursore
+    public ListingPage listFolders(SortOrder sort, String cursor, int limit) throws IOException {
+        return page(cache.get(FolderMetadataCache.ROOT, storage.watchDirectory(null), () -> scanAll(null, true)), sort, cursor, limit);
+    }
+
+    // Come listFolders, ma solo tra le cartelle indicate (es. quelle condivise con l'utente):
+    // il filtro precede la paginazione, quindi ogni pagina è piena finché ci sono altre cartelle
+    public ListingPage listFolders(SortOrder sort, String cursor, int limit, Set<String> folderNames) throws IOException {
+        if (folderNames.isEmpty()) {
+            return new ListingPage(List.of(), null);
+        }
+        List<FileEntry> all = cache.get(FolderMetadataCache.ROOT, storage.watchDirectory(null), () -> scanAll(null, true));
+        List<FileEntry> visible = new ArrayList<>(Math.min(folderNames.size(), all.size()));
+        for (FileEntry entry : all) {
+            if (folderNames.contains(entry.name())) {
+                visible.add(entry); // I permessi possono riferirsi a cartelle non più presenti nell'archivio
+            }
+        }
+        return page(visible, sort, cursor, limit);
+    }
+
+    // Restituisce la pagina di immagini della cartella che segue il cursore.
+    // Lancia NoSuchFileException o NotDirectoryException se la cartella non esiste
+    public ListingPage listImages(String folderName, SortOrder sort, String cursor, int limit) throws IOException {
+        if (fromDatabase) {
+            return databasePage(findFolder(folderName).getId(), sort, cursor != null ? decodeCursor(cursor, sort) : null, limit);
+        }
+        return page(cache.get(folderName, storage.watchDirectory(folderName), () -> scanAll(folderName, false)), sort, cursor, limit);
+    }
+
+    // Passa al consumer ogni cartella: dalla cache se presente, altrimenti mentre la directory viene letta
+    public void forEachFolder(EntryConsumer consumer) throws IOException {
+        forEach(FolderMetadataCache.ROOT, null, true, consumer);
+    }
+
+    // Passa al consumer ogni immagine della cartella: dalla cache se presente, altrimenti mentre la directory viene letta
+    public void forEachImage(String folderName, EntryConsumer consumer) throws IOException {
+        if (fromDatabase) {
+            Long folderId = findFolder(folderName).getId();
+            FileEntry after = null;
+            ListingPage page;
+            do {
+                page = databasePage(folderId, SortOrder.NAME, after, DATABASE_BATCH_SIZE);
+                for (FileEntry entry : page.entries()) {
+                    consumer.accept(entry);
+                    after = entry;
+                }
+            } while (page.nextCursor() != null);
+            return;
+        }
+        forEach(folderName, folderName, false, consumer);
+    }
+
+    // Verifica se la cartella esiste, senza accedere all'archivio se il suo contenuto è in cache
+    public boolean folderExists(String folderName) throws IOException {
+        if (fromDatabase) {
+            return folderRepository.findByName(folderName).isPresent();
+        }
+        return cache.getIfPresent(folderName) != null || storage.folderExists(folderName);
+    }
+
+    private void forEach(String cacheKey, String folderName, boolean directories, EntryConsumer consumer) throws IOException {
+        List<FileEntry> cached = cache.getIfPresent(cacheKey);
+        if (cached == null) {
+            scan(folderName, directories, consumer);
+            return;
+        }
+        for (FileEntry entry : cached) {
+            consumer.accept(entry);
+        }
+    }
+
+    // Tiene in memoria solo le prime "limit" voci successive al cursore
+    private ListingPage page(List<FileEntry> all, SortOrder sort, String cursor, int limit) {
+        FileEntry after = cursor != null ? decodeCursor(cursor, sort) : null;
+        Comparator<FileEntry> comparator = sort.comparator;
+        PriorityQueue<FileEntry> top = new PriorityQueue<>(limit + 1, comparator.reversed()); // In testa la voce più "grande"
+        boolean more = false;
+
+        for (FileEntry entry : all) {
+            if (after != null && comparator.compare(entry, after) <= 0) {
+                continue; // Già restituita in una pagina precedente
+            }
+            top.add(entry);
+            if (top.size() > limit) {
+                top.poll();
+                more = true;
+            }
+        }
+
+        List<FileEntry> entries = new ArrayList<>(top);
+        entries.sort(comparator);
+        listedFiles.record(entries.size());
+        String nextCursor = more && !entries.isEmpty() ? encodeCursor(entries.get(entries.size() - 1), sort) : null;
+        return new ListingPage(entries, nextCursor);
+    }
+
+    // Pagina letta dagli indici (folder_id, name) o (folder_id, lastModified, name): una riga in più indica altre voci
+    private ListingPage databasePage(Long folderId, SortOrder sort, FileEntry after, int limit) {
+        Limit rows = Limit.of(limit + 1);
+        List<ImageFile> files;
+        if (sort == SortOrder.NAME) {
+            files = after == null
+                    ? imageRepository.findByFolderIdOrderByNameAsc(folderId, rows)
+                    : imageRepository.findByFolderIdAndNameGreaterThanOrderByNameAsc(folderId, after.name(), rows);
+        } else {
+            files = after == null
+                    ? imageRepository.findByFolderIdOrderByLastModifiedAscNameAsc(folderId, rows)
+                    : imageRepository.findPageByLastModified(folderId, after.lastModified(), after.name(), rows);
+        }
+        boolean more = files.size() > limit;
+        List<FileEntry> entries = new ArrayList<>(Math.min(files.size(), limit));
+        for (ImageFile file : files.subList(0, Math.min(files.size(), limit))) {
+            entries.add(new FileEntry(file.getName(),
+                    file.getSize() != null ? file.getSize() : 0L,
+                    file.getLastModified() != null ? file.getLastModified() : 0L, // Righe non ancora riconciliate
+                    URLConnection.guessContentTypeFromName(file.getName())));
+        }
+        listedFiles.record(entries.size());
+        String nextCursor = more && !entries.isEmpty() ? encodeCursor(entries.get(entries.size() - 1), sort) : null;
+        return new ListingPage(entries, nextCursor);
+    }
+
+    private Folder findFolder(String folderName) throws NoSuchFileException {
+        return folderRepository.findByName(folderName).orElseThrow(() -> new NoSuchFileException(folderName));
+    }
+
+    private List<FileEntry> scanAll(String folderName, boolean directories) throws IOException {
+        List<FileEntry> entries = new ArrayList<>();
+        scan(folderName, directories, entries::add);
+        return entries;
+    }
+
+    // Legge le cartelle (folderName null) oppure le immagini di una cartella; le voci nascoste sono già escluse dall'archivio
+    private void scan(String folderName, boolean directories, EntryConsumer consumer) throws IOException {
+        long start = System.nanoTime();
+        long[] found = new long[1];
+        try (RequestTrace.Step step = RequestTrace.step(RequestTrace.FS_SCAN)) {
+            if (directories) {
+                storage.listFolders(info -> consumer.accept(new FileEntry(info.name(), info.size(), info.lastModified(), null)));
+            } else {
+                storage.list(folderName, info -> {
+                    if (isImageFile(info.name())) {
+                        String mimeType = URLConnection.guessContentTypeFromName(info.name());
+                        consumer.accept(new FileEntry(info.name(), info.size(), info.lastModified(), mimeType));
+                        found[0]++;
+                    }
+                });
+            }
+        } finally {
+            (directories ? folderScanTimer : imageScanTimer).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+        if (!directories) {
+            scannedImages.record(found[0]);
+        }
+    }
+
+    // Il cursore è opaco per il client: contiene ordinamento, data e nome dell'ultima voce restituita
+    private String encodeCursor(FileEntry last, SortOrder sort) {
+        String raw = sort.name() + "|" + last.lastModified() + "|" + last.name();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private FileEntry decodeCursor(String cursor, SortOrder sort) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            String[] parts = raw.split("\\|", 3);
+            if (parts.length != 3 || !parts[0].equals(sort.name())) {
+                throw new IllegalArgumentException("Cursore non valido per l'ordinamento " + sort);
+            }
+            return new FileEntry(parts[2], 0L, Long.parseLong(parts[1]), null);
+        } catch (IllegalArgumentException e) { // Comprende NumberFormatException e base64 non valido
+            throw new IllegalArgumentException("Cursore non valido", e);
+        }
+    }
+}
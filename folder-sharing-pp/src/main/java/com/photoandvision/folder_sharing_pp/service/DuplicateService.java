@@ -0,0 +1,390 @@
+package com.photoandvision.folder_sharing_pp.service;
+
+import com.photoandvision.folder_sharing_pp.entity.Folder;
+import com.photoandvision.folder_sharing_pp.entity.Image;
+import com.photoandvision.folder_sharing_pp.repo.ImageHash;
+import com.photoandvision.folder_sharing_pp.repo.ImageRef;
+import com.photoandvision.folder_sharing_pp.repo.ImageRepository;
+import com.photoandvision.folder_sharing_pp.storage.StorageBackend;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Ricerca dei duplicati visivi (stessa foto ridimensionata, ricompressa o ritoccata) in tutte le cartelle.
+// Un job periodico calcola il dHash a 64 bit delle immagini che non lo hanno ancora, in parallelo su un ForkJoinPool
+// dedicato, e lo salva nella riga dell'immagine; gli hash sono tenuti anche in un indice in memoria (HashIndex)
+// che risponde alle ricerche per distanza di Hamming senza query sul database.
+// L'indice può contenere voci non più valide (immagini eliminate o sostituite): i risultati vengono verificati
+// sul database prima di essere restituiti e le voci non valide corrette
+@Service
+public class DuplicateService {
+
+    private static final Logger logger = LoggerFactory.getLogger(DuplicateService.class);
+    private static final int GRID_COLUMNS = 9; // 9 colonne per 8 confronti tra vicini su ogni riga
+    private static final int GRID_ROWS = 8;
+    private static final int SAMPLE_SIZE = 128; // Lato minimo dell'immagine decodificata: basta per una griglia 9x8
+    private static final int LOAD_BATCH_SIZE = 10000;
+    private static final int MAX_RESULTS = 500;
+
+    public static final int MAX_DISTANCE = HashIndex.MAX_DISTANCE;
+
+    // Immagine simile a quella cercata, con la distanza tra gli hash (0 = identiche a meno di ricompressione)
+    public record Duplicate(String folderName, String imageName, int distance) {
+    }
+
+    // Esito della ricerca dei duplicati di un'immagine: hashed è false se l'hash non è ancora stato calcolato
+    public record NearDuplicates(String folderName, String imageName, boolean hashed, List<Duplicate> duplicates) {
+    }
+
+    // Gruppo di immagini della stessa cartella simili tra loro
+    public record DuplicateCluster(List<String> imageNames) {
+    }
+
+    public record Stats(int indexed, long hashed, long failed) {
+    }
+
+    // Hash calcolato per un'immagine (null se il file non è leggibile), con dimensione e data lette dalla riga
+    private record Computed(Image image, Long hash) {
+    }
+
+    private final ImageRepository imageRepository;
+    private final FolderService folderService;
+    private final StorageBackend storage;
+    private final TransactionTemplate transaction;
+    private final ForkJoinPool pool; // Calcolo degli hash: decodifica e ridimensionamento occupano la CPU
+    private final boolean enabled;
+    private final int batchSize;
+    private final int defaultDistance;
+
+    private final HashIndex index = new HashIndex();
+    private volatile boolean ready; // Indice caricato dal database
+    private final AtomicLong hashed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    public DuplicateService(ImageRepository imageRepository,
+                            FolderService folderService,
+                            StorageBackend storage,
+                            PlatformTransactionManager transactionManager,
+                            @Value("${duplicates.enabled:true}") boolean enabled,
+                            @Value("${duplicates.parallelism:2}") int parallelism,
+                            @Value("${duplicates.batch-size:256}") int batchSize,
+                            @Value("${duplicates.default-distance:6}") int defaultDistance) {
+        this.imageRepository = imageRepository;
+        this.folderService = folderService;
+        this.storage = storage;
+        this.transaction = new TransactionTemplate(transactionManager);
+        this.pool = new ForkJoinPool(parallelism, pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("duplicates-" + thread.getPoolIndex());
+            return thread;
+        }, null, false);
+        this.enabled = enabled;
+        this.batchSize = batchSize;
+        this.defaultDistance = Math.min(defaultDistance, MAX_DISTANCE);
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        pool.shutdownNow();
+        pool.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    public int defaultDistance() {
+        return defaultDistance;
+    }
+
+    public Stats stats() {
+        return new Stats(index.size(), hashed.get(), failed.get());
+    }
+
+    // Al primo giro carica l'indice, poi calcola gli hash mancanti a blocchi per id crescente
+    @Scheduled(initialDelayString = "${duplicates.initial-delay-ms:15000}",
+            fixedDelayString = "${duplicates.interval-ms:300000}")
+    public void scheduledRun() {
+        if (!enabled) {
+            return;
+        }
+        if (!ready) {
+            loadIndex();
+        }
+        hashPending();
+    }
+
+    private void loadIndex() {
+        long start = System.nanoTime();
+        long lastId = 0L;
+        List<ImageHash> batch;
+        do {
+            batch = imageRepository.findPerceptualHashes(lastId, Limit.of(LOAD_BATCH_SIZE));
+            for (ImageHash row : batch) {
+                index.put(row.getId(), row.getFolderId(), row.getPerceptualHash());
+                lastId = row.getId();
+            }
+        } while (batch.size() == LOAD_BATCH_SIZE);
+        ready = true;
+        logger.info("Indice dei duplicati caricato: {} immagini in {} ms", index.size(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    private void hashPending() {
+        long lastId = 0L;
+        int processed = 0;
+        List<Image> batch;
+        do {
+            batch = imageRepository.findPendingPerceptualHash(lastId, Image.MetadataStatus.PENDING, Limit.of(batchSize));
+            if (batch.isEmpty()) {
+                break;
+            }
+            lastId = batch.get(batch.size() - 1).getId();
+            // Lo stream parallelo lanciato da un task del pool usa i thread di quel pool, non il pool comune
+            List<Image> images = batch;
+            List<Computed> computed = pool.submit(() -> images.parallelStream().map(this::compute).toList()).join();
+            save(computed);
+            processed += computed.size();
+        } while (batch.size() == batchSize);
+
+        if (processed > 0) {
+            logger.info("Hash percettivo calcolato per {} immagini", processed);
+        }
+    }
+
+    private Computed compute(Image image) {
+        String folderName = image.getFolder().getName();
+        try {
+            StorageBackend.ObjectInfo info = storage.stat(folderName, image.getName());
+            if (info == null) {
+                return new Computed(image, null); // Eliminata: la riga verrà rimossa dalla riconciliazione
+            }
+            long hash = dHash(storage.resource(folderName, image.getName(), info));
+            hashed.incrementAndGet();
+            return new Computed(image, hash);
+        } catch (IOException | RuntimeException e) {
+            failed.incrementAndGet();
+            logger.debug("Hash percettivo non calcolato per {}/{}: {}", folderName, image.getName(), e.getMessage());
+            return new Computed(image, null);
+        }
+    }
+
+    // Salva gli hash e aggiorna l'indice. Le righe il cui file è cambiato durante il calcolo vengono saltate:
+    // il cambio ha già azzerato lo stato e il prossimo giro le riprende
+    private void save(List<Computed> computed) {
+        Map<Long, Computed> byId = new HashMap<>();
+        for (Computed result : computed) {
+            byId.put(result.image().getId(), result);
+        }
+        List<Computed> saved = new ArrayList<>();
+        transaction.executeWithoutResult(status -> {
+            for (Image image : imageRepository.findAllById(byId.keySet())) {
+                Computed result = byId.get(image.getId());
+                if (!Objects.equals(image.getSize(), result.image().getSize())
+                        || !Objects.equals(image.getLastModified(), result.image().getLastModified())) {
+                    continue;
+                }
+                image.setPerceptualHash(result.hash());
+                image.setPerceptualHashStatus(result.hash() != null ? Image.MetadataStatus.DONE : Image.MetadataStatus.FAILED);
+                saved.add(result);
+            }
+        });
+        for (Computed result : saved) {
+            if (result.hash() != null) {
+                index.put(result.image().getId(), result.image().getFolder().getId(), result.hash());
+            } else {
+                index.remove(result.image().getId());
+            }
+        }
+    }
+
+    // Immagini simili a folderName/imageName in tutte le cartelle, dalla più vicina.
+    // Vuoto se la cartella o l'immagine non esistono
+    public Optional<NearDuplicates> findNear(String folderName, String imageName, int distance) {
+        Optional<Folder> folder = folderService.getFolderByName(folderName);
+        if (folder.isEmpty()) {
+            return Optional.empty();
+        }
+        List<Image> rows = imageRepository.findByFolderIdAndNameIn(folder.get().getId(), List.of(imageName));
+        if (rows.isEmpty()) {
+            return Optional.empty();
+        }
+        Image image = rows.get(0);
+        Long hash = image.getPerceptualHash();
+        if (hash == null) {
+            return Optional.of(new NearDuplicates(folderName, imageName, false, List.of()));
+        }
+
+        List<HashIndex.Match> matches = index.near(hash, distance, -1);
+        Map<Long, ImageRef> refs = verify(matches.stream()
+                .map(HashIndex.Match::id)
+                .filter(id -> !id.equals(image.getId()))
+                .limit(MAX_RESULTS)
+                .toList());
+
+        List<Duplicate> duplicates = new ArrayList<>();
+        for (HashIndex.Match match : matches) {
+            ImageRef ref = refs.get(match.id());
+            if (ref != null) {
+                int actual = Long.bitCount(hash ^ ref.getPerceptualHash()); // Hash corretto dalla verifica se era cambiato
+                if (actual <= distance) {
+                    duplicates.add(new Duplicate(ref.getFolderName(), ref.getName(), actual));
+                }
+            }
+        }
+        duplicates.sort((a, b) -> Integer.compare(a.distance(), b.distance()));
+        return Optional.of(new NearDuplicates(folderName, imageName, true, duplicates));
+    }
+
+    // Gruppi di immagini simili nella cartella, dal più numeroso. Vuoto se la cartella non esiste
+    public Optional<List<DuplicateCluster>> findClusters(String folderName, int distance) {
+        Optional<Folder> folder = folderService.getFolderByName(folderName);
+        if (folder.isEmpty()) {
+            return Optional.empty();
+        }
+        long folderId = folder.get().getId();
+        List<long[]> clusters = index.clusters(folderId, distance);
+        List<Long> ids = ids(clusters);
+        Map<Long, ImageRef> refs = verify(ids);
+        if (refs.size() < ids.size()) {
+            // Voci non valide corrette da verify: possono aver unito due gruppi, quindi i gruppi vengono ricalcolati
+            clusters = index.clusters(folderId, distance);
+            refs = verify(ids(clusters));
+        }
+
+        List<DuplicateCluster> result = new ArrayList<>(clusters.size());
+        for (long[] cluster : clusters) {
+            List<String> names = new ArrayList<>(cluster.length);
+            for (long id : cluster) {
+                ImageRef ref = refs.get(id);
+                if (ref != null && ref.getFolderId() == folderId) {
+                    names.add(ref.getName());
+                }
+            }
+            if (names.size() > 1) {
+                names.sort(null);
+                result.add(new DuplicateCluster(names));
+            }
+        }
+        return Optional.of(result);
+    }
+
+    // Legge dal database le immagini restituite dall'indice. Le voci senza riga o senza hash vengono rimosse
+    // dall'indice, quelle con un hash o una cartella diversi aggiornate; il risultato contiene le sole righe valide
+    private Map<Long, ImageRef> verify(List<Long> ids) {
+        Map<Long, ImageRef> refs = new HashMap<>();
+        for (int offset = 0; offset < ids.size(); offset += LOAD_BATCH_SIZE) {
+            for (ImageRef ref : imageRepository.findRefsByIdIn(ids.subList(offset, Math.min(ids.size(), offset + LOAD_BATCH_SIZE)))) {
+                if (ref.getPerceptualHash() != null) {
+                    refs.put(ref.getId(), ref);
+                }
+            }
+        }
+        for (Long id : ids) {
+            ImageRef ref = refs.get(id);
+            if (ref == null) {
+                index.remove(id);
+            } else {
+                index.put(id, ref.getFolderId(), ref.getPerceptualHash()); // Nessuna modifica se l'hash è quello indicizzato
+            }
+        }
+        return refs;
+    }
+
+    private static List<Long> ids(List<long[]> clusters) {
+        List<Long> ids = new ArrayList<>();
+        for (long[] cluster : clusters) {
+            for (long id : cluster) {
+                ids.add(id);
+            }
+        }
+        return ids;
+    }
+
+    // Decodifica l'immagine leggendo solo una riga e una colonna ogni step: per una foto da 24 megapixel
+    // i pixel decodificati sono qualche decina di migliaia
+    private long dHash(Resource source) throws IOException {
+        InputStream stream = source.isFile() ? null : source.getInputStream();
+        try (ImageInputStream input = ImageIO.createImageInputStream(stream != null ? stream : source.getFile())) {
+            Iterator<ImageReader> readers = input != null ? ImageIO.getImageReaders(input) : null;
+            if (readers == null || !readers.hasNext()) {
+                throw new IOException("Formato non supportato");
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                int step = Math.max(1, Math.min(reader.getWidth(0), reader.getHeight(0)) / SAMPLE_SIZE);
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(step, step, 0, 0);
+                return dHash(reader.read(0, param));
+            } finally {
+                reader.dispose();
+            }
+        } finally {
+            if (stream != null) {
+                stream.close();
+            }
+        }
+    }
+
+    // dHash: luminosità media di una griglia 9x8 e un bit per ogni coppia di celle vicine sulla stessa riga
+    // (1 se la cella di sinistra è più chiara). Non cambia con ridimensionamento, compressione e piccoli ritocchi.
+    // L'orientamento EXIF non viene applicato: la stessa foto ruotata ha un hash diverso
+    static long dHash(BufferedImage image) throws IOException {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        if (width < GRID_COLUMNS || height < GRID_ROWS) {
+            throw new IOException("Immagine troppo piccola");
+        }
+        long[] sums = new long[GRID_ROWS * GRID_COLUMNS];
+        long[] counts = new long[GRID_ROWS * GRID_COLUMNS];
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            int cellRow = y * GRID_ROWS / height * GRID_COLUMNS;
+            for (int x = 0; x < width; x++) {
+                int rgb = row[x];
+                int luminance = 299 * ((rgb >> 16) & 0xFF) + 587 * ((rgb >> 8) & 0xFF) + 114 * (rgb & 0xFF);
+                int cell = cellRow + x * GRID_COLUMNS / width;
+                sums[cell] += luminance;
+                counts[cell]++;
+            }
+        }
+        long hash = 0L;
+        for (int r = 0; r < GRID_ROWS; r++) {
+            for (int c = 0; c < GRID_COLUMNS - 1; c++) {
+                int cell = r * GRID_COLUMNS + c;
+                // Confronto tra medie senza divisioni: a/n > b/m equivale a a*m > b*n
+                boolean brighter = sums[cell] * counts[cell + 1] > sums[cell + 1] * counts[cell];
+                hash = (hash << 1) | (brighter ? 1 : 0);
+            }
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,279 @@
+package com.photoandvision.folder_sharing_pp.service;
+
+import com.photoandvision.folder_sharing_pp.config.WorkerPoolFactory;
+import com.photoandvision.folder_sharing_pp.entity.FolderGrant;
+import com.photoandvision.folder_sharing_pp.event.FolderChangeEvent;
+import com.photoandvision.folder_sharing_pp.security.AuthenticatedUser;
+import com.photoandvision.folder_sharing_pp.security.FolderAccess;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Flusso Server-Sent Events delle modifiche alle cartelle, al posto del polling degli elenchi.
+// Le connessioni inattive non occupano thread (richieste asincrone): ogni iscritto ha una coda limitata di eventi
+// che un pool di dispatcher scrive nella risposta, un task alla volta per iscritto. Se il client non legge abbastanza
+// in fretta gli eventi più vecchi vengono scartati e il client riceve un evento "overflow": deve rileggere l'elenco
+@Service
+public class FolderChangeFeed {
+
+    private static final Logger logger = LoggerFactory.getLogger(FolderChangeFeed.class);
+    private static final String OVERFLOW_EVENT = "overflow";
+
+    // Un evento SSE già serializzato: build() modifica il builder, quindi ogni evento viene costruito una volta
+    // e lo stesso messaggio viene scritto a tutti gli iscritti
+    private record Message(Set<ResponseBodyEmitter.DataWithMediaType> parts) {
+
+        static Message of(SseEmitter.SseEventBuilder builder) {
+            return new Message(builder.build());
+        }
+    }
+
+    private static final Message PING = Message.of(SseEmitter.event().comment("ping"));
+
+    // Statistiche del flusso
+    public record Stats(int subscribers, long delivered, long dropped, long rejected) {
+    }
+
+    private final FolderAccess folderAccess;
+    private final ExecutorService dispatcher;
+    private final int maxSubscribers;
+    private final int bufferSize; // Eventi in attesa per iscritto
+    private final long timeoutMillis; // Durata massima di una connessione: EventSource si ricollega da solo
+
+    private final Set<Subscriber> rootSubscribers = ConcurrentHashMap.newKeySet(); // Creazione ed eliminazione delle cartelle
+    private final ConcurrentHashMap<String, Set<Subscriber>> folderSubscribers = new ConcurrentHashMap<>();
+    private final AtomicInteger subscribers = new AtomicInteger();
+    private final AtomicLong eventIds = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong(); // Iscrizioni rifiutate oltre max-subscribers
+
+    public FolderChangeFeed(FolderAccess folderAccess,
+                            WorkerPoolFactory workerPoolFactory,
+                            @Value("${change-feed.dispatch-workers:4}") int dispatchWorkers,
+                            @Value("${change-feed.max-subscribers:10000}") int maxSubscribers,
+                            @Value("${change-feed.buffer-size:64}") int bufferSize,
+                            @Value("${change-feed.timeout-minutes:30}") long timeoutMinutes) {
+        this.folderAccess = folderAccess;
+        // Al massimo un task per iscritto: la coda del pool non può superare il numero di iscritti
+        this.dispatcher = workerPoolFactory.newBoundedPool("change-feed", dispatchWorkers, maxSubscribers);
+        this.maxSubscribers = maxSubscribers;
+        this.bufferSize = bufferSize;
+        this.timeoutMillis = TimeUnit.MINUTES.toMillis(timeoutMinutes);
+    }
+
+    // Iscrive il client alle modifiche di una cartella (folderName) o all'elenco delle cartelle (folderName null).
+    // Restituisce null se è stato raggiunto il numero massimo di iscritti
+    public SseEmitter subscribe(String folderName, AuthenticatedUser user) {
+        if (subscribers.incrementAndGet() > maxSubscribers) {
+            subscribers.decrementAndGet();
+            rejected.incrementAndGet();
+            return null;
+        }
+        SseEmitter emitter = new SseEmitter(timeoutMillis);
+        Subscriber subscriber = new Subscriber(emitter, folderName, user);
+        if (folderName == null) {
+            rootSubscribers.add(subscriber);
+        } else {
+            // Dentro compute: remove() elimina l'insieme vuoto con computeIfPresent, senza perdere iscritti
+            folderSubscribers.compute(folderName, (key, set) -> {
+                Set<Subscriber> target = set != null ? set : ConcurrentHashMap.newKeySet();
+                target.add(subscriber);
+                return target;
+            });
+        }
+        emitter.onCompletion(subscriber::remove);
+        emitter.onError(error -> subscriber.remove());
+        emitter.onTimeout(emitter::complete); // Chiusura normale: senza complete() la risposta sarebbe un 503
+        // Primo evento: conferma l'iscrizione e indica da quale id partono gli eventi
+        subscriber.offer(Message.of(SseEmitter.event().name("ready").id(Long.toString(eventIds.get())).data("")));
+        return emitter;
+    }
+
+    public Stats stats() {
+        return new Stats(subscribers.get(), delivered.get(), dropped.get(), rejected.get());
+    }
+
+    // Pubblicati dai controller, dall'upload, dall'eliminazione delle cartelle e dalla riconciliazione
+    @EventListener
+    public void onFolderChange(FolderChangeEvent event) {
+        if (subscribers.get() == 0) {
+            return;
+        }
+        Message message = Message.of(SseEmitter.event()
+                .id(Long.toString(eventIds.incrementAndGet()))
+                .data(event, MediaType.APPLICATION_JSON));
+        boolean deleted = event.type() == FolderChangeEvent.Type.FOLDER_DELETED;
+
+        if (event.imageName() == null) {
+            // L'elenco delle cartelle mostra a ogni utente solo quelle che può leggere. L'eliminazione va a tutti:
+            // quando l'evento arriva i permessi della cartella sono già stati cancellati, e il client ignora
+            // il nome di una cartella che non ha in elenco
+            for (Subscriber subscriber : rootSubscribers) {
+                if (deleted || folderAccess.canAccess(subscriber.user, event.folderName(), FolderGrant.Permission.READ)) {
+                    subscriber.offer(message);
+                }
+            }
+        }
+        Set<Subscriber> set = folderSubscribers.get(event.folderName());
+        if (set != null) {
+            for (Subscriber subscriber : set) {
+                subscriber.offer(message);
+                if (deleted) {
+                    subscriber.completeAfterDrain(); // La cartella non esiste più: il flusso termina
+                }
+            }
+        }
+    }
+
+    // Commento SSE periodico agli iscritti senza eventi in coda: tiene aperte le connessioni attraverso i proxy
+    // e fa emergere quelle chiuse dal client
+    @Scheduled(fixedDelayString = "${change-feed.heartbeat-ms:25000}")
+    public void heartbeat() {
+        for (Subscriber subscriber : rootSubscribers) {
+            subscriber.offerIfIdle(PING);
+        }
+        for (Set<Subscriber> set : folderSubscribers.values()) {
+            for (Subscriber subscriber : set) {
+                subscriber.offerIfIdle(PING);
+            }
+        }
+    }
+
+    private final class Subscriber {
+
+        final SseEmitter emitter;
+        final String folderName;
+        final AuthenticatedUser user; // Letto all'iscrizione: gli eventi vengono filtrati fuori dal thread della richiesta
+
+        // Protetti dal lock su this
+        private final ArrayDeque<Message> queue = new ArrayDeque<>();
+        private int droppedSinceLastSend;
+        private boolean completing;
+
+        private final AtomicBoolean scheduled = new AtomicBoolean(); // Un solo task di scrittura alla volta
+        private final AtomicBoolean removed = new AtomicBoolean();
+
+        Subscriber(SseEmitter emitter, String folderName, AuthenticatedUser user) {
+            this.emitter = emitter;
+            this.folderName = folderName;
+            this.user = user;
+        }
+
+        // Accoda l'evento senza bloccare chi pubblica; con la coda piena scarta il più vecchio
+        void offer(Message event) {
+            synchronized (this) {
+                if (completing || removed.get()) {
+                    return;
+                }
+                if (queue.size() >= bufferSize) {
+                    queue.pollFirst();
+                    droppedSinceLastSend++;
+                    dropped.incrementAndGet();
+                }
+                queue.addLast(event);
+            }
+            schedule();
+        }
+
+        void offerIfIdle(Message event) {
+            synchronized (this) {
+                if (!queue.isEmpty()) {
+                    return;
+                }
+            }
+            offer(event);
+        }
+
+        void completeAfterDrain() {
+            synchronized (this) {
+                completing = true;
+            }
+            schedule();
+        }
+
+        private void schedule() {
+            if (!scheduled.compareAndSet(false, true)) {
+                return; // Il task in corso leggerà anche il nuovo evento
+            }
+            try {
+                dispatcher.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                scheduled.set(false); // Gli eventi restano in coda fino al prossimo evento o heartbeat
+            }
+        }
+
+        private void drain() {
+            while (true) {
+                List<Message> batch;
+                int lost;
+                boolean complete;
+                synchronized (this) {
+                    if (queue.isEmpty() && droppedSinceLastSend == 0 && !completing) {
+                        scheduled.set(false);
+                        return;
+                    }
+                    batch = new ArrayList<>(queue);
+                    queue.clear();
+                    lost = droppedSinceLastSend;
+                    droppedSinceLastSend = 0;
+                    complete = completing;
+                }
+                try {
+                    if (lost > 0) {
+                        emitter.send(SseEmitter.event().name(OVERFLOW_EVENT).data(lost));
+                    }
+                    for (Message event : batch) {
+                        emitter.send(event.parts());
+                    }
+                    delivered.addAndGet(batch.size());
+                    if (complete) {
+                        emitter.complete();
+                        remove();
+                        return;
+                    }
+                } catch (IOException | IllegalStateException e) {
+                    // Client disconnesso o risposta già completata: il container chiude la richiesta asincrona.
+                    // scheduled resta true, quindi non partono altri task per questo iscritto
+                    logger.debug("Iscritto al flusso {} disconnesso: {}", folderName != null ? folderName : "cartelle", e.getMessage());
+                    remove();
+                    return;
+                }
+            }
+        }
+
+        void remove() {
+            if (!removed.compareAndSet(false, true)) {
+                return;
+            }
+            subscribers.decrementAndGet();
+            if (folderName == null) {
+                rootSubscribers.remove(this);
+            } else {
+                folderSubscribers.computeIfPresent(folderName, (key, set) -> {
+                    set.remove(this);
+                    return set.isEmpty() ? null : set;
+                });
+            }
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package com.photoandvision.folder_sharing_pp.service;
+
+import com.photoandvision.folder_sharing_pp.config.WorkerPoolFactory;
+import com.photoandvision.folder_sharing_pp.entity.Folder;
+import com.photoandvision.folder_sharing_pp.event.FolderChangeEvent;
+import com.photoandvision.folder_sharing_pp.repo.FolderGrantRepository;
+import com.photoandvision.folder_sharing_pp.repo.FolderRepository;
+import com.photoandvision.folder_sharing_pp.repo.ImageFile;
+import com.photoandvision.folder_sharing_pp.repo.ImageRepository;
+import com.photoandvision.folder_sharing_pp.storage.StorageBackend;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Servizio che elimina le cartelle in background: ogni cartella è un task sul pool dedicato,
+// i file vengono rimossi dall'archivio uno alla volta e le righe delle immagini a blocchi
+@Service
+public class FolderDeletionService {
+
+    private static final Logger logger = LoggerFactory.getLogger(FolderDeletionService.class);
+    private static final int ROW_BATCH_SIZE = 500; // Righe eliminate per istruzione
+    private static final int MAX_REPORTED_ERRORS = 1000; // Errori riportati per job, oltre vengono solo contati
+
+    public enum JobState { RUNNING, COMPLETED, COMPLETED_WITH_ERRORS }
+
+    public enum FolderState { PENDING, DELETED, PARTIAL, NOT_FOUND }
+
+    // Errore sull'eliminazione di un singolo file o directory
+    public record FileError(String path, String message) {
+    }
+
+    // Avanzamento di una cartella
+    public record FolderStatus(String name, FolderState state, long filesDeleted, long errors) {
+    }
+
+    // Stato di un job restituito al client
+    public record JobStatus(String id, JobState state, int foldersTotal, int foldersDone, long filesDeleted,
+                            long rowsDeleted, long errorCount, List<FolderStatus> folders, List<FileError> errors) {
+    }
+
+    private static final class FolderProgress {
+        final String name;
+        volatile FolderState state = FolderState.PENDING;
+        final AtomicLong filesDeleted = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+
+        FolderProgress(String name) {
+            this.name = name;
+        }
+    }
+
+    private static final class Job {
+        final String id = UUID.randomUUID().toString();
+        final List<FolderProgress> folders = new ArrayList<>();
+        final AtomicInteger foldersDone = new AtomicInteger();
+        final AtomicLong filesDeleted = new AtomicLong();
+        final AtomicLong rowsDeleted = new AtomicLong();
+        final AtomicLong errorCount = new AtomicLong();
+        final Queue<FileError> errors = new ConcurrentLinkedQueue<>();
+        volatile long finishedAt; // 0 finché il job è in corso
+
+        void recordError(FolderProgress folder, String path, IOException e) {
+            folder.errors.incrementAndGet();
+            if (errorCount.incrementAndGet() <= MAX_REPORTED_ERRORS) {
+                errors.add(new FileError(path, e.toString()));
+            }
+        }
+
+        void folderDone() {
+            if (foldersDone.incrementAndGet() == folders.size()) {
+                finishedAt = System.currentTimeMillis();
+            }
+        }
+    }
+
+    private final ImageRepository imageRepository;
+    private final FolderRepository folderRepository;
+    private final FolderGrantRepository grantRepository;
+    private final ApplicationEventPublisher eventPublisher;
+    private final TransactionTemplate transaction;
+    private final ExecutorService executor; // Pool limitato: una cartella per task
+    private final MeterRegistry registry;
+    private final StorageBackend storage;
+    private final long retentionMillis; // Tempo per cui lo stato di un job concluso resta consultabile
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+
+    public FolderDeletionService(ImageRepository imageRepository,
+                                 FolderRepository folderRepository,
+                                 FolderGrantRepository grantRepository,
+                                 ApplicationEventPublisher eventPublisher,
+                                 PlatformTransactionManager transactionManager,
+                                 WorkerPoolFactory workerPoolFactory,
+                                 MeterRegistry registry,
+                                 StorageBackend storage,
+                                 @Value("${folder-delete.workers:2}") int workers,
+                                 @Value("${folder-delete.queue-capacity:1024}") int queueCapacity,
+                                 @Value("${folder-delete.retention-minutes:60}") long retentionMinutes) {
+        this.imageRepository = imageRepository;
+        this.folderRepository = folderRepository;
+        this.grantRepository = grantRepository;
+        this.eventPublisher = eventPublisher;
+        this.transaction = new TransactionTemplate(transactionManager);
+        this.executor = workerPoolFactory.newBoundedPool("folder-delete", workers, queueCapacity);
+        this.registry = registry;
+        this.storage = storage;
+        this.retentionMillis = retentionMinutes * 60_000;
+    }
+
+    // Avvia l'eliminazione delle cartelle e restituisce subito lo stato del job
+    public JobStatus submit(List<String> folderNames) {
+        Job job = new Job();
+        for (String folderName : folderNames) {
+            job.folders.add(new FolderProgress(folderName));
+        }
+        jobs.put(job.id, job);
+
+        for (FolderProgress folder : job.folders) {
+            try {
+                executor.execute(() -> deleteFolder(job, folder));
+            } catch (RejectedExecutionException e) {
+                // Coda piena: la cartella non viene toccata e viene segnalata nel job
+                folder.state = FolderState.PARTIAL;
+                job.recordError(folder, folder.name, new IOException("Server busy, retry later."));
+                job.folderDone();
+            }
+        }
+        logger.info("Job di eliminazione {} avviato per {} cartelle", job.id, folderNames.size());
+        return status(job);
+    }
+
+    public Optional<JobStatus> getStatus(String id) {
+        Job job = jobs.get(id);
+        return job != null ? Optional.of(status(job)) : Optional.empty();
+    }
+
+    // Rimuove lo stato dei job conclusi da più del periodo di conservazione
+    @Scheduled(fixedDelayString = "${folder-delete.gc-interval-ms:60000}")
+    public void removeFinishedJobs() {
+        long now = System.currentTimeMillis();
+        jobs.values().removeIf(job -> job.finishedAt != 0 && now - job.finishedAt > retentionMillis);
+    }
+
+    private void deleteFolder(Job job, FolderProgress folder) {
+        long start = System.nanoTime();
+        try {
+            if (!StorageBackend.isValidName(folder.name) || !storage.folderExists(folder.name)) {
+                folder.state = FolderState.NOT_FOUND;
+                return;
+            }
+
+            Optional<Folder> folderRow = folderRepository.findByName(folder.name);
+            List<String> deletedNames = new ArrayList<>(ROW_BATCH_SIZE);
+
+            storage.list(folder.name, info -> {
+                try {
+                    if (storage.delete(folder.name, info.name())) {
+                        folder.filesDeleted.incrementAndGet();
+                        job.filesDeleted.incrementAndGet();
+                        if (folderRow.isPresent()) {
+                            deletedNames.add(info.name());
+                            if (deletedNames.size() == ROW_BATCH_SIZE) {
+                                deleteRows(job, folderRow.get(), deletedNames);
+                            }
+                        }
+                    }
+                } catch (IOException e) {
+                    job.recordError(folder, folder.name + "/" + info.name(), e);
+                }
+            });
+
+            if (folderRow.isPresent()) {
+                deleteRows(job, folderRow.get(), deletedNames);
+            }
+
+            try {
+                storage.deleteFolder(folder.name); // Rimuove la cartella e gli eventuali file nascosti rimasti
+            } catch (IOException e) {
+                job.recordError(folder, folder.name, e); // Di solito perché un file al suo interno non è stato eliminato
+            }
+
+            boolean removed = !storage.folderExists(folder.name);
+            if (removed && folderRow.isPresent()) {
+                deleteRemainingRows(job, folderRow.get()); // Righe di file già assenti dall'archivio: bloccherebbero la chiave esterna
+                transaction.executeWithoutResult(status -> {
+                    grantRepository.deleteByFolderId(folderRow.get().getId()); // I permessi non passano a una cartella ricreata con lo stesso nome
+                    folderRepository.deleteById(folderRow.get().getId());
+                });
+            }
+            folder.state = removed ? FolderState.DELETED : FolderState.PARTIAL;
+        } catch (IOException | RuntimeException e) {
+            folder.state = FolderState.PARTIAL;
+            job.recordError(folder, folder.name, e instanceof IOException ? (IOException) e : new IOException(e));
+            logger.error("Errore nell'eliminazione della cartella {}: {}", folder.name, e.getMessage());
+        } finally {
+            if (folder.state != FolderState.NOT_FOUND) {
+                eventPublisher.publishEvent(FolderChangeEvent.folder(FolderChangeEvent.Type.FOLDER_DELETED, folder.name));
+            }
+            Timer.builder("folder.delete").tag("state", folder.state.name()).register(registry)
+                    .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            registry.counter("folder.delete.files").increment(folder.filesDeleted.get());
+            job.folderDone();
+        }
+    }
+
+    // Elimina con una sola istruzione le righe delle immagini i cui file sono stati rimossi
+    private void deleteRows(Job job, Folder folder, List<String> names) {
+        if (names.isEmpty()) {
+            return;
+        }
+        Integer deleted = transaction.execute(status -> imageRepository.deleteByFolderIdAndNameIn(folder.getId(), names));
+        job.rowsDeleted.addAndGet(deleted != null ? deleted : 0);
+        names.clear();
+    }
+
+    // Elimina a blocchi le righe della cartella rimaste dopo la cancellazione dei file
+    private void deleteRemainingRows(Job job, Folder folder) {
+        List<Long> ids = new ArrayList<>();
+        for (ImageFile row : imageRepository.findFilesByFolderId(folder.getId())) {
+            ids.add(row.getId());
+        }
+        for (int offset = 0; offset < ids.size(); offset += ROW_BATCH_SIZE) {
+            List<Long> batch = ids.subList(offset, Math.min(ids.size(), offset + ROW_BATCH_SIZE));
+            Integer deleted = transaction.execute(status -> imageRepository.deleteByIdIn(batch));
+            job.rowsDeleted.addAndGet(deleted != null ? deleted : 0);
+        }
+    }
+
+    private JobStatus status(Job job) {
+        List<FolderStatus> folders = new ArrayList<>(job.folders.size());
+        for (FolderProgress folder : job.folders) {
+            folders.add(new FolderStatus(folder.name, folder.state, folder.filesDeleted.get(), folder.errors.get()));
+        }
+        JobState state = job.finishedAt == 0 ? JobState.RUNNING
+                : job.errorCount.get() == 0 ? JobState.COMPLETED : JobState.COMPLETED_WITH_ERRORS;
+        return new JobStatus(job.id, state, job.folders.size(), job.foldersDone.get(), job.filesDeleted.get(),
+                job.rowsDeleted.get(), job.errorCount.get(), folders, List.copyOf(job.errors));
+    }
+}
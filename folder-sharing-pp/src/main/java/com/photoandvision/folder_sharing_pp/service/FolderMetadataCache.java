@@ -0,0 +1,254 @@
+package com.photoandvision.folder_sharing_pp.service;
+
+import com.photoandvision.folder_sharing_pp.event.FolderChangeEvent;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Cache in memoria del contenuto delle cartelle (nome, dimensione, data di modifica, tipo MIME).
+// Resta coerente con il disco tramite un WatchService e tramite gli eventi pubblicati dall'applicazione
+// quando crea, carica o elimina file. La chiave ROOT identifica l'elenco delle cartelle
+@Service
+public class FolderMetadataCache {
+
+    public static final String ROOT = ""; // Chiave dell'elenco delle cartelle nella directory base
+
+    private static final Logger logger = LoggerFactory.getLogger(FolderMetadataCache.class);
+
+    // Carica il contenuto di una directory quando non è in cache
+    @FunctionalInterface
+    public interface Loader {
+        List<DirectoryListingService.FileEntry> load() throws IOException;
+    }
+
+    // Statistiche di utilizzo della cache
+    public record Stats(long hits, long misses, long evictions, long invalidations, int size, long entries) {
+    }
+
+    private record Snapshot(List<DirectoryListingService.FileEntry> entries, long loadedAt) {
+    }
+
+    private final long maxEntries; // Numero massimo di file in cache, sommati su tutte le cartelle
+    private final long maxAgeMillis; // Età massima di una voce, come rete di sicurezza se il WatchService perde eventi
+
+    // Voci in ordine di accesso (LRU), protette dal lock su snapshots insieme a totalEntries e alle chiavi del WatchService
+    private final LinkedHashMap<String, Snapshot> snapshots = new LinkedHashMap<>(64, 0.75f, true);
+    private long totalEntries;
+
+    // Caricamenti in corso per cartella: l'invalidazione della cartella rimuove il token e il caricamento,
+    // che ha letto una versione ormai superata, non viene salvato. Le altre cartelle non ne risentono
+    private final ConcurrentHashMap<String, Object> loads = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    private final WatchService watchService; // null se il filesystem non supporta le notifiche
+    private final Map<WatchKey, String> foldersByKey = new ConcurrentHashMap<>();
+    private final Map<String, WatchKey> keysByFolder = new ConcurrentHashMap<>();
+    private final Thread watcher;
+
+    public FolderMetadataCache(@Value("${folder-cache.max-entries:200000}") long maxEntries,
+                               @Value("${folder-cache.max-age-seconds:300}") long maxAgeSeconds,
+                               @Value("${folder-cache.watch:true}") boolean watch) throws IOException {
+        this.maxEntries = maxEntries;
+        this.maxAgeMillis = maxAgeSeconds * 1000;
+        this.watchService = watch ? FileSystems.getDefault().newWatchService() : null;
+        if (watchService != null) {
+            this.watcher = new Thread(this::watchLoop, "folder-cache-watcher");
+            this.watcher.setDaemon(true);
+            this.watcher.start();
+        } else {
+            this.watcher = null;
+        }
+    }
+
+    // Restituisce il contenuto in cache della cartella, caricandolo con il loader in caso di miss.
+    // dir è la directory da osservare per le modifiche esterne, null se l'archivio non ne ha una (vale solo la scadenza per età)
+    public List<DirectoryListingService.FileEntry> get(String folderName, Path dir, Loader loader) throws IOException {
+        List<DirectoryListingService.FileEntry> cached = getIfPresent(folderName);
+        if (cached != null) {
+            return cached;
+        }
+
+        Object token = new Object();
+        loads.put(folderName, token); // Un caricamento concorrente della stessa cartella sostituisce il token: salva solo l'ultimo
+        WatchKey key = watch(folderName, dir); // Registrato prima della lettura, così nessuna modifica va persa
+        List<DirectoryListingService.FileEntry> entries;
+        try {
+            entries = List.copyOf(loader.load());
+        } catch (IOException | RuntimeException e) {
+            loads.remove(folderName, token);
+            throw e;
+        }
+
+        synchronized (snapshots) {
+            // Una chiave cancellata nel frattempo (cartella invalidata) potrebbe aver perso modifiche: il risultato non viene salvato
+            if (loads.remove(folderName, token) && (key == null || (key.isValid() && keysByFolder.get(folderName) == key))) {
+                drop(folderName, snapshots.put(folderName, new Snapshot(entries, System.currentTimeMillis())), false);
+                totalEntries += entries.size();
+                evictIfNeeded();
+            }
+        }
+        return entries;
+    }
+
+    // Restituisce il contenuto in cache della cartella, oppure null senza caricarlo
+    public List<DirectoryListingService.FileEntry> getIfPresent(String folderName) {
+        synchronized (snapshots) {
+            Snapshot snapshot = snapshots.get(folderName);
+            if (snapshot != null && System.currentTimeMillis() - snapshot.loadedAt() < maxAgeMillis) {
+                hits.incrementAndGet();
+                return snapshot.entries();
+            }
+            if (snapshot != null) {
+                drop(folderName, snapshots.remove(folderName), true); // Scaduta
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    public void invalidate(String folderName) {
+        loads.remove(folderName);
+        synchronized (snapshots) {
+            if (drop(folderName, snapshots.remove(folderName), true)) {
+                invalidations.incrementAndGet();
+            }
+        }
+    }
+
+    public void invalidateAll() {
+        loads.clear();
+        synchronized (snapshots) {
+            invalidations.addAndGet(snapshots.size());
+            for (String folderName : List.copyOf(snapshots.keySet())) {
+                drop(folderName, snapshots.remove(folderName), true);
+            }
+        }
+    }
+
+    public Stats stats() {
+        synchronized (snapshots) {
+            return new Stats(hits.get(), misses.get(), evictions.get(), invalidations.get(), snapshots.size(), totalEntries);
+        }
+    }
+
+    // Modifiche fatte dall'applicazione: la cartella cambia, e con lei l'elenco delle cartelle (date di modifica)
+    @EventListener
+    public void onFolderChange(FolderChangeEvent event) {
+        invalidate(event.folderName());
+        invalidate(ROOT);
+    }
+
+    // Elimina le voci meno usate finché i file in cache superano il limite. Una cartella che da sola supera il limite
+    // viene eliminata subito dopo il caricamento: non resta in cache (da chiamare con il lock su snapshots)
+    private void evictIfNeeded() {
+        Iterator<Map.Entry<String, Snapshot>> eldest = snapshots.entrySet().iterator();
+        while (totalEntries > maxEntries && eldest.hasNext()) {
+            Map.Entry<String, Snapshot> entry = eldest.next();
+            eldest.remove();
+            drop(entry.getKey(), entry.getValue(), true);
+            evictions.incrementAndGet();
+        }
+    }
+
+    // Da chiamare con il lock su snapshots per ogni voce rimossa o sostituita: aggiorna il conteggio dei file e,
+    // se la cartella esce dalla cache, smette di osservarla. La cancellazione sotto il lock impedisce a get di salvare
+    // un contenuto letto con una chiave ormai cancellata. Restituisce true se c'era una voce
+    private boolean drop(String folderName, Snapshot snapshot, boolean unwatch) {
+        if (snapshot != null) {
+            totalEntries -= snapshot.entries().size();
+        }
+        if (unwatch) {
+            WatchKey key = keysByFolder.remove(folderName);
+            if (key != null) {
+                foldersByKey.remove(key);
+                key.cancel();
+            }
+        }
+        return snapshot != null;
+    }
+
+    // Osserva la directory della cartella e restituisce la chiave, o null se non viene osservata
+    private WatchKey watch(String folderName, Path dir) {
+        if (watchService == null || dir == null) {
+            return null;
+        }
+        WatchKey existing = keysByFolder.get(folderName);
+        if (existing != null) {
+            return existing;
+        }
+        try {
+            WatchKey key = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+            foldersByKey.put(key, folderName);
+            keysByFolder.put(folderName, key);
+            return key;
+        } catch (IOException e) {
+            logger.debug("Impossibile osservare la cartella {}: {}", dir, e.getMessage()); // Resta valida la scadenza per età
+            return null;
+        }
+    }
+
+    // Thread che riceve le notifiche del filesystem e invalida le cartelle modificate dall'esterno
+    private void watchLoop() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+
+            String folderName = foldersByKey.get(key);
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    invalidateAll(); // Eventi persi: non si può sapere cosa è cambiato
+                    continue;
+                }
+                if (folderName == null) {
+                    continue;
+                }
+                invalidate(folderName);
+                if (ROOT.equals(folderName) && event.context() instanceof Path child) {
+                    invalidate(child.toString()); // Sottocartella creata, rinominata o eliminata
+                }
+            }
+
+            if (!key.reset() && folderName != null) {
+                // La directory non esiste più
+                foldersByKey.remove(key);
+                keysByFolder.remove(folderName, key);
+                invalidate(folderName);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        if (watchService != null) {
+            watchService.close();
+        }
+    }
+}
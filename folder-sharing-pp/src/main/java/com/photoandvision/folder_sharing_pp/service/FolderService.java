@@ -1,19 +1,37 @@
 package com.photoandvision.folder_sharing_pp.service;
 
 import com.photoandvision.folder_sharing_pp.entity.Folder;
+import com.photoandvision.folder_sharing_pp.entity.Image;
 import com.photoandvision.folder_sharing_pp.repo.FolderRepository;
+import com.photoandvision.folder_sharing_pp.repo.ImageRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 @Service
 public class FolderService {
 
+    private static final Logger logger = LoggerFactory.getLogger(FolderService.class);
+    private static final int BACKFILL_BATCH_SIZE = 500;
+
     @Autowired
     private FolderRepository folderRepository;
 
+    @Autowired
+    private ImageRepository imageRepository;
+
     public Folder createFolder(Folder folder) {
         return folderRepository.save(folder);
     }
@@ -26,6 +44,53 @@ public class FolderService {
         return folderRepository.findById(id);
     }
 
+    public Optional<Folder> getFolderByName(String name) {
+        return folderRepository.findByName(name);
+    }
+
+    // Restituisce la cartella con il nome indicato, creandola se non esiste ancora
+    public Folder findOrCreate(String name) {
+        Optional<Folder> existing = folderRepository.findByName(name);
+        if (existing.isPresent()) {
+            return existing.get();
+        }
+        Folder folder = new Folder();
+        folder.setName(name);
+        try {
+            return folderRepository.save(folder);
+        } catch (DataIntegrityViolationException e) {
+            // Un'altra richiesta l'ha creata nel frattempo: l'indice univoco sul nome ha rifiutato il duplicato
+            return folderRepository.findByName(name).orElseThrow(() -> e);
+        }
+    }
+
+    // Collega alla rispettiva cartella le immagini salvate prima che esistesse la colonna folder_id,
+    // ricavando il nome della cartella dalla directory che contiene il file
+    @EventListener(ApplicationReadyEvent.class)
+    public void linkOrphanImages() {
+        Map<String, Folder> folders = new HashMap<>();
+        long lastId = 0L;
+        int linked = 0;
+        List<Image> batch;
+        do {
+            batch = imageRepository.findByFolderIsNullAndIdGreaterThanOrderByIdAsc(lastId, PageRequest.of(0, BACKFILL_BATCH_SIZE));
+            for (Image image : batch) {
+                lastId = image.getId();
+                Path parent = image.getUrl() != null ? Paths.get(image.getUrl()).getParent() : null;
+                if (parent == null || parent.getFileName() == null) {
+                    continue; // Percorso non riconoscibile: l'immagine resta senza cartella
+                }
+                image.setFolder(folders.computeIfAbsent(parent.getFileName().toString(), this::findOrCreate));
+                linked++;
+            }
+            imageRepository.saveAll(batch);
+        } while (batch.size() == BACKFILL_BATCH_SIZE);
+
+        if (linked > 0) {
+            logger.info("Collegate {} immagini esistenti alla rispettiva cartella", linked);
+        }
+    }
+
     public Folder updateFolder(Long id, Folder folderDetails) {
         Folder folder = folderRepository.findById(id).orElseThrow(() -> new RuntimeException("Folder not found"));
         folder.setName(folderDetails.getName());
@@ -0,0 +1,71 @@
+package com.photoandvision.folder_sharing_pp.service;
+
+// Stima approssimata della frequenza di accesso delle chiavi (count-min sketch con contatori a 4 bit).
+// Ogni chiave incrementa un contatore per riga; la stima è il minimo dei contatori, quindi può solo eccedere.
+// Dopo un numero di incrementi pari a 10 volte le voci previste tutti i contatori vengono dimezzati:
+// le immagini popolari in passato perdono peso rispetto a quelle richieste ora. Non thread-safe
+class FrequencySketch {
+
+    private static final int ROWS = 4;
+    private static final int MAX_COUNT = 15;
+    private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+
+    private final byte[][] counters;
+    private final int mask;
+    private final int sampleSize; // Incrementi tra due dimezzamenti
+    private int additions;
+
+    FrequencySketch(int expectedEntries) {
+        int width = Integer.highestOneBit(Math.max(16, expectedEntries) * 2 - 1); // Potenza di due >= expectedEntries
+        this.counters = new byte[ROWS][width];
+        this.mask = width - 1;
+        this.sampleSize = 10 * width;
+    }
+
+    int frequency(Object key) {
+        int hash = spread(key.hashCode());
+        int min = MAX_COUNT;
+        for (int row = 0; row < ROWS; row++) {
+            min = Math.min(min, counters[row][index(hash, row)]);
+        }
+        return min;
+    }
+
+    // Incrementa solo i contatori uguali al minimo (conservative update): riduce la sovrastima delle collisioni
+    void increment(Object key) {
+        int hash = spread(key.hashCode());
+        int min = frequency(key);
+        if (min == MAX_COUNT) {
+            return;
+        }
+        for (int row = 0; row < ROWS; row++) {
+            int i = index(hash, row);
+            if (counters[row][i] == min) {
+                counters[row][i]++;
+            }
+        }
+        if (++additions >= sampleSize) {
+            halve();
+        }
+    }
+
+    private void halve() {
+        for (byte[] row : counters) {
+            for (int i = 0; i < row.length; i++) {
+                row[i] >>= 1;
+            }
+        }
+        additions /= 2;
+    }
+
+    private int index(int hash, int row) {
+        int h = hash * SEEDS[row];
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private static int spread(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x45D9F3B;
+        return hash ^ (hash >>> 16);
+    }
+}
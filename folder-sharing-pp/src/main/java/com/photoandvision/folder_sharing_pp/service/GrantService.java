@@ -0,0 +1,100 @@
+package com.photoandvision.folder_sharing_pp.service;
+
+import com.photoandvision.folder_sharing_pp.entity.Folder;
+import com.photoandvision.folder_sharing_pp.entity.FolderGrant;
+import com.photoandvision.folder_sharing_pp.entity.User;
+import com.photoandvision.folder_sharing_pp.repo.FolderGrantRepository;
+import com.photoandvision.folder_sharing_pp.repo.FolderRepository;
+import com.photoandvision.folder_sharing_pp.repo.GrantedUser;
+import com.photoandvision.folder_sharing_pp.repo.UserRepository;
+import com.photoandvision.folder_sharing_pp.security.PermissionCache;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.List;
+import java.util.NoSuchElementException;
+
+// Gestisce i permessi degli utenti sulle cartelle. Ogni modifica invalida la voce dell'utente nella PermissionCache
+// dopo il commit, così un caricamento concorrente non può rimettere in cache i permessi precedenti
+@Service
+public class GrantService {
+
+    private final FolderGrantRepository grantRepository;
+    private final FolderRepository folderRepository;
+    private final UserRepository userRepository;
+    private final PermissionCache permissionCache;
+
+    public GrantService(FolderGrantRepository grantRepository,
+                        FolderRepository folderRepository,
+                        UserRepository userRepository,
+                        PermissionCache permissionCache) {
+        this.grantRepository = grantRepository;
+        this.folderRepository = folderRepository;
+        this.userRepository = userRepository;
+        this.permissionCache = permissionCache;
+    }
+
+    public List<GrantedUser> list(String folderName) {
+        return grantRepository.findByFolderId(folder(folderName).getId());
+    }
+
+    // Assegna o modifica il permesso dell'utente sulla cartella.
+    // Lancia NoSuchElementException se la cartella o l'utente non esistono
+    @Transactional
+    public void grant(String folderName, String username, FolderGrant.Permission permission) {
+        Folder folder = folder(folderName);
+        User user = userRepository.findByUsername(username);
+        if (user == null) {
+            throw new NoSuchElementException("Utente inesistente: " + username);
+        }
+        save(folder, user, permission);
+    }
+
+    // Chi crea una cartella ne diventa proprietario
+    @Transactional
+    public void grantOwner(Folder folder, long userId) {
+        save(folder, userRepository.getReferenceById(userId), FolderGrant.Permission.OWNER);
+    }
+
+    // Revoca il permesso e restituisce false se l'utente non ne aveva
+    @Transactional
+    public boolean revoke(String folderName, String username) {
+        Folder folder = folder(folderName);
+        User user = userRepository.findByUsername(username);
+        if (user == null) {
+            return false;
+        }
+        return grantRepository.findByUserIdAndFolderId(user.getId(), folder.getId())
+                .map(grant -> {
+                    grantRepository.delete(grant);
+                    invalidateAfterCommit(user.getId());
+                    return true;
+                })
+                .orElse(false);
+    }
+
+    private void save(Folder folder, User user, FolderGrant.Permission permission) {
+        FolderGrant grant = grantRepository.findByUserIdAndFolderId(user.getId(), folder.getId()).orElseGet(FolderGrant::new);
+        grant.setUser(user);
+        grant.setFolder(folder);
+        grant.setPermission(permission);
+        grantRepository.save(grant);
+        invalidateAfterCommit(user.getId());
+    }
+
+    private void invalidateAfterCommit(long userId) {
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                permissionCache.invalidate(userId);
+            }
+        });
+    }
+
+    private Folder folder(String folderName) {
+        return folderRepository.findByName(folderName)
+                .orElseThrow(() -> new NoSuchElementException("Cartella inesistente: " + folderName));
+    }
+}
@@ -0,0 +1,410 @@
+package com.photoandvision.folder_sharing_pp.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Indice in memoria degli hash percettivi a 64 bit, per la ricerca per distanza di Hamming (multi-index hashing).
+// L'hash è diviso in 4 blocchi da 16 bit con una tabella per blocco: se due hash distano al più r bit, almeno un blocco
+// dista al più r/4 bit (principio dei cassetti), quindi basta leggere i bucket dei valori vicini di ogni blocco.
+// Quando i bucket da leggere costano più di un confronto in sequenza (distanze grandi, cartelle piccole) si confrontano le voci.
+// Tutto è in array di primitivi: circa 70 byte per immagine, 70 MB per un milione. Thread-safe
+class HashIndex {
+
+    // Un risultato: id e cartella dell'immagine, distanza di Hamming dall'hash cercato
+    record Match(long id, long folderId, int distance) {
+    }
+
+    static final int MAX_DISTANCE = 15; // Blocchi a distanza 3: 697 bucket per blocco
+    private static final int BLOCKS = 4;
+    private static final int BLOCK_BITS = 16;
+    private static final int BUCKETS = 1 << BLOCK_BITS;
+    private static final long REMOVED = -1L;
+    // Costo di un bucket rispetto al confronto di una voce in sequenza (accesso casuale in memoria e controllo dei
+    // blocchi precedenti), misurato con HashIndexBenchmark: decide quando conviene leggere tutte le voci
+    private static final int PROBE_WEIGHT = 30;
+
+    // Maschere a 16 bit ordinate per numero di bit: le prime MASK_COUNT[t] distano al più t bit
+    private static final int[] MASKS;
+    private static final int[] MASK_COUNT = new int[MAX_DISTANCE / BLOCKS + 1];
+
+    static {
+        List<Integer> masks = new ArrayList<>();
+        for (int t = 0; t < MASK_COUNT.length; t++) {
+            for (int mask = 0; mask < BUCKETS; mask++) {
+                if (Integer.bitCount(mask) == t) {
+                    masks.add(mask);
+                }
+            }
+            MASK_COUNT[t] = masks.size();
+        }
+        MASKS = masks.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // Voce i: id dell'immagine (REMOVED se eliminata), cartella e hash. Protetti dal lock
+    private long[] ids = new long[1024];
+    private long[] folderIds = new long[1024];
+    private long[] codes = new long[1024];
+    private int size; // Voci usate, comprese quelle eliminate
+    private int live;
+    private final int[][] buckets = new int[BLOCKS * BUCKETS][]; // Posizioni delle voci per valore di ogni blocco
+    private final int[] bucketSizes = new int[BLOCKS * BUCKETS];
+    private LongIntMap positions = new LongIntMap(1024); // Id dell'immagine -> posizione
+
+    // Inserisce o aggiorna l'hash di un'immagine
+    void put(long id, long folderId, long code) {
+        lock.writeLock().lock();
+        try {
+            int position = positions.get(id);
+            if (position >= 0) {
+                if (codes[position] == code && folderIds[position] == folderId) {
+                    return;
+                }
+                removeAt(id, position);
+            }
+            add(id, folderId, code);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void remove(long id) {
+        lock.writeLock().lock();
+        try {
+            int position = positions.get(id);
+            if (position >= 0) {
+                removeAt(id, position);
+                if (size > 1024 && live < size / 2) {
+                    compact(); // Le voci eliminate restano nei bucket finché non si ricostruisce l'indice
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    int size() {
+        lock.readLock().lock();
+        try {
+            return live;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Immagini a distanza al più maxDistance dall'hash, ordinate per distanza; folderId < 0 per tutte le cartelle
+    List<Match> near(long code, int maxDistance, long folderId) {
+        lock.readLock().lock();
+        try {
+            List<Match> matches = new ArrayList<>();
+            forEachNear(code, maxDistance, folderId, (position, distance) ->
+                    matches.add(new Match(ids[position], folderIds[position], distance)));
+            matches.sort(Comparator.comparingInt(Match::distance).thenComparingLong(Match::id));
+            return matches;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Gruppi di immagini della cartella collegate da una catena di coppie a distanza al più maxDistance
+    // (union-find); solo i gruppi con almeno due immagini, dal più numeroso. Ogni gruppo è un array di id
+    List<long[]> clusters(long folderId, int maxDistance) {
+        lock.readLock().lock();
+        try {
+            LongIntMap local = new LongIntMap(64); // Posizione nell'indice -> posizione nella cartella
+            List<Integer> members = new ArrayList<>();
+            for (int position = 0; position < size; position++) {
+                if (ids[position] != REMOVED && folderIds[position] == folderId) {
+                    local.put(position, members.size());
+                    members.add(position);
+                }
+            }
+
+            int[] parent = new int[members.size()];
+            for (int i = 0; i < parent.length; i++) {
+                parent[i] = i;
+            }
+            if (probeCost(maxDistance) >= members.size()) {
+                // Cartella piccola rispetto al costo di una ricerca nell'indice, che legge anche le altre cartelle:
+                // confronto diretto delle coppie
+                long[] memberCodes = new long[members.size()];
+                for (int i = 0; i < memberCodes.length; i++) {
+                    memberCodes[i] = codes[members.get(i)];
+                }
+                for (int i = 0; i < memberCodes.length; i++) {
+                    for (int j = i + 1; j < memberCodes.length; j++) {
+                        if (Long.bitCount(memberCodes[i] ^ memberCodes[j]) <= maxDistance) {
+                            union(parent, i, j);
+                        }
+                    }
+                }
+            } else {
+                for (int i = 0; i < members.size(); i++) {
+                    int self = i;
+                    forEachNear(codes[members.get(i)], maxDistance, folderId, (position, distance) -> {
+                        int other = local.get(position);
+                        union(parent, self, other);
+                    });
+                }
+            }
+
+            LongIntMap groupOf = new LongIntMap(16); // Radice -> gruppo
+            List<List<Long>> groups = new ArrayList<>();
+            for (int i = 0; i < members.size(); i++) {
+                int root = find(parent, i);
+                int group = groupOf.get(root);
+                if (group < 0) {
+                    group = groups.size();
+                    groupOf.put(root, group);
+                    groups.add(new ArrayList<>(2));
+                }
+                groups.get(group).add(ids[members.get(i)]);
+            }
+
+            List<long[]> clusters = new ArrayList<>();
+            for (List<Long> group : groups) {
+                if (group.size() > 1) {
+                    long[] cluster = group.stream().mapToLong(Long::longValue).toArray();
+                    Arrays.sort(cluster);
+                    clusters.add(cluster);
+                }
+            }
+            clusters.sort(Comparator.comparingInt((long[] cluster) -> cluster.length).reversed()
+                    .thenComparingLong(cluster -> cluster[0]));
+            return clusters;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @FunctionalInterface
+    private interface PositionConsumer {
+        void accept(int position, int distance);
+    }
+
+    // Passa al consumer ogni voce a distanza al più maxDistance, una sola volta
+    private void forEachNear(long code, int maxDistance, long folderId, PositionConsumer consumer) {
+        if (probeCost(maxDistance) >= size) {
+            scan(code, maxDistance, folderId, consumer); // Distanza grande rispetto al numero di voci
+            return;
+        }
+        int blockDistance = Math.min(maxDistance, MAX_DISTANCE) / BLOCKS;
+        int maskCount = MASK_COUNT[blockDistance];
+        for (int block = 0; block < BLOCKS; block++) {
+            int value = block(code, block);
+            for (int m = 0; m < maskCount; m++) {
+                int bucket = block * BUCKETS + (value ^ MASKS[m]);
+                int[] entries = buckets[bucket];
+                int count = bucketSizes[bucket];
+                for (int e = 0; e < count; e++) {
+                    int position = entries[e];
+                    if (ids[position] == REMOVED || (folderId >= 0 && folderIds[position] != folderId)) {
+                        continue;
+                    }
+                    long other = codes[position];
+                    int distance = Long.bitCount(code ^ other);
+                    if (distance > maxDistance || foundInEarlierBlock(code, other, block, blockDistance)) {
+                        continue;
+                    }
+                    consumer.accept(position, distance);
+                }
+            }
+        }
+    }
+
+    // Confronta l'hash con tutte le voci in sequenza. Prima la distanza, che legge solo codes:
+    // le voci eliminate o di altre cartelle si scartano solo tra quelle abbastanza vicine
+    private void scan(long code, int maxDistance, long folderId, PositionConsumer consumer) {
+        long[] ids = this.ids;
+        long[] folderIds = this.folderIds;
+        long[] codes = this.codes;
+        int size = this.size;
+        for (int position = 0; position < size; position++) {
+            int distance = Long.bitCount(code ^ codes[position]);
+            if (distance <= maxDistance && ids[position] != REMOVED && (folderId < 0 || folderIds[position] == folderId)) {
+                consumer.accept(position, distance);
+            }
+        }
+    }
+
+    // Costo stimato di una ricerca con i bucket, in voci lette in sequenza: i bucket vicini di ogni blocco
+    // con la loro dimensione media
+    private long probeCost(int maxDistance) {
+        int blockDistance = Math.min(maxDistance, MAX_DISTANCE) / BLOCKS;
+        return (long) BLOCKS * MASK_COUNT[blockDistance] * (1 + size / BUCKETS) * PROBE_WEIGHT;
+    }
+
+    // Una voce compare nei bucket di più blocchi: viene restituita solo dal primo blocco abbastanza vicino
+    private static boolean foundInEarlierBlock(long code, long other, int block, int blockDistance) {
+        for (int earlier = 0; earlier < block; earlier++) {
+            if (Integer.bitCount(block(code, earlier) ^ block(other, earlier)) <= blockDistance) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int block(long code, int block) {
+        return (int) (code >>> (block * BLOCK_BITS)) & (BUCKETS - 1);
+    }
+
+    private void add(long id, long folderId, long code) {
+        if (size == ids.length) {
+            int capacity = ids.length * 2;
+            ids = Arrays.copyOf(ids, capacity);
+            folderIds = Arrays.copyOf(folderIds, capacity);
+            codes = Arrays.copyOf(codes, capacity);
+        }
+        int position = size++;
+        ids[position] = id;
+        folderIds[position] = folderId;
+        codes[position] = code;
+        for (int block = 0; block < BLOCKS; block++) {
+            int bucket = block * BUCKETS + block(code, block);
+            int[] entries = buckets[bucket];
+            if (entries == null) {
+                entries = buckets[bucket] = new int[2];
+            } else if (bucketSizes[bucket] == entries.length) {
+                entries = buckets[bucket] = Arrays.copyOf(entries, entries.length * 2);
+            }
+            entries[bucketSizes[bucket]++] = position;
+        }
+        positions.put(id, position);
+        live++;
+    }
+
+    private void removeAt(long id, int position) {
+        ids[position] = REMOVED;
+        positions.remove(id);
+        live--;
+    }
+
+    // Ricostruisce array e bucket con le sole voci presenti
+    private void compact() {
+        long[] oldIds = ids;
+        long[] oldFolderIds = folderIds;
+        long[] oldCodes = codes;
+        int oldSize = size;
+        int capacity = Math.max(1024, Integer.highestOneBit(Math.max(1, live)) * 2);
+        ids = new long[capacity];
+        folderIds = new long[capacity];
+        codes = new long[capacity];
+        size = 0;
+        live = 0;
+        Arrays.fill(buckets, null);
+        Arrays.fill(bucketSizes, 0);
+        positions = new LongIntMap(capacity);
+        for (int position = 0; position < oldSize; position++) {
+            if (oldIds[position] != REMOVED) {
+                add(oldIds[position], oldFolderIds[position], oldCodes[position]);
+            }
+        }
+    }
+
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]]; // Dimezzamento del percorso
+            i = parent[i];
+        }
+        return i;
+    }
+
+    private static void union(int[] parent, int a, int b) {
+        int rootA = find(parent, a);
+        int rootB = find(parent, b);
+        if (rootA != rootB) {
+            parent[Math.max(rootA, rootB)] = Math.min(rootA, rootB);
+        }
+    }
+
+    // Mappa da long (diverso da Long.MIN_VALUE) a int >= 0 con indirizzamento aperto, senza oggetti per voce
+    static final class LongIntMap {
+
+        private static final long EMPTY = Long.MIN_VALUE;
+
+        private long[] keys;
+        private int[] values;
+        private int count;
+
+        LongIntMap(int expected) {
+            int capacity = Integer.highestOneBit(Math.max(16, expected * 2) - 1) * 2;
+            keys = new long[capacity];
+            values = new int[capacity];
+            Arrays.fill(keys, EMPTY);
+        }
+
+        // Valore della chiave, oppure -1
+        int get(long key) {
+            int mask = keys.length - 1;
+            for (int slot = slot(key, mask); keys[slot] != EMPTY; slot = (slot + 1) & mask) {
+                if (keys[slot] == key) {
+                    return values[slot];
+                }
+            }
+            return -1;
+        }
+
+        void put(long key, int value) {
+            if ((count + 1) * 2 > keys.length) {
+                resize();
+            }
+            int mask = keys.length - 1;
+            int slot = slot(key, mask);
+            while (keys[slot] != EMPTY && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            if (keys[slot] == EMPTY) {
+                count++;
+            }
+            keys[slot] = key;
+            values[slot] = value;
+        }
+
+        // Eliminazione con spostamento all'indietro: nessuna lapide, le sequenze di probing restano integre
+        void remove(long key) {
+            int mask = keys.length - 1;
+            int slot = slot(key, mask);
+            while (keys[slot] != key) {
+                if (keys[slot] == EMPTY) {
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+            count--;
+            int hole = slot;
+            for (int next = (hole + 1) & mask; keys[next] != EMPTY; next = (next + 1) & mask) {
+                int home = slot(keys[next], mask);
+                // La voce in next può occupare il buco se la sua posizione naturale non è tra il buco e next
+                if (((next - home) & mask) >= ((next - hole) & mask)) {
+                    keys[hole] = keys[next];
+                    values[hole] = values[next];
+                    hole = next;
+                }
+            }
+            keys[hole] = EMPTY;
+        }
+
+        private void resize() {
+            long[] oldKeys = keys;
+            int[] oldValues = values;
+            keys = new long[oldKeys.length * 2];
+            values = new int[oldKeys.length * 2];
+            Arrays.fill(keys, EMPTY);
+            count = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != EMPTY) {
+                    put(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+
+        private static int slot(long key, int mask) {
+            long hash = key * 0x9E3779B97F4A7C15L;
+            return (int) (hash ^ (hash >>> 32)) & mask;
+        }
+    }
+}
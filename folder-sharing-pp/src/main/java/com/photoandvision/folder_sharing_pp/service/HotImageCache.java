@@ -0,0 +1,278 @@
+package com.photoandvision.folder_sharing_pp.service;
+
+import com.photoandvision.folder_sharing_pp.event.FolderChangeEvent;
+import com.photoandvision.folder_sharing_pp.storage.StorageBackend;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Cache in memoria del contenuto delle immagini piccole e richieste spesso (copertine, ultimo servizio).
+// I byte stanno fuori dall'heap (ByteBuffer diretti), quindi non pesano sul garbage collector; la memoria viene
+// liberata quando il buffer non è più raggiungibile, anche se una risposta lo sta ancora scrivendo dopo l'evizione.
+// L'evizione è W-TinyLFU: una piccola finestra LRU accoglie le nuove voci, che entrano nell'area principale
+// (LRU segmentata: prova e protetta) solo se la loro frequenza stimata supera quella della voce da eliminare.
+// Così una scansione di molte immagini richieste una sola volta non svuota la cache
+@Service
+public class HotImageCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(HotImageCache.class);
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final int MIN_FREQUENCY = 2; // Un'immagine viene caricata solo dalla seconda richiesta
+
+    // Contenuto in cache: data e dimensione permettono di riconoscere un file cambiato sul disco
+    public record Entry(ByteBuffer data, long size, long lastModified) {
+
+        // Vista di sola lettura indipendente: più risposte possono scrivere lo stesso buffer in parallelo
+        public ByteBuffer content() {
+            return data.duplicate();
+        }
+    }
+
+    // Statistiche di utilizzo della cache
+    public record Stats(long hits, long misses, long loads, long evictions, long rejections, long invalidations,
+                        int size, long bytes) {
+    }
+
+    private final StorageBackend storage;
+    private final boolean enabled;
+    private final long maxEntryBytes; // Dimensione massima di un'immagine in cache
+    private final long windowMaxBytes;
+    private final long mainMaxBytes;
+    private final long protectedMaxBytes;
+
+    // Segmenti della cache, protetti dal lock su this. Chiave: cartella/immagine
+    private final LinkedHashMap<String, Entry> window = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<String, Entry> probation = new LinkedHashMap<>(64, 0.75f, true);
+    private final LinkedHashMap<String, Entry> protectedSegment = new LinkedHashMap<>(64, 0.75f, true);
+    private long windowBytes;
+    private long probationBytes;
+    private long protectedBytes;
+    private final FrequencySketch sketch;
+
+    // Incrementato a ogni invalidazione: un caricamento iniziato prima di un'invalidazione non viene salvato
+    private final AtomicLong generation = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong rejections = new AtomicLong(); // Candidati respinti dal filtro di frequenza
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public HotImageCache(StorageBackend storage,
+                         @Value("${hot-cache.enabled:true}") boolean enabled,
+                         @Value("${hot-cache.max-bytes:268435456}") long maxBytes,
+                         @Value("${hot-cache.max-entry-bytes:2097152}") long maxEntryBytes) {
+        this.storage = storage;
+        this.enabled = enabled && maxBytes > 0;
+        this.maxEntryBytes = Math.min(maxEntryBytes, Integer.MAX_VALUE);
+        this.windowMaxBytes = Math.max(maxBytes / 100, this.maxEntryBytes); // 1% per la finestra, almeno un'immagine
+        this.mainMaxBytes = Math.max(0, maxBytes - windowMaxBytes);
+        this.protectedMaxBytes = mainMaxBytes * 8 / 10;
+        // Una voce per ogni 64 KB di capacità: le immagini in cache sono piccole
+        this.sketch = new FrequencySketch((int) Math.min(1 << 20, Math.max(1024, maxBytes / (64 * 1024))));
+    }
+
+    // Restituisce l'immagine dalla cache, caricandola se è piccola e già richiesta in precedenza.
+    // info è lo stato attuale del file: una voce con dimensione o data diverse viene scartata.
+    // Restituisce null se l'immagine va letta dall'archivio
+    public Entry get(String folderName, String imageName, StorageBackend.ObjectInfo info) throws IOException {
+        if (!enabled || info.size() > maxEntryBytes) {
+            return null;
+        }
+        String key = folderName + "/" + imageName;
+        boolean load;
+        synchronized (this) {
+            sketch.increment(key);
+            Entry entry = lookup(key);
+            if (entry != null && entry.size() == info.size() && entry.lastModified() == info.lastModified()) {
+                hits.incrementAndGet();
+                return entry;
+            }
+            if (entry != null) {
+                remove(key); // File modificato fuori dall'applicazione
+            }
+            load = sketch.frequency(key) >= MIN_FREQUENCY;
+        }
+        misses.incrementAndGet();
+        if (!load) {
+            return null;
+        }
+
+        long startGeneration = generation.get();
+        Entry entry = load(folderName, imageName, info);
+        if (entry == null) {
+            return null;
+        }
+        loads.incrementAndGet();
+        synchronized (this) {
+            if (generation.get() == startGeneration && !contains(key)) {
+                window.put(key, entry);
+                windowBytes += entry.size();
+                evictIfNeeded();
+            }
+        }
+        return entry;
+    }
+
+    public void invalidate(String folderName, String imageName) {
+        generation.incrementAndGet();
+        synchronized (this) {
+            if (remove(folderName + "/" + imageName)) {
+                invalidations.incrementAndGet();
+            }
+        }
+    }
+
+    public void invalidateFolder(String folderName) {
+        generation.incrementAndGet();
+        String prefix = folderName + "/";
+        synchronized (this) {
+            List<String> keys = new ArrayList<>();
+            for (Map<String, Entry> segment : List.of(window, probation, protectedSegment)) {
+                for (String key : segment.keySet()) {
+                    if (key.startsWith(prefix)) {
+                        keys.add(key);
+                    }
+                }
+            }
+            for (String key : keys) {
+                remove(key);
+                invalidations.incrementAndGet();
+            }
+        }
+    }
+
+    public synchronized Stats stats() {
+        return new Stats(hits.get(), misses.get(), loads.get(), evictions.get(), rejections.get(), invalidations.get(),
+                window.size() + probation.size() + protectedSegment.size(), windowBytes + probationBytes + protectedBytes);
+    }
+
+    // Upload (anche sovrascritture) ed eliminazioni fatte dall'applicazione
+    @EventListener
+    public void onFolderChange(FolderChangeEvent event) {
+        if (event.imageName() != null) {
+            invalidate(event.folderName(), event.imageName());
+        } else if (event.type() == FolderChangeEvent.Type.FOLDER_DELETED) {
+            invalidateFolder(event.folderName());
+        }
+    }
+
+    // Legge il file in un buffer diretto; null se il file è cambiato o è stato eliminato durante la lettura
+    private Entry load(String folderName, String imageName, StorageBackend.ObjectInfo info) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect((int) info.size());
+        byte[] chunk = new byte[(int) Math.min(READ_BUFFER_SIZE, Math.max(1, info.size()))];
+        try (InputStream input = storage.getRange(folderName, imageName, 0, -1)) {
+            int read;
+            while (buffer.hasRemaining() && (read = input.read(chunk, 0, Math.min(chunk.length, buffer.remaining()))) != -1) {
+                buffer.put(chunk, 0, read);
+            }
+            if (buffer.hasRemaining() || input.read() != -1) {
+                logger.debug("Immagine modificata durante il caricamento in cache: {}/{}", folderName, imageName);
+                return null;
+            }
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        buffer.flip();
+        return new Entry(buffer.asReadOnlyBuffer(), info.size(), info.lastModified());
+    }
+
+    // Cerca la voce e aggiorna la sua posizione: una voce in prova richiesta di nuovo passa nell'area protetta
+    private Entry lookup(String key) {
+        Entry entry = window.get(key);
+        if (entry != null) {
+            return entry;
+        }
+        entry = protectedSegment.get(key);
+        if (entry != null) {
+            return entry;
+        }
+        entry = probation.remove(key);
+        if (entry != null) {
+            probationBytes -= entry.size();
+            protectedSegment.put(key, entry);
+            protectedBytes += entry.size();
+            // L'area protetta piena restituisce le voci meno recenti all'area di prova
+            Iterator<Map.Entry<String, Entry>> eldest = protectedSegment.entrySet().iterator();
+            while (protectedBytes > protectedMaxBytes && eldest.hasNext()) {
+                Map.Entry<String, Entry> demoted = eldest.next();
+                eldest.remove();
+                protectedBytes -= demoted.getValue().size();
+                probation.put(demoted.getKey(), demoted.getValue());
+                probationBytes += demoted.getValue().size();
+            }
+        }
+        return entry;
+    }
+
+    // Le voci in eccesso nella finestra vengono proposte all'area principale, che le accetta se c'è spazio
+    // oppure se sono più richieste della prima vittima (la voce in prova meno recente, o la protetta se non ce ne sono)
+    private void evictIfNeeded() {
+        Iterator<Map.Entry<String, Entry>> windowEldest = window.entrySet().iterator();
+        while (windowBytes > windowMaxBytes && windowEldest.hasNext()) {
+            Map.Entry<String, Entry> candidate = windowEldest.next();
+            windowEldest.remove();
+            windowBytes -= candidate.getValue().size();
+            admit(candidate.getKey(), candidate.getValue());
+        }
+    }
+
+    // Un solo confronto, come in W-TinyLFU: se il candidato vince, le vittime vengono eliminate finché c'è spazio;
+    // se perde, l'area principale resta com'era
+    private void admit(String key, Entry candidate) {
+        if (candidate.size() > mainMaxBytes) {
+            rejections.incrementAndGet(); // Più grande dell'area principale
+            return;
+        }
+        if (probationBytes + protectedBytes + candidate.size() > mainMaxBytes) {
+            String victim = (!probation.isEmpty() ? probation : protectedSegment).keySet().iterator().next();
+            if (sketch.frequency(key) <= sketch.frequency(victim)) {
+                rejections.incrementAndGet();
+                return;
+            }
+        }
+        while (probationBytes + protectedBytes + candidate.size() > mainMaxBytes) {
+            LinkedHashMap<String, Entry> segment = !probation.isEmpty() ? probation : protectedSegment;
+            Map.Entry<String, Entry> victim = segment.entrySet().iterator().next();
+            segment.remove(victim.getKey());
+            if (segment == probation) {
+                probationBytes -= victim.getValue().size();
+            } else {
+                protectedBytes -= victim.getValue().size();
+            }
+            evictions.incrementAndGet();
+        }
+        probation.put(key, candidate);
+        probationBytes += candidate.size();
+    }
+
+    private boolean contains(String key) {
+        return window.containsKey(key) || probation.containsKey(key) || protectedSegment.containsKey(key);
+    }
+
+    private boolean remove(String key) {
+        Entry entry;
+        if ((entry = window.remove(key)) != null) {
+            windowBytes -= entry.size();
+        } else if ((entry = probation.remove(key)) != null) {
+            probationBytes -= entry.size();
+        } else if ((entry = protectedSegment.remove(key)) != null) {
+            protectedBytes -= entry.size();
+        }
+        return entry != null;
+    }
+}
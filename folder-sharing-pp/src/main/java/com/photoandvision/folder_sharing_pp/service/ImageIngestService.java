@@ -0,0 +1,274 @@
+package com.photoandvision.folder_sharing_pp.service;
+
+import com.photoandvision.folder_sharing_pp.config.WorkerPoolFactory;
+import com.photoandvision.folder_sharing_pp.entity.Folder;
+import com.photoandvision.folder_sharing_pp.entity.Image;
+import com.photoandvision.folder_sharing_pp.event.FolderChangeEvent;
+import com.photoandvision.folder_sharing_pp.repo.ImageRepository;
+import com.photoandvision.folder_sharing_pp.storage.StorageBackend;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+// Servizio che salva i file caricati: il file arriva nell'area di staging, ne viene calcolato l'hash
+// e viene consegnato allo StorageBackend (che sul disco locale memorizza ogni contenuto una sola volta)
+@Service
+public class ImageIngestService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ImageIngestService.class);
+    private static final int HASH_BUFFER_SIZE = 64 * 1024;
+
+    public static final String STAGING_DIR = ".ingest"; // File in arrivo, sullo stesso volume delle cartelle
+
+    // File da salvare: sa trasferire il proprio contenuto in un percorso sul disco
+    public interface Source {
+        String fileName();
+
+        void transferTo(Path target) throws IOException;
+    }
+
+    // Esito del salvataggio di un file: error è null se il file è stato salvato
+    public record IngestResult(String fileName, String contentHash, long size, long lastModified, boolean deduplicated, String error) {
+    }
+
+    private final ImageRepository imageRepository;
+    private final StorageBackend storage;
+    private final FolderService folderService;
+    private final ThumbnailService thumbnailService;
+    private final ImageMetadataService metadataService;
+    private final ApplicationEventPublisher eventPublisher;
+    private final TransactionTemplate transaction;
+    private final ExecutorService executor; // Pool limitato per hash e collegamento dei file
+    private final Path stagingDir;
+    private final Timer multipartTimer; // Durata di un upload multipart, dal salvataggio alla registrazione
+    private final Timer chunkedTimer; // Durata della pubblicazione di un upload a blocchi
+    private final Counter storedFiles;
+    private final Counter deduplicatedFiles;
+    private final Counter failedFiles;
+    private final Counter storedBytes;
+
+    public ImageIngestService(ImageRepository imageRepository,
+                              StorageBackend storage,
+                              FolderService folderService,
+                              ThumbnailService thumbnailService,
+                              ImageMetadataService metadataService,
+                              ApplicationEventPublisher eventPublisher,
+                              PlatformTransactionManager transactionManager,
+                              WorkerPoolFactory workerPoolFactory,
+                              MeterRegistry registry,
+                              @Value("${upload.dir}") String uploadDir,
+                              @Value("${ingest.workers:4}") int workers,
+                              @Value("${ingest.queue-capacity:1024}") int queueCapacity) {
+        this.imageRepository = imageRepository;
+        this.storage = storage;
+        this.folderService = folderService;
+        this.thumbnailService = thumbnailService;
+        this.metadataService = metadataService;
+        this.eventPublisher = eventPublisher;
+        this.transaction = new TransactionTemplate(transactionManager);
+        this.executor = workerPoolFactory.newBoundedPool("ingest", workers, queueCapacity);
+        this.stagingDir = Paths.get(uploadDir).resolve(STAGING_DIR);
+        this.multipartTimer = Timer.builder("image.upload").tag("type", "multipart").register(registry);
+        this.chunkedTimer = Timer.builder("image.upload").tag("type", "chunked").register(registry);
+        this.storedFiles = Counter.builder("image.upload.files").tag("result", "stored").register(registry);
+        this.deduplicatedFiles = Counter.builder("image.upload.files").tag("result", "deduplicated").register(registry);
+        this.failedFiles = Counter.builder("image.upload.files").tag("result", "failed").register(registry);
+        this.storedBytes = Counter.builder("image.upload.bytes").baseUnit("bytes").register(registry);
+    }
+
+    @PostConstruct
+    public void createDirectories() throws IOException {
+        Files.createDirectories(stagingDir);
+    }
+
+    public Path getStagingDir() {
+        return stagingDir;
+    }
+
+    // Salva in parallelo i file nella cartella e registra tutte le immagini con una sola transazione
+    public List<IngestResult> ingest(String folderName, List<? extends Source> sources) throws IOException {
+        long start = System.nanoTime();
+        checkFolderName(folderName);
+        Folder folder = folderService.findOrCreate(folderName); // Cartella a cui collegare le immagini
+
+        List<CompletableFuture<IngestResult>> futures = new ArrayList<>(sources.size());
+        for (Source source : sources) {
+            try {
+                futures.add(CompletableFuture.supplyAsync(() -> store(folderName, source), executor));
+            } catch (RejectedExecutionException e) {
+                futures.add(CompletableFuture.completedFuture(
+                        new IngestResult(source.fileName(), null, 0L, 0L, false, "Server busy, retry later.")));
+            }
+        }
+
+        List<IngestResult> results = new ArrayList<>(futures.size());
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                results.add(futures.get(i).join());
+            } catch (CompletionException e) {
+                // Errore imprevisto: il file non è stato salvato
+                results.add(new IngestResult(sources.get(i).fileName(), null, 0L, 0L, false, String.valueOf(e.getCause().getMessage())));
+            }
+        }
+
+        complete(folderName, folder, results);
+        multipartTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return results;
+    }
+
+    // Pubblica nella cartella un file già completo sul disco (es. un upload a blocchi), verificandone l'hash se indicato.
+    // Lancia IllegalStateException se il contenuto non corrisponde all'hash atteso
+    public IngestResult publish(String folderName, String fileName, Path staged, String expectedHash) throws IOException {
+        long start = System.nanoTime();
+        String hash = sha256(staged);
+        if (expectedHash != null && !expectedHash.equalsIgnoreCase(hash)) {
+            throw new IllegalStateException("Hash non corrispondente: atteso " + expectedHash + ", ricevuto " + hash);
+        }
+
+        checkFolderName(folderName);
+        Folder folder = folderService.findOrCreate(folderName);
+        StorageBackend.PutResult stored = storage.put(folderName, fileName, staged, hash);
+        IngestResult result = new IngestResult(fileName, hash, stored.info().size(), stored.info().lastModified(),
+                stored.deduplicated(), null);
+        complete(folderName, folder, List.of(result));
+        chunkedTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return result;
+    }
+
+    // Registra le immagini salvate e avvia le attività successive all'upload
+    private void complete(String folderName, Folder folder, List<IngestResult> results) {
+        persist(folderName, folder, results);
+
+        for (IngestResult result : results) {
+            count(result);
+            if (result.error() == null) {
+                thumbnailService.pregenerate(folderName, result.fileName()); // Prepara in background le miniature configurate
+                metadataService.submit(folderName, result.fileName()); // Legge in background EXIF e dimensioni
+                eventPublisher.publishEvent(FolderChangeEvent.image(FolderChangeEvent.Type.IMAGE_UPLOADED, folderName, result.fileName()));
+            }
+        }
+    }
+
+    private void count(IngestResult result) {
+        if (result.error() != null) {
+            failedFiles.increment();
+            return;
+        }
+        (result.deduplicated() ? deduplicatedFiles : storedFiles).increment();
+        storedBytes.increment(result.size());
+    }
+
+    // Trasferisce il file nell'area di staging (un rename quando il contenuto è già sul disco), ne calcola l'hash
+    // e lo salva nella cartella
+    private IngestResult store(String folderName, Source source) {
+        String fileName = source.fileName();
+        Path staged = stagingDir.resolve(UUID.randomUUID() + ".upload");
+        try {
+            source.transferTo(staged);
+            String hash = sha256(staged);
+            StorageBackend.PutResult stored = storage.put(folderName, fileName, staged, hash);
+            return new IngestResult(fileName, hash, stored.info().size(), stored.info().lastModified(), stored.deduplicated(), null);
+        } catch (IOException e) {
+            logger.error("Errore nel salvataggio di {}: {}", fileName, e.getMessage());
+            return new IngestResult(fileName, null, 0L, 0L, false, e.getMessage());
+        } finally {
+            deleteQuietly(staged);
+        }
+    }
+
+    // Inserisce o aggiorna le righe delle immagini salvate con una sola transazione
+    private void persist(String folderName, Folder folder, List<IngestResult> results) {
+        Map<String, IngestResult> stored = new HashMap<>();
+        for (IngestResult result : results) {
+            if (result.error() == null) {
+                stored.put(result.fileName(), result);
+            }
+        }
+        if (stored.isEmpty()) {
+            return;
+        }
+
+        transaction.executeWithoutResult(status -> {
+            Map<String, Image> existing = new HashMap<>();
+            for (Image image : imageRepository.findByFolderIdAndNameIn(folder.getId(), stored.keySet())) {
+                existing.put(image.getName(), image);
+            }
+
+            List<Image> images = new ArrayList<>(stored.size());
+            for (IngestResult result : stored.values()) {
+                Image image = existing.getOrDefault(result.fileName(), new Image()); // Un nuovo upload con lo stesso nome aggiorna la riga
+                image.setName(result.fileName());
+                image.setUrl(storage.location(folderName, result.fileName()));
+                image.setFolder(folder);
+                image.setContentHash(result.contentHash());
+                image.setSize(result.size());
+                image.setLastModified(result.lastModified());
+                image.setMetadataStatus(Image.MetadataStatus.PENDING); // Contenuto nuovo: i metadati vanno riletti
+                image.setPerceptualHash(null); // Ricalcolato da DuplicateService
+                image.setPerceptualHashStatus(null);
+                images.add(image);
+            }
+            imageRepository.saveAll(images);
+        });
+    }
+
+    // Calcola l'hash SHA-256 leggendo il file con un buffer sull'heap: MessageDigest legge direttamente dall'array,
+    // mentre un buffer diretto allocato a ogni file occuperebbe memoria nativa fino al GC successivo
+    private String sha256(Path file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] buffer = new byte[HASH_BUFFER_SIZE];
+        try (InputStream input = Files.newInputStream(file)) {
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static void checkFolderName(String folderName) {
+        if (!StorageBackend.isValidName(folderName)) {
+            throw new IllegalArgumentException("Nome della cartella non valido: " + folderName);
+        }
+    }
+
+    private void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            logger.warn("Impossibile eliminare il file temporaneo {}: {}", file, e.getMessage());
+        }
+    }
+}
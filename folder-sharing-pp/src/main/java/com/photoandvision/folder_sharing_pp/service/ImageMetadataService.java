@@ -0,0 +1,294 @@
+package com.photoandvision.folder_sharing_pp.service;
+
+import com.drew.imaging.ImageMetadataReader;
+import com.drew.imaging.ImageProcessingException;
+import com.drew.metadata.Metadata;
+import com.drew.metadata.exif.ExifIFD0Directory;
+import com.drew.metadata.exif.ExifSubIFDDirectory;
+import com.photoandvision.folder_sharing_pp.config.WorkerPoolFactory;
+import com.photoandvision.folder_sharing_pp.entity.Folder;
+import com.photoandvision.folder_sharing_pp.entity.Image;
+import com.photoandvision.folder_sharing_pp.repo.ImageRepository;
+import com.photoandvision.folder_sharing_pp.storage.StorageBackend;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+// Servizio che estrae i metadati delle immagini (EXIF, dimensioni, dimensione del file, hash) su un pool limitato
+// e li salva come colonne indicizzate di Image, così ricerche e ordinamenti non devono aprire i file.
+// L'estrazione parte dopo ogni upload; un job periodico recupera le immagini caricate prima o rimaste in attesa
+@Service
+public class ImageMetadataService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ImageMetadataService.class);
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // Metadati letti da un file
+    private record Extracted(long size, Integer width, Integer height, LocalDateTime takenAt,
+                             String cameraMake, String cameraModel, String contentHash) {
+    }
+
+    private final ImageRepository imageRepository;
+    private final StorageBackend storage;
+    private final FolderService folderService;
+    private final TransactionTemplate transaction;
+    private final ExecutorService executor; // Pool limitato per la lettura dei metadati
+    private final int backfillBatchSize;
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet(); // Immagini in coda o in lettura, per cartella/nome
+    private final Timer extractTimer;
+    private final Counter extractedFiles;
+    private final Counter failedFiles;
+
+    public ImageMetadataService(ImageRepository imageRepository,
+                                StorageBackend storage,
+                                FolderService folderService,
+                                PlatformTransactionManager transactionManager,
+                                WorkerPoolFactory workerPoolFactory,
+                                MeterRegistry registry,
+                                @Value("${metadata.workers:2}") int workers,
+                                @Value("${metadata.queue-capacity:1024}") int queueCapacity,
+                                @Value("${metadata.backfill-batch-size:200}") int backfillBatchSize) {
+        this.imageRepository = imageRepository;
+        this.storage = storage;
+        this.folderService = folderService;
+        this.transaction = new TransactionTemplate(transactionManager);
+        this.executor = workerPoolFactory.newBoundedPool("metadata", workers, queueCapacity);
+        this.backfillBatchSize = backfillBatchSize;
+        this.extractTimer = Timer.builder("image.metadata.extract").register(registry);
+        this.extractedFiles = Counter.builder("image.metadata.files").tag("result", "extracted").register(registry);
+        this.failedFiles = Counter.builder("image.metadata.files").tag("result", "failed").register(registry);
+    }
+
+    // Accoda l'estrazione per un file appena caricato. Se la coda è piena l'immagine resta PENDING
+    // e verrà ripresa dal job di recupero
+    public void submit(String folderName, String fileName) {
+        schedule(folderName, fileName);
+    }
+
+    // Job di recupero: scorre le immagini senza metadati a blocchi per id crescente e attende ogni blocco
+    // prima di leggere il successivo, così non occupa più della coda del pool
+    @Scheduled(initialDelayString = "${metadata.backfill-initial-delay-ms:60000}",
+            fixedDelayString = "${metadata.backfill-interval-ms:600000}")
+    public void backfill() {
+        long lastId = 0L;
+        int processed = 0;
+        List<Image> batch;
+        do {
+            batch = imageRepository.findPendingMetadata(lastId, Image.MetadataStatus.PENDING, Limit.of(backfillBatchSize));
+            List<CompletableFuture<Void>> futures = new ArrayList<>(batch.size());
+            for (Image image : batch) {
+                lastId = image.getId();
+                CompletableFuture<Void> future = schedule(image.getFolder().getName(), image.getName());
+                if (future == null) {
+                    continue; // Già in lettura
+                }
+                if (future.isCompletedExceptionally()) {
+                    logger.debug("Coda dei metadati piena, recupero rimandato");
+                    return; // Il pool è occupato dagli upload: si riprende al prossimo giro
+                }
+                futures.add(future);
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+            processed += futures.size();
+        } while (batch.size() == backfillBatchSize);
+
+        if (processed > 0) {
+            logger.info("Metadati estratti per {} immagini esistenti", processed);
+        }
+    }
+
+    // Avvia l'estrazione sul pool. Restituisce null se il file è già in lettura,
+    // un future completato con errore se la coda è piena
+    private CompletableFuture<Void> schedule(String folderName, String fileName) {
+        String key = folderName + "/" + fileName;
+        if (!inFlight.add(key)) {
+            return null;
+        }
+        try {
+            return CompletableFuture.runAsync(() -> {
+                try {
+                    extract(folderName, fileName);
+                } finally {
+                    inFlight.remove(key);
+                }
+            }, executor);
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(key);
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    // Legge i metadati del file e aggiorna la riga dell'immagine
+    private void extract(String folderName, String fileName) {
+        long start = System.nanoTime();
+        Optional<Folder> folder = folderService.getFolderByName(folderName);
+        if (folder.isEmpty()) {
+            return;
+        }
+        List<Image> rows = imageRepository.findByFolderIdAndNameIn(folder.get().getId(), List.of(fileName));
+        if (rows.isEmpty()) {
+            return; // Riga eliminata nel frattempo
+        }
+        boolean hashMissing = rows.stream().anyMatch(image -> image.getContentHash() == null);
+
+        Extracted extracted = null;
+        try {
+            StorageBackend.ObjectInfo info = storage.stat(folderName, fileName);
+            if (info == null) {
+                return; // Eliminata nel frattempo
+            }
+            extracted = read(folderName, fileName, info, hashMissing);
+            extractedFiles.increment();
+        } catch (IOException | RuntimeException e) {
+            failedFiles.increment();
+            logger.warn("Estrazione dei metadati fallita per {}/{}: {}", folderName, fileName, e.getMessage());
+        }
+
+        Extracted result = extracted;
+        transaction.executeWithoutResult(status -> {
+            for (Image image : imageRepository.findByFolderIdAndNameIn(folder.get().getId(), List.of(fileName))) {
+                if (result == null) {
+                    image.setMetadataStatus(Image.MetadataStatus.FAILED); // Non viene ritentata in automatico
+                    continue;
+                }
+                image.setSize(result.size());
+                image.setWidth(result.width());
+                image.setHeight(result.height());
+                image.setOrientation(orientation(result.width(), result.height()));
+                image.setTakenAt(result.takenAt());
+                image.setCameraMake(result.cameraMake());
+                image.setCameraModel(result.cameraModel());
+                if (image.getContentHash() == null) {
+                    image.setContentHash(result.contentHash());
+                }
+                image.setMetadataStatus(Image.MetadataStatus.DONE);
+            }
+        });
+        extractTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    private Extracted read(String folderName, String fileName, StorageBackend.ObjectInfo info, boolean hashMissing) throws IOException {
+        Resource source = storage.resource(folderName, fileName, info);
+
+        // EXIF: per i JPEG il lettore si ferma all'inizio dei dati compressi, il resto del file non viene letto
+        Metadata metadata = null;
+        try (InputStream input = new BufferedInputStream(source.getInputStream(), BUFFER_SIZE)) {
+            metadata = ImageMetadataReader.readMetadata(input);
+        } catch (ImageProcessingException e) {
+            logger.debug("Formato senza metadati leggibili: {}/{}", folderName, fileName);
+        }
+
+        ExifIFD0Directory ifd0 = metadata != null ? metadata.getFirstDirectoryOfType(ExifIFD0Directory.class) : null;
+        ExifSubIFDDirectory exif = metadata != null ? metadata.getFirstDirectoryOfType(ExifSubIFDDirectory.class) : null;
+        Date taken = exif != null ? exif.getDateOriginal() : null;
+        if (taken == null && ifd0 != null) {
+            taken = ifd0.getDate(ExifIFD0Directory.TAG_DATETIME);
+        }
+        Integer exifOrientation = ifd0 != null ? ifd0.getInteger(ExifIFD0Directory.TAG_ORIENTATION) : null;
+
+        // Dimensioni dall'intestazione dell'immagine, senza decodificare i pixel
+        int[] size = dimensions(source);
+        Integer width = null;
+        Integer height = null;
+        if (size != null) {
+            boolean rotated = exifOrientation != null && exifOrientation >= 5 && exifOrientation <= 8; // Rotazione di 90° o 270°
+            width = rotated ? size[1] : size[0];
+            height = rotated ? size[0] : size[1];
+        }
+
+        return new Extracted(info.size(), width, height,
+                taken != null ? LocalDateTime.ofInstant(taken.toInstant(), ZoneOffset.UTC) : null, // EXIF senza fuso: ora della fotocamera
+                ifd0 != null ? trim(ifd0.getString(ExifIFD0Directory.TAG_MAKE), 64) : null,
+                ifd0 != null ? trim(ifd0.getString(ExifIFD0Directory.TAG_MODEL), 128) : null,
+                hashMissing ? sha256(source) : null);
+    }
+
+    private int[] dimensions(Resource source) throws IOException {
+        InputStream stream = source.isFile() ? null : source.getInputStream();
+        try (ImageInputStream input = ImageIO.createImageInputStream(stream != null ? stream : source.getFile())) {
+            Iterator<ImageReader> readers = input != null ? ImageIO.getImageReaders(input) : null;
+            if (readers == null || !readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                return new int[]{ reader.getWidth(0), reader.getHeight(0) };
+            } finally {
+                reader.dispose();
+            }
+        } finally {
+            if (stream != null) {
+                stream.close();
+            }
+        }
+    }
+
+    // Le righe create dagli upload hanno già l'hash: viene calcolato solo per quelle più vecchie
+    private String sha256(Resource source) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream input = source.getInputStream()) {
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static Image.Orientation orientation(Integer width, Integer height) {
+        if (width == null || height == null) {
+            return null;
+        }
+        return width > height ? Image.Orientation.LANDSCAPE : width < height ? Image.Orientation.PORTRAIT : Image.Orientation.SQUARE;
+    }
+
+    private static String trim(String value, int maxLength) {
+        if (value == null) {
+            return null;
+        }
+        String trimmed = value.trim();
+        if (trimmed.isEmpty()) {
+            return null;
+        }
+        return trimmed.length() > maxLength ? trimmed.substring(0, maxLength) : trimmed;
+    }
+}
@@ -0,0 +1,358 @@
+package com.photoandvision.folder_sharing_pp.service;
+
+import com.photoandvision.folder_sharing_pp.config.WorkerPoolFactory;
+import com.photoandvision.folder_sharing_pp.entity.Folder;
+import com.photoandvision.folder_sharing_pp.entity.Image;
+import com.photoandvision.folder_sharing_pp.event.FolderChangeEvent;
+import com.photoandvision.folder_sharing_pp.repo.FolderGrantRepository;
+import com.photoandvision.folder_sharing_pp.repo.FolderRepository;
+import com.photoandvision.folder_sharing_pp.repo.ImageFile;
+import com.photoandvision.folder_sharing_pp.repo.ImageRepository;
+import com.photoandvision.folder_sharing_pp.storage.StorageBackend;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Job periodico che allinea le tabelle folders e image al contenuto dell'archivio, anche quando i file vengono
+// aggiunti o rimossi senza passare dall'applicazione. Le cartelle la cui versione (StorageBackend.folderVersion)
+// non è cambiata dall'ultima esecuzione non vengono rilette; le altre vengono confrontate con il database su un pool
+// limitato e le differenze applicate a blocchi, ognuno nella propria transazione
+@Service
+public class StorageReconciler {
+
+    private static final Logger logger = LoggerFactory.getLogger(StorageReconciler.class);
+
+    // Esito di un'esecuzione
+    public record Report(int foldersScanned, int foldersSkipped, int foldersAdded, int foldersRemoved,
+                         long rowsInserted, long rowsUpdated, long rowsDeleted, long durationMillis) {
+    }
+
+    private static final class Progress {
+        final AtomicInteger scanned = new AtomicInteger();
+        final AtomicInteger skipped = new AtomicInteger();
+        final AtomicInteger added = new AtomicInteger();
+        final AtomicInteger removed = new AtomicInteger();
+        final AtomicLong inserted = new AtomicLong();
+        final AtomicLong updated = new AtomicLong();
+        final AtomicLong deleted = new AtomicLong();
+    }
+
+    // Differenze tra l'archivio e le righe di una cartella
+    private record Diff(List<StorageBackend.ObjectInfo> inserts, Map<Long, StorageBackend.ObjectInfo> updates,
+                        List<Long> deletes, Set<String> changedNames, Set<String> deletedNames) {
+    }
+
+    private final StorageBackend storage;
+    private final FolderRepository folderRepository;
+    private final ImageRepository imageRepository;
+    private final FolderGrantRepository grantRepository;
+    private final FolderService folderService;
+    private final ApplicationEventPublisher eventPublisher;
+    private final TransactionTemplate transaction;
+    private final ExecutorService executor; // Pool limitato: una cartella per task
+    private final boolean enabled;
+    private final int batchSize; // Righe per transazione
+    private final long graceMillis; // I file modificati più di recente possono essere ancora in fase di upload
+
+    private final Timer runTimer;
+    private final Counter rowsInserted;
+    private final Counter rowsUpdated;
+    private final Counter rowsDeleted;
+    private final Counter foldersSkipped;
+
+    public StorageReconciler(StorageBackend storage,
+                             FolderRepository folderRepository,
+                             ImageRepository imageRepository,
+                             FolderGrantRepository grantRepository,
+                             FolderService folderService,
+                             ApplicationEventPublisher eventPublisher,
+                             PlatformTransactionManager transactionManager,
+                             WorkerPoolFactory workerPoolFactory,
+                             MeterRegistry registry,
+                             @Value("${reconcile.enabled:true}") boolean enabled,
+                             @Value("${reconcile.workers:2}") int workers,
+                             @Value("${reconcile.queue-capacity:4096}") int queueCapacity,
+                             @Value("${reconcile.batch-size:500}") int batchSize,
+                             @Value("${reconcile.grace-seconds:120}") long graceSeconds) {
+        this.storage = storage;
+        this.folderRepository = folderRepository;
+        this.imageRepository = imageRepository;
+        this.grantRepository = grantRepository;
+        this.folderService = folderService;
+        this.eventPublisher = eventPublisher;
+        this.transaction = new TransactionTemplate(transactionManager);
+        this.executor = workerPoolFactory.newBoundedPool("reconcile", workers, queueCapacity);
+        this.enabled = enabled;
+        this.batchSize = batchSize;
+        this.graceMillis = graceSeconds * 1000;
+        this.runTimer = Timer.builder("reconcile.duration").register(registry);
+        this.rowsInserted = registry.counter("reconcile.rows", "action", "inserted");
+        this.rowsUpdated = registry.counter("reconcile.rows", "action", "updated");
+        this.rowsDeleted = registry.counter("reconcile.rows", "action", "deleted");
+        this.foldersSkipped = registry.counter("reconcile.folders.skipped");
+    }
+
+    @Scheduled(initialDelayString = "${reconcile.initial-delay-ms:120000}",
+            fixedDelayString = "${reconcile.interval-ms:600000}")
+    public void scheduledRun() {
+        if (enabled) {
+            run();
+        }
+    }
+
+    // Esegue una riconciliazione completa e attende che tutte le cartelle siano state elaborate
+    public Report run() {
+        long start = System.nanoTime();
+        Progress progress = new Progress();
+        Set<String> storageFolders = new HashSet<>();
+        try {
+            storage.listFolders(info -> {
+                if (StorageBackend.isValidName(info.name())) {
+                    storageFolders.add(info.name());
+                }
+            });
+        } catch (IOException e) {
+            logger.error("Riconciliazione annullata, impossibile elencare le cartelle: {}", e.getMessage());
+            return report(progress, start);
+        }
+
+        Map<String, Folder> rows = new HashMap<>();
+        for (Folder folder : folderRepository.findAll()) {
+            rows.put(folder.getName(), folder);
+        }
+
+        List<CompletableFuture<Void>> tasks = new ArrayList<>();
+        for (String name : storageFolders) {
+            Folder folder = rows.get(name);
+            if (folder == null) {
+                folder = folderService.findOrCreate(name); // Cartella creata fuori dall'applicazione
+                progress.added.incrementAndGet();
+            }
+            Folder target = folder;
+            try {
+                tasks.add(CompletableFuture.runAsync(() -> reconcileFolder(target, progress), executor));
+            } catch (RejectedExecutionException e) {
+                logger.warn("Coda della riconciliazione piena: {} verrà elaborata alla prossima esecuzione", name);
+            }
+        }
+
+        // Un archivio vuoto con cartelle nel database è più probabilmente un disco non montato che una cancellazione
+        if (storageFolders.isEmpty() && !rows.isEmpty()) {
+            logger.warn("L'archivio non contiene cartelle: nessuna riga di cartella viene eliminata");
+        } else {
+            for (Folder folder : rows.values()) {
+                if (!storageFolders.contains(folder.getName())) {
+                    removeFolder(folder, progress);
+                }
+            }
+        }
+
+        for (CompletableFuture<Void> task : tasks) {
+            task.join(); // reconcileFolder gestisce i propri errori
+        }
+        Report report = report(progress, start);
+        runTimer.record(report.durationMillis(), TimeUnit.MILLISECONDS);
+        if (report.rowsInserted() + report.rowsUpdated() + report.rowsDeleted() + report.foldersAdded() + report.foldersRemoved() > 0) {
+            logger.info("Riconciliazione completata: {}", report);
+        } else {
+            logger.debug("Riconciliazione completata senza differenze: {}", report);
+        }
+        return report;
+    }
+
+    private void reconcileFolder(Folder folder, Progress progress) {
+        String name = folder.getName();
+        try {
+            long version = storage.folderVersion(name); // Letta prima dell'elenco: le modifiche successive cambiano la versione
+            if (version >= 0 && folder.getScannedVersion() != null && version == folder.getScannedVersion()) {
+                progress.skipped.incrementAndGet();
+                foldersSkipped.increment();
+                return;
+            }
+
+            long cutoff = System.currentTimeMillis() - graceMillis;
+            Map<String, StorageBackend.ObjectInfo> files = new HashMap<>();
+            Set<String> recent = new HashSet<>(); // Non toccati in questa esecuzione: l'upload può essere in corso
+            storage.list(name, info -> {
+                if (!DirectoryListingService.isImageFile(info.name())) {
+                    return; // Come l'upload, la tabella contiene solo immagini
+                }
+                if (info.lastModified() > cutoff) {
+                    recent.add(info.name());
+                } else {
+                    files.put(info.name(), info);
+                }
+            });
+
+            Diff diff = diff(files, recent, imageRepository.findFilesByFolderId(folder.getId()));
+            apply(folder, diff, progress);
+            publish(name, diff);
+
+            if (recent.isEmpty() && version >= 0) {
+                transaction.executeWithoutResult(status -> folderRepository.updateScannedVersion(folder.getId(), version));
+            }
+            progress.scanned.incrementAndGet();
+        } catch (NoSuchFileException e) {
+            logger.debug("Cartella {} eliminata durante la riconciliazione", name); // Verrà rimossa alla prossima esecuzione
+        } catch (IOException | RuntimeException e) {
+            logger.error("Errore nella riconciliazione della cartella {}: {}", name, e.getMessage());
+        }
+    }
+
+    // Confronta i file con le righe: le righe doppie (stessa cartella e nome) vengono eliminate tenendo la più vecchia
+    private static Diff diff(Map<String, StorageBackend.ObjectInfo> files, Set<String> recent, List<ImageFile> rows) {
+        Map<String, ImageFile> byName = new HashMap<>();
+        List<Long> deletes = new ArrayList<>();
+        Map<Long, StorageBackend.ObjectInfo> updates = new HashMap<>();
+        Set<String> changedNames = new HashSet<>();
+        Set<String> deletedNames = new HashSet<>();
+
+        for (ImageFile row : rows) {
+            if (byName.putIfAbsent(row.getName(), row) != null) {
+                deletes.add(row.getId()); // Doppione
+                continue;
+            }
+            if (recent.contains(row.getName())) {
+                continue;
+            }
+            StorageBackend.ObjectInfo file = files.get(row.getName());
+            if (file == null) {
+                deletes.add(row.getId());
+                deletedNames.add(row.getName());
+            } else if (row.getSize() == null || row.getSize() != file.size()
+                    || row.getLastModified() == null || row.getLastModified() != file.lastModified()) {
+                updates.put(row.getId(), file);
+                if (row.getSize() == null || row.getSize() != file.size()) {
+                    changedNames.add(row.getName());
+                }
+            }
+        }
+
+        List<StorageBackend.ObjectInfo> inserts = new ArrayList<>();
+        for (StorageBackend.ObjectInfo file : files.values()) {
+            if (!byName.containsKey(file.name())) {
+                inserts.add(file);
+                changedNames.add(file.name());
+            }
+        }
+        return new Diff(inserts, updates, deletes, changedNames, deletedNames);
+    }
+
+    private void apply(Folder folder, Diff diff, Progress progress) {
+        for (List<StorageBackend.ObjectInfo> batch : batches(diff.inserts())) {
+            transaction.executeWithoutResult(status -> {
+                List<Image> images = new ArrayList<>(batch.size());
+                for (StorageBackend.ObjectInfo file : batch) {
+                    Image image = new Image();
+                    image.setName(file.name());
+                    image.setUrl(storage.location(folder.getName(), file.name()));
+                    image.setFolder(folder);
+                    image.setSize(file.size());
+                    image.setLastModified(file.lastModified());
+                    image.setMetadataStatus(Image.MetadataStatus.PENDING); // Letti dal recupero periodico di ImageMetadataService
+                    images.add(image);
+                }
+                imageRepository.saveAll(images);
+            });
+            progress.inserted.addAndGet(batch.size());
+            rowsInserted.increment(batch.size());
+        }
+
+        for (List<Long> batch : batches(new ArrayList<>(diff.updates().keySet()))) {
+            transaction.executeWithoutResult(status -> {
+                for (Image image : imageRepository.findAllById(batch)) {
+                    StorageBackend.ObjectInfo file = diff.updates().get(image.getId());
+                    if (image.getSize() == null || image.getSize() != file.size()) {
+                        image.setContentHash(null); // Contenuto sostituito fuori dall'applicazione
+                        image.setMetadataStatus(Image.MetadataStatus.PENDING);
+                        image.setPerceptualHash(null);
+                        image.setPerceptualHashStatus(null);
+                    }
+                    image.setSize(file.size());
+                    image.setLastModified(file.lastModified());
+                }
+            });
+            progress.updated.addAndGet(batch.size());
+            rowsUpdated.increment(batch.size());
+        }
+
+        for (List<Long> batch : batches(diff.deletes())) {
+            Integer deleted = transaction.execute(status -> imageRepository.deleteByIdIn(batch));
+            progress.deleted.addAndGet(deleted != null ? deleted : 0);
+            rowsDeleted.increment(deleted != null ? deleted : 0);
+        }
+    }
+
+    // Le modifiche trovate vengono notificate come quelle fatte dall'applicazione (cache, miniature, client collegati)
+    private void publish(String folderName, Diff diff) {
+        for (String name : diff.changedNames()) {
+            eventPublisher.publishEvent(FolderChangeEvent.image(FolderChangeEvent.Type.IMAGE_UPLOADED, folderName, name));
+        }
+        for (String name : diff.deletedNames()) {
+            eventPublisher.publishEvent(FolderChangeEvent.image(FolderChangeEvent.Type.IMAGE_DELETED, folderName, name));
+        }
+    }
+
+    // Elimina le righe di una cartella che non esiste più nell'archivio: immagini a blocchi, poi permessi e cartella
+    private void removeFolder(Folder folder, Progress progress) {
+        try {
+            if (storage.folderExists(folder.getName())) {
+                return; // Creata dopo l'elenco delle cartelle
+            }
+            List<Long> ids = new ArrayList<>();
+            for (ImageFile row : imageRepository.findFilesByFolderId(folder.getId())) {
+                ids.add(row.getId());
+            }
+            for (List<Long> batch : batches(ids)) {
+                Integer deleted = transaction.execute(status -> imageRepository.deleteByIdIn(batch));
+                progress.deleted.addAndGet(deleted != null ? deleted : 0);
+                rowsDeleted.increment(deleted != null ? deleted : 0);
+            }
+            transaction.executeWithoutResult(status -> {
+                grantRepository.deleteByFolderId(folder.getId());
+                folderRepository.deleteById(folder.getId());
+            });
+            progress.removed.incrementAndGet();
+            eventPublisher.publishEvent(FolderChangeEvent.folder(FolderChangeEvent.Type.FOLDER_DELETED, folder.getName()));
+        } catch (IOException | RuntimeException e) {
+            logger.error("Errore nella rimozione della cartella {} dal database: {}", folder.getName(), e.getMessage());
+        }
+    }
+
+    private <T> List<List<T>> batches(List<T> items) {
+        List<List<T>> batches = new ArrayList<>();
+        for (int i = 0; i < items.size(); i += batchSize) {
+            batches.add(items.subList(i, Math.min(items.size(), i + batchSize)));
+        }
+        return batches;
+    }
+
+    private static Report report(Progress progress, long start) {
+        return new Report(progress.scanned.get(), progress.skipped.get(), progress.added.get(), progress.removed.get(),
+                progress.inserted.get(), progress.updated.get(), progress.deleted.get(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+}
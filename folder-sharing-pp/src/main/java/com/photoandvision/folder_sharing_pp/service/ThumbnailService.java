@@ -0,0 +1,421 @@
+package com.photoandvision.folder_sharing_pp.service;
+
+import com.photoandvision.folder_sharing_pp.config.WorkerPoolFactory;
+import com.photoandvision.folder_sharing_pp.storage.StorageBackend;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Stream;
+
+// Servizio che genera versioni ridimensionate delle immagini e le conserva in una cache su disco
+@Service
+public class ThumbnailService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ThumbnailService.class);
+
+    // Formati di output supportati per le varianti
+    public enum Format {
+        JPEG("jpg", "image/jpeg"),
+        PNG("png", "image/png");
+
+        private final String extension;
+        private final String mimeType;
+
+        Format(String extension, String mimeType) {
+            this.extension = extension;
+            this.mimeType = mimeType;
+        }
+
+        public String getMimeType() {
+            return mimeType;
+        }
+
+        // Restituisce il formato corrispondente al parametro fmt, oppure null se non è supportato
+        public static Format parse(String value) {
+            switch (value.toLowerCase(Locale.ROOT)) {
+                case "jpg":
+                case "jpeg":
+                    return JPEG;
+                case "png":
+                    return PNG;
+                default:
+                    return null;
+            }
+        }
+    }
+
+    // Variante aperta in lettura: resta leggibile anche se la pulizia della cache ne elimina il file durante l'invio.
+    // La chiave identifica la versione dell'originale e della variante, ed è usata come ETag
+    public record Variant(String key, long size, InputStream input) {
+
+        // Resource da leggere una sola volta, con la dimensione nota per Content-Length
+        public Resource resource() {
+            return new InputStreamResource(input) {
+                @Override
+                public long contentLength() {
+                    return size;
+                }
+            };
+        }
+    }
+
+    private final StorageBackend storage; // Archivio degli originali
+    private final ExecutorService executor; // Pool limitato che esegue i ridimensionamenti
+    private final Path cacheDir; // Directory della cache delle varianti
+    private final long maxCacheBytes; // Budget massimo in byte della cache
+    private final int maxWidth; // Larghezza massima richiedibile
+    private final int[] presetWidths; // Larghezze generate subito dopo un upload
+    private final long renderTimeoutSeconds; // Attesa massima di una richiesta per la generazione
+    private final Timer renderTimer; // Durata della generazione di una variante
+
+    // Generazioni in corso: richieste concorrenti per la stessa variante attendono lo stesso risultato
+    private final Map<String, CompletableFuture<Path>> inFlight = new ConcurrentHashMap<>();
+
+    // Voci della cache in ordine di accesso (LRU): chiave -> dimensione del file in byte
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private long cachedBytes; // Byte occupati dalla cache, protetti dal lock su entries
+
+    public ThumbnailService(StorageBackend storage,
+                            WorkerPoolFactory workerPoolFactory,
+                            MeterRegistry registry,
+                            @Value("${thumbnail.cache.dir}") String cacheDir,
+                            @Value("${thumbnail.cache.max-bytes:1073741824}") long maxCacheBytes,
+                            @Value("${thumbnail.max-width:2048}") int maxWidth,
+                            @Value("${thumbnail.preset-widths:}") int[] presetWidths,
+                            @Value("${thumbnail.workers:2}") int workers,
+                            @Value("${thumbnail.queue-capacity:256}") int queueCapacity,
+                            @Value("${thumbnail.render-timeout-seconds:30}") long renderTimeoutSeconds) {
+        this.storage = storage;
+        this.executor = workerPoolFactory.newBoundedPool("thumbnail", workers, queueCapacity);
+        this.cacheDir = Paths.get(cacheDir);
+        this.maxCacheBytes = maxCacheBytes;
+        this.maxWidth = maxWidth;
+        this.presetWidths = presetWidths;
+        this.renderTimeoutSeconds = renderTimeoutSeconds;
+        this.renderTimer = Timer.builder("thumbnail.render").register(registry);
+    }
+
+    // Ricostruisce l'indice LRU dai file già presenti, dal meno recente al più recente
+    @PostConstruct
+    public void loadCache() throws IOException {
+        Files.createDirectories(cacheDir);
+        try (Stream<Path> files = Files.walk(cacheDir)) {
+            files.filter(Files::isRegularFile)
+                    .filter(file -> !file.getFileName().toString().endsWith(".tmp"))
+                    .sorted(Comparator.comparingLong(ThumbnailService::lastModified))
+                    .forEach(file -> register(cacheKeyOf(file), size(file)));
+        }
+        logger.info("Cache miniature caricata: {} file, {} byte", entries.size(), cachedBytes);
+    }
+
+    public boolean isValidWidth(int width) {
+        return width >= 16 && width <= maxWidth;
+    }
+
+    // Apre la variante richiesta, generandola se non è ancora in cache. Lo stream va chiuso dal chiamante.
+    // Lancia NoSuchFileException se l'originale non esiste
+    public Variant openVariant(String folderName, String imageName, int width, Format format) throws IOException {
+        StorageBackend.ObjectInfo info = storage.stat(folderName, imageName);
+        if (info == null) {
+            throw new NoSuchFileException(folderName + "/" + imageName);
+        }
+        String key = cacheKey(folderName, imageName, info, width, format);
+        Path target = cacheFile(key, format);
+
+        try {
+            Variant variant = open(key, target);
+            touch(key); // Hit: aggiorna solo l'ordine LRU
+            return variant;
+        } catch (NoSuchFileException e) {
+            // Miss, oppure il file è stato eliminato dalla pulizia della cache dopo essere stato trovato: va generato
+        }
+
+        Path rendered = await(render(folderName, imageName, info, key, target, width, format), folderName, imageName);
+        try {
+            return open(key, rendered);
+        } catch (NoSuchFileException e) {
+            // Eliminata da un'altra generazione subito dopo essere stata scritta: budget della cache troppo piccolo
+            throw new IOException("Miniatura eliminata dalla cache prima dell'invio: " + folderName + "/" + imageName, e);
+        }
+    }
+
+    private Path await(CompletableFuture<Path> future, String folderName, String imageName) throws IOException {
+        try {
+            return future.get(renderTimeoutSeconds, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Generazione della variante interrotta", e);
+        } catch (TimeoutException e) {
+            throw new IOException("Generazione della variante troppo lenta: " + folderName + "/" + imageName, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RejectedExecutionException) {
+                throw (RejectedExecutionException) cause;
+            }
+            throw new IOException("Generazione della variante fallita: " + folderName + "/" + imageName, cause);
+        }
+    }
+
+    private static Variant open(String key, Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            return new Variant(key, channel.size(), Channels.newInputStream(channel));
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    // Genera in background le larghezze configurate per un file appena caricato
+    public void pregenerate(String folderName, String imageName) {
+        if (presetWidths.length == 0) {
+            return;
+        }
+        try {
+            StorageBackend.ObjectInfo info = storage.stat(folderName, imageName);
+            if (info == null) {
+                return; // Eliminata nel frattempo
+            }
+            for (int width : presetWidths) {
+                String key = cacheKey(folderName, imageName, info, width, Format.JPEG);
+                Path target = cacheFile(key, Format.JPEG);
+                if (!Files.exists(target) && render(folderName, imageName, info, key, target, width, Format.JPEG).isCompletedExceptionally()) {
+                    logger.warn("Coda delle miniature piena, pre-generazione saltata per {}/{}", folderName, imageName);
+                    return; // Le varianti mancanti verranno generate su richiesta
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Pre-generazione della miniatura saltata per {}/{}: {}", folderName, imageName, e.getMessage());
+        }
+    }
+
+    // Avvia la generazione oppure si aggancia a quella già in corso per la stessa chiave
+    private CompletableFuture<Path> render(String folderName, String imageName, StorageBackend.ObjectInfo info,
+                                           String key, Path target, int width, Format format) {
+        CompletableFuture<Path> created = new CompletableFuture<>();
+        CompletableFuture<Path> existing = inFlight.putIfAbsent(key, created);
+        if (existing != null) {
+            return existing;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    created.complete(resize(storage.resource(folderName, imageName, info), key, target, width, format));
+                } catch (Throwable t) {
+                    created.completeExceptionally(t);
+                } finally {
+                    inFlight.remove(key, created);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(key, created);
+            created.completeExceptionally(e);
+        }
+        return created;
+    }
+
+    // Legge l'originale sottocampionato, lo scala alla larghezza richiesta e lo scrive in modo atomico
+    private Path resize(Resource source, String key, Path target, int width, Format format) throws IOException {
+        if (Files.exists(target)) {
+            return target; // Generata da una richiesta precedente mentre questa era in coda
+        }
+
+        long start = System.nanoTime();
+        BufferedImage original = readSubsampled(source, width);
+        int targetWidth = Math.min(width, original.getWidth()); // Non ingrandisce mai l'originale
+        int targetHeight = Math.max(1, (int) Math.round((double) original.getHeight() * targetWidth / original.getWidth()));
+
+        int type = format == Format.JPEG ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB;
+        BufferedImage scaled = new BufferedImage(targetWidth, targetHeight, type);
+        Graphics2D graphics = scaled.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.drawImage(original, 0, 0, targetWidth, targetHeight, null);
+        } finally {
+            graphics.dispose();
+        }
+
+        Files.createDirectories(target.getParent());
+        Path temp = Files.createTempFile(target.getParent(), key, ".tmp");
+        try {
+            write(scaled, format, temp);
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+
+        register(key, Files.size(target));
+        renderTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return target;
+    }
+
+    // Decodifica l'immagine saltando i pixel non necessari, così gli originali grandi non vengono caricati interi in memoria.
+    // Un file locale viene letto ad accesso casuale, un oggetto remoto in streaming
+    private BufferedImage readSubsampled(Resource source, int width) throws IOException {
+        InputStream stream = source.isFile() ? null : source.getInputStream();
+        try (ImageInputStream input = ImageIO.createImageInputStream(stream != null ? stream : source.getFile())) {
+            Iterator<ImageReader> readers = input != null ? ImageIO.getImageReaders(input) : null;
+            if (readers == null || !readers.hasNext()) {
+                throw new IOException("Formato immagine non supportato: " + source.getFilename());
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                ImageReadParam param = reader.getDefaultReadParam();
+                int subsampling = Math.max(1, reader.getWidth(0) / (width * 2)); // Mantiene almeno il doppio dei pixel finali
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        } finally {
+            if (stream != null) {
+                stream.close();
+            }
+        }
+    }
+
+    private void write(BufferedImage image, Format format, Path file) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName(format.extension).next();
+        try (ImageOutputStream output = ImageIO.createImageOutputStream(file.toFile())) {
+            writer.setOutput(output);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            if (format == Format.JPEG) {
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(0.85f);
+            }
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    // Aggiunge una voce alla cache ed elimina le meno usate finché si rientra nel budget.
+    // I file vengono cancellati fuori dal blocco sincronizzato, così un thread virtuale non resta bloccato sul carrier
+    private void register(String key, long size) {
+        List<String> evicted = new ArrayList<>();
+        synchronized (entries) {
+            Long previous = entries.put(key, size);
+            cachedBytes += size - (previous != null ? previous : 0);
+
+            Iterator<Map.Entry<String, Long>> eldest = entries.entrySet().iterator();
+            while (cachedBytes > maxCacheBytes && eldest.hasNext()) {
+                Map.Entry<String, Long> entry = eldest.next();
+                if (entry.getKey().equals(key)) {
+                    continue; // Non elimina la variante appena generata
+                }
+                eldest.remove();
+                cachedBytes -= entry.getValue();
+                evicted.add(entry.getKey());
+            }
+        }
+        for (String evictedKey : evicted) {
+            deleteCached(evictedKey);
+        }
+    }
+
+    private void touch(String key) {
+        synchronized (entries) {
+            entries.get(key);
+        }
+    }
+
+    private void deleteCached(String key) {
+        for (Format format : Format.values()) {
+            try {
+                Files.deleteIfExists(cacheFile(key, format));
+            } catch (IOException e) {
+                logger.warn("Impossibile eliminare la miniatura {}: {}", key, e.getMessage());
+            }
+        }
+    }
+
+    // La chiave dipende da posizione, data di modifica e dimensione dell'originale: se il file cambia, la variante viene rigenerata
+    private String cacheKey(String folderName, String imageName, StorageBackend.ObjectInfo info, int width, Format format) {
+        String raw = storage.location(folderName, imageName) + "|" + info.lastModified()
+                + "|" + info.size() + "|" + width + "|" + format.name();
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(raw.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Le varianti sono distribuite in sottocartelle per non avere troppi file in una sola directory
+    private Path cacheFile(String key, Format format) {
+        return cacheDir.resolve(key.substring(0, 2)).resolve(key + "." + format.extension);
+    }
+
+    private static String cacheKeyOf(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    private static long lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            return 0L;
+        }
+    }
+
+    private static long size(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            return 0L;
+        }
+    }
+}
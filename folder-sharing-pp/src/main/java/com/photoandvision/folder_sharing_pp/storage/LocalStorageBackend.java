@@ -0,0 +1,525 @@
+package com.photoandvision.folder_sharing_pp.storage;
+
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// Archivio su disco locale. I file di una cartella possono essere distribuiti:
+// - su più dischi (storage.local.roots), scelti dall'hash di cartella e nome, per sommarne il throughput;
+// - in sottocartelle (storage.local.shards), scelte dall'hash del nome, perché nessuna directory contenga centinaia di migliaia di file.
+// Con un solo disco e shards=0 il layout è quello originale: <upload.dir>/<cartella>/<file>.
+// I file salvati nel layout originale restano leggibili anche dopo aver attivato le sottocartelle.
+// Ogni contenuto è memorizzato una sola volta per disco in .blobs (indirizzato per hash) e collegato alle cartelle con un hard link;
+// i contenuti non più collegati a nessuna cartella vengono eliminati periodicamente
+@Component
+@ConditionalOnProperty(name = "storage.type", havingValue = "local", matchIfMissing = true)
+public class LocalStorageBackend implements StorageBackend {
+
+    private static final Logger logger = LoggerFactory.getLogger(LocalStorageBackend.class);
+
+    public static final String BLOB_DIR = ".blobs"; // Contenuti memorizzati per hash SHA-256
+
+    private final List<Path> roots; // Il primo è la directory principale, che contiene anche il layout originale
+    private final String[] shardNames; // Nomi delle sottocartelle, vuoto se i file stanno direttamente nella cartella
+    private final boolean[] blobStore; // Per disco: false se il filesystem non supporta hard link o numero di collegamenti
+    private final Object[] blobLocks = new Object[256]; // Scelti dall'hash del contenuto: put contro pulizia di .blobs
+
+    public LocalStorageBackend(@Value("${storage.local.roots:${upload.dir}}") String[] roots,
+                               @Value("${storage.local.shards:0}") int shards) {
+        this.roots = new ArrayList<>(roots.length);
+        for (String root : roots) {
+            this.roots.add(Paths.get(root.trim()));
+        }
+        int width = shards > 0 ? Integer.toHexString(shards - 1).length() : 0;
+        this.shardNames = new String[Math.max(0, shards)];
+        for (int i = 0; i < shardNames.length; i++) {
+            shardNames[i] = String.format("%0" + width + "x", i);
+        }
+        this.blobStore = new boolean[this.roots.size()];
+        for (int i = 0; i < blobLocks.length; i++) {
+            blobLocks[i] = new Object();
+        }
+    }
+
+    @PostConstruct
+    public void createDirectories() throws IOException {
+        for (int i = 0; i < roots.size(); i++) {
+            Path blobs = Files.createDirectories(roots.get(i).resolve(BLOB_DIR));
+            blobStore[i] = supportsLinks(blobs);
+            if (!blobStore[i]) {
+                logger.warn("{}: hard link non supportati, i contenuti uguali non vengono condivisi", roots.get(i));
+            }
+        }
+    }
+
+    // Prova a collegare un file temporaneo: serve anche leggere il numero di collegamenti, per eliminare i contenuti non più usati
+    private static boolean supportsLinks(Path blobs) throws IOException {
+        Path probe = blobs.resolve(".probe." + UUID.randomUUID());
+        Path link = probe.resolveSibling(probe.getFileName() + ".link");
+        try {
+            Files.createFile(probe);
+            Files.createLink(link, probe);
+            return linkCount(probe) == 2;
+        } catch (UnsupportedOperationException | IllegalArgumentException | FileSystemException e) {
+            return false;
+        } finally {
+            Files.deleteIfExists(link);
+            Files.deleteIfExists(probe);
+        }
+    }
+
+    // Sposta il file in .blobs del disco di destinazione se il contenuto è nuovo, poi lo collega alla cartella
+    // sostituendo in modo atomico un eventuale file con lo stesso nome. Senza hard link il file va direttamente nella cartella
+    @Override
+    public PutResult put(String folderName, String fileName, Path source, String sha256) throws IOException {
+        checkNames(folderName, fileName);
+        int disk = diskOf(folderName, fileName);
+        Path target = target(disk, folderName, fileName);
+        Files.createDirectories(target.getParent());
+        Path temp = target.resolveSibling("." + fileName + "." + UUID.randomUUID() + ".part"); // Nascosto negli elenchi
+        boolean deduplicated = false;
+        try {
+            if (blobStore[disk]) {
+                deduplicated = link(disk, source, sha256, temp);
+            } else {
+                moveAtomically(source, temp);
+            }
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+
+        Path legacy = legacy(folderName, fileName);
+        if (!legacy.equals(target)) {
+            Files.deleteIfExists(legacy); // Versione precedente nel layout originale, altrimenti comparirebbe due volte
+        }
+        BasicFileAttributes attributes = Files.readAttributes(target, BasicFileAttributes.class);
+        return new PutResult(new ObjectInfo(fileName, attributes.size(), attributes.lastModifiedTime().toMillis()), deduplicated);
+    }
+
+    // Crea temp come hard link al contenuto in .blobs, spostandovi source se il contenuto è nuovo.
+    // Restituisce true se il contenuto era già memorizzato
+    private boolean link(int disk, Path source, String sha256, Path temp) throws IOException {
+        Path blob = roots.get(disk).resolve(BLOB_DIR).resolve(sha256.substring(0, 2)).resolve(sha256.substring(2, 4)).resolve(sha256);
+        synchronized (blobLock(sha256)) {
+            boolean deduplicated = Files.exists(blob);
+            if (!deduplicated) {
+                Files.createDirectories(blob.getParent());
+                moveAtomically(source, blob);
+            }
+            try {
+                Files.createLink(temp, blob);
+            } catch (FileSystemException e) {
+                // Di solito troppi collegamenti allo stesso contenuto: il file va nella cartella senza condividerlo
+                if (deduplicated) {
+                    moveAtomically(source, temp);
+                } else {
+                    Files.move(blob, temp, StandardCopyOption.ATOMIC_MOVE);
+                }
+                return false;
+            }
+            return deduplicated;
+        }
+    }
+
+    // Elimina da .blobs i contenuti che nessuna cartella usa più (un solo collegamento): restano dopo l'eliminazione
+    // o la sostituzione dei file. Il lock esclude un put concorrente, che potrebbe collegare di nuovo il contenuto
+    @Scheduled(initialDelayString = "${storage.local.blob-gc-initial-delay-ms:300000}",
+            fixedDelayString = "${storage.local.blob-gc-interval-ms:3600000}")
+    public void removeUnusedBlobs() {
+        int removed = 0;
+        for (int i = 0; i < roots.size(); i++) {
+            if (!blobStore[i]) {
+                continue;
+            }
+            try (Stream<Path> blobs = Files.walk(roots.get(i).resolve(BLOB_DIR), 3)) {
+                for (Path blob : (Iterable<Path>) blobs::iterator) {
+                    String name = blob.getFileName().toString();
+                    if (name.length() != 64 || name.indexOf('.') >= 0) {
+                        continue; // Directory dei prefissi e file temporanei
+                    }
+                    synchronized (blobLock(name)) {
+                        if (Files.isRegularFile(blob) && linkCount(blob) == 1) {
+                            Files.delete(blob);
+                            removed++;
+                        }
+                    }
+                }
+            } catch (IOException | UncheckedIOException e) {
+                logger.warn("Pulizia di {} interrotta: {}", roots.get(i).resolve(BLOB_DIR), e.getMessage());
+            }
+        }
+        if (removed > 0) {
+            logger.info("Eliminati {} contenuti non più usati da {}", removed, BLOB_DIR);
+        }
+    }
+
+    private Object blobLock(String sha256) {
+        return blobLocks[(sha256.charAt(0) * 31 + sha256.charAt(1)) & (blobLocks.length - 1)];
+    }
+
+    private static int linkCount(Path path) throws IOException {
+        return (Integer) Files.getAttribute(path, "unix:nlink");
+    }
+
+    @Override
+    public ObjectInfo stat(String folderName, String fileName) throws IOException {
+        if (!StorageBackend.isValidName(folderName) || !StorageBackend.isValidName(fileName)) {
+            return null;
+        }
+        Path target = target(diskOf(folderName, fileName), folderName, fileName);
+        BasicFileAttributes attributes = attributes(target);
+        if (attributes == null) {
+            Path legacy = legacy(folderName, fileName);
+            attributes = legacy.equals(target) ? null : attributes(legacy);
+        }
+        if (attributes == null || !attributes.isRegularFile()) {
+            return null;
+        }
+        return new ObjectInfo(fileName, attributes.size(), attributes.lastModifiedTime().toMillis());
+    }
+
+    @Override
+    public InputStream getRange(String folderName, String fileName, long offset, long length) throws IOException {
+        FileChannel channel = FileChannel.open(existing(folderName, fileName), StandardOpenOption.READ);
+        try {
+            channel.position(offset);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        InputStream input = Channels.newInputStream(channel);
+        return length >= 0 ? new BoundedInputStream(input, length) : input;
+    }
+
+    // Legge la cartella su ogni disco: i file direttamente contenuti (layout originale) e quelli delle sottocartelle
+    @Override
+    public void list(String folderName, ObjectConsumer consumer) throws IOException {
+        if (!StorageBackend.isValidName(folderName)) {
+            throw new NoSuchFileException(folderName);
+        }
+        boolean found = false;
+        for (Path root : roots) {
+            Path dir = root.resolve(folderName);
+            if (roots.size() > 1 && !Files.isDirectory(dir)) {
+                continue; // La cartella non ha ancora file su questo disco
+            }
+            listDirectory(dir, true, consumer);
+            found = true;
+        }
+        if (!found) {
+            throw new NoSuchFileException(folderName);
+        }
+    }
+
+    @Override
+    public void listFolders(ObjectConsumer consumer) throws IOException {
+        if (roots.size() == 1) {
+            listSubdirectories(roots.get(0), consumer);
+            return;
+        }
+        // Con più dischi la stessa cartella compare su ognuno: data di modifica più recente
+        Map<String, Long> folders = new LinkedHashMap<>();
+        for (Path root : roots) {
+            listSubdirectories(root, info -> folders.merge(info.name(), info.lastModified(), Math::max));
+        }
+        for (Map.Entry<String, Long> folder : folders.entrySet()) {
+            consumer.accept(new ObjectInfo(folder.getKey(), 0L, folder.getValue()));
+        }
+    }
+
+    // Data di modifica più recente tra le directory della cartella (e le sue sottocartelle) su tutti i dischi:
+    // aggiungere, sostituire (rename atomico) o eliminare un file cambia la data della directory che lo contiene.
+    // Non cambia se un file viene riscritto sul posto da un programma esterno
+    @Override
+    public long folderVersion(String folderName) throws IOException {
+        if (!StorageBackend.isValidName(folderName)) {
+            throw new NoSuchFileException(folderName);
+        }
+        long version = -1;
+        boolean found = false;
+        for (Path root : roots) {
+            Path dir = root.resolve(folderName);
+            BasicFileAttributes attributes = attributes(dir);
+            if (attributes == null || !attributes.isDirectory()) {
+                continue;
+            }
+            found = true;
+            version = Math.max(version, attributes.lastModifiedTime().to(TimeUnit.MICROSECONDS));
+            for (String shard : shardNames) {
+                BasicFileAttributes shardAttributes = attributes(dir.resolve(shard));
+                if (shardAttributes != null) {
+                    version = Math.max(version, shardAttributes.lastModifiedTime().to(TimeUnit.MICROSECONDS));
+                }
+            }
+        }
+        if (!found) {
+            throw new NoSuchFileException(folderName);
+        }
+        return version;
+    }
+
+    @Override
+    public boolean delete(String folderName, String fileName) throws IOException {
+        if (!StorageBackend.isValidName(folderName) || !StorageBackend.isValidName(fileName)) {
+            return false;
+        }
+        Path target = target(diskOf(folderName, fileName), folderName, fileName);
+        Path legacy = legacy(folderName, fileName);
+        boolean deleted = Files.deleteIfExists(target);
+        if (!legacy.equals(target)) {
+            deleted |= Files.deleteIfExists(legacy);
+        }
+        return deleted;
+    }
+
+    @Override
+    public boolean createFolder(String folderName) throws IOException {
+        checkNames(folderName, null);
+        if (folderExists(folderName)) {
+            return false;
+        }
+        try {
+            Files.createDirectory(roots.get(0).resolve(folderName)); // Sugli altri dischi viene creata al primo file
+            return true;
+        } catch (FileAlreadyExistsException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public boolean folderExists(String folderName) {
+        if (!StorageBackend.isValidName(folderName)) {
+            return false;
+        }
+        for (Path root : roots) {
+            if (Files.isDirectory(root.resolve(folderName))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Elimina la cartella su ogni disco. Prosegue dopo un errore e lancia il primo alla fine
+    @Override
+    public void deleteFolder(String folderName) throws IOException {
+        checkNames(folderName, null);
+        List<IOException> errors = new ArrayList<>();
+        for (Path root : roots) {
+            Path dir = root.resolve(folderName);
+            if (!Files.exists(dir)) {
+                continue;
+            }
+            Files.walkFileTree(dir, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    deleteQuietly(file, errors);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    errors.add(e);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path directory, IOException e) {
+                    if (e != null) {
+                        errors.add(e);
+                    } else {
+                        deleteQuietly(directory, errors);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        if (!errors.isEmpty()) {
+            throw errors.get(0);
+        }
+    }
+
+    @Override
+    public String location(String folderName, String fileName) {
+        return target(diskOf(folderName, fileName), folderName, fileName).toString();
+    }
+
+    // Il WatchService osserva solo le voci dirette: serve un solo disco, e per le cartelle nessuna sottocartella
+    @Override
+    public Path watchDirectory(String folderName) {
+        if (roots.size() != 1) {
+            return null;
+        }
+        if (folderName == null) {
+            return roots.get(0);
+        }
+        return shardNames.length == 0 ? roots.get(0).resolve(folderName) : null;
+    }
+
+    // Sul disco locale Spring legge il file direttamente
+    @Override
+    public Resource resource(String folderName, String fileName, ObjectInfo info) {
+        try {
+            return new FileSystemResource(existing(folderName, fileName));
+        } catch (NoSuchFileException e) {
+            return StorageBackend.super.resource(folderName, fileName, info); // Rimosso dopo stat: l'errore emerge alla lettura
+        }
+    }
+
+    // Percorso del file, oppure NoSuchFileException se non esiste né nel nuovo layout né in quello originale
+    private Path existing(String folderName, String fileName) throws NoSuchFileException {
+        if (!StorageBackend.isValidName(folderName) || !StorageBackend.isValidName(fileName)) {
+            throw new NoSuchFileException(folderName + "/" + fileName);
+        }
+        Path target = target(diskOf(folderName, fileName), folderName, fileName);
+        if (Files.exists(target)) {
+            return target;
+        }
+        Path legacy = legacy(folderName, fileName);
+        if (!legacy.equals(target) && Files.exists(legacy)) {
+            return legacy;
+        }
+        throw new NoSuchFileException(target.toString());
+    }
+
+    private Path target(int disk, String folderName, String fileName) {
+        Path dir = roots.get(disk).resolve(folderName);
+        if (shardNames.length == 0) {
+            return dir.resolve(fileName);
+        }
+        return dir.resolve(shardNames[Math.floorMod(mix(fileName.hashCode()), shardNames.length)]).resolve(fileName);
+    }
+
+    // Percorso del file nel layout originale
+    private Path legacy(String folderName, String fileName) {
+        return roots.get(0).resolve(folderName).resolve(fileName);
+    }
+
+    private int diskOf(String folderName, String fileName) {
+        if (roots.size() == 1) {
+            return 0;
+        }
+        return Math.floorMod(mix(folderName.hashCode() * 31 + fileName.hashCode()), roots.size());
+    }
+
+    // Distribuisce meglio i bit di String.hashCode, i cui bit bassi variano poco tra nomi simili (IMG_0001, IMG_0002, ...)
+    private static int mix(int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private void listDirectory(Path dir, boolean descend, ObjectConsumer consumer) throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                if (name.startsWith(".")) {
+                    continue; // Le voci nascoste sono file interni (upload in corso)
+                }
+                BasicFileAttributes attributes = attributes(path);
+                if (attributes == null) {
+                    continue; // Il file è stato rimosso durante la lettura
+                }
+                if (attributes.isRegularFile()) {
+                    consumer.accept(new ObjectInfo(name, attributes.size(), attributes.lastModifiedTime().toMillis()));
+                } else if (descend && attributes.isDirectory() && isShardName(name)) {
+                    listDirectory(path, false, consumer);
+                }
+            }
+        }
+    }
+
+    private boolean isShardName(String name) {
+        if (shardNames.length == 0 || name.length() != shardNames[0].length()) {
+            return false;
+        }
+        try {
+            return Integer.parseInt(name, 16) < shardNames.length;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private void listSubdirectories(Path root, ObjectConsumer consumer) throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(root)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                if (name.startsWith(".")) {
+                    continue; // Archivio dei contenuti e area di staging
+                }
+                BasicFileAttributes attributes = attributes(path);
+                if (attributes != null && attributes.isDirectory()) {
+                    consumer.accept(new ObjectInfo(name, 0L, attributes.lastModifiedTime().toMillis()));
+                }
+            }
+        }
+    }
+
+    private static BasicFileAttributes attributes(Path path) {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // Sposta il file in modo atomico; se la destinazione è su un altro disco lo copia accanto e poi lo rinomina
+    private static void moveAtomically(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Path temp = target.resolveSibling(target.getFileName() + "." + UUID.randomUUID() + ".tmp");
+            try {
+                Files.copy(source, temp);
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+
+    private static void checkNames(String folderName, String fileName) {
+        if (!StorageBackend.isValidName(folderName) || (fileName != null && !StorageBackend.isValidName(fileName))) {
+            throw new IllegalArgumentException("Nome non valido: " + folderName + (fileName != null ? "/" + fileName : ""));
+        }
+    }
+
+    private static void deleteQuietly(Path path, List<IOException> errors) {
+        try {
+            Files.delete(path);
+        } catch (IOException e) {
+            errors.add(e); // Di solito perché un file al suo interno non è stato eliminato
+        }
+    }
+}
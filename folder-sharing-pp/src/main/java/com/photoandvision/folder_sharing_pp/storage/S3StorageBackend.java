@@ -0,0 +1,282 @@
+package com.photoandvision.folder_sharing_pp.storage;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3ClientBuilder;
+import software.amazon.awssdk.services.s3.model.CommonPrefix;
+import software.amazon.awssdk.services.s3.model.CompletedMultipartUpload;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.Delete;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ObjectIdentifier;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+// Archivio su object store compatibile S3 (AWS S3, MinIO, Ceph RGW, ...). Ogni file è l'oggetto <prefisso><cartella>/<nome>;
+// una cartella vuota è rappresentata dall'oggetto segnaposto <prefisso><cartella>/.
+// Per provarlo in locale basta un MinIO con storage.s3.endpoint=http://localhost:9000 e storage.s3.path-style=true
+@Component
+@ConditionalOnProperty(name = "storage.type", havingValue = "s3")
+public class S3StorageBackend implements StorageBackend {
+
+    private static final int DELETE_BATCH_SIZE = 1000; // Massimo di chiavi per DeleteObjects
+
+    private final S3Client client;
+    private final String bucket;
+    private final String prefix; // Prefisso delle chiavi, vuoto o terminato da "/"
+    private final long multipartThreshold; // Oltre questa dimensione il file viene caricato in più parti
+    private final long partSize;
+
+    public S3StorageBackend(@Value("${storage.s3.bucket}") String bucket,
+                            @Value("${storage.s3.prefix:}") String prefix,
+                            @Value("${storage.s3.region:us-east-1}") String region,
+                            @Value("${storage.s3.endpoint:}") String endpoint,
+                            @Value("${storage.s3.path-style:false}") boolean pathStyle,
+                            @Value("${storage.s3.access-key:}") String accessKey,
+                            @Value("${storage.s3.secret-key:}") String secretKey,
+                            @Value("${storage.s3.multipart-threshold:104857600}") long multipartThreshold,
+                            @Value("${storage.s3.part-size:67108864}") long partSize) {
+        S3ClientBuilder builder = S3Client.builder()
+                .region(Region.of(region))
+                .forcePathStyle(pathStyle); // Necessario per gli endpoint senza DNS per bucket (es. MinIO in locale)
+        if (!endpoint.isBlank()) {
+            builder.endpointOverride(URI.create(endpoint));
+        }
+        builder.credentialsProvider(accessKey.isBlank()
+                ? DefaultCredentialsProvider.create()
+                : StaticCredentialsProvider.create(AwsBasicCredentials.create(accessKey, secretKey)));
+        this.client = builder.build();
+        this.bucket = bucket;
+        this.prefix = prefix.isEmpty() || prefix.endsWith("/") ? prefix : prefix + "/";
+        this.multipartThreshold = multipartThreshold;
+        this.partSize = partSize;
+    }
+
+    // La deduplica per hash non riduce lo spazio su S3: l'hash viene salvato nei metadati dell'oggetto
+    @Override
+    public PutResult put(String folderName, String fileName, Path source, String sha256) throws IOException {
+        checkNames(folderName, fileName);
+        String key = key(folderName, fileName);
+        long size = Files.size(source);
+        try {
+            if (size > multipartThreshold) {
+                putMultipart(key, source, size, sha256);
+            } else {
+                client.putObject(request -> request.bucket(bucket).key(key).contentLength(size).metadata(Map.of("sha256", sha256)),
+                        RequestBody.fromFile(source));
+            }
+        } catch (S3Exception e) {
+            throw new IOException("Salvataggio di " + key + " fallito: " + e.getMessage(), e);
+        }
+        return new PutResult(new ObjectInfo(fileName, size, System.currentTimeMillis()), false);
+    }
+
+    @Override
+    public ObjectInfo stat(String folderName, String fileName) throws IOException {
+        if (!StorageBackend.isValidName(folderName) || !StorageBackend.isValidName(fileName)) {
+            return null;
+        }
+        try {
+            HeadObjectResponse head = client.headObject(request -> request.bucket(bucket).key(key(folderName, fileName)));
+            return new ObjectInfo(fileName, head.contentLength(), head.lastModified().toEpochMilli());
+        } catch (S3Exception e) {
+            if (e.statusCode() == 404) {
+                return null;
+            }
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public InputStream getRange(String folderName, String fileName, long offset, long length) throws IOException {
+        if (!StorageBackend.isValidName(folderName) || !StorageBackend.isValidName(fileName)) {
+            throw new NoSuchFileException(folderName + "/" + fileName);
+        }
+        String key = key(folderName, fileName);
+        String range = length >= 0 ? "bytes=" + offset + "-" + (offset + length - 1) : offset > 0 ? "bytes=" + offset + "-" : null;
+        try {
+            return client.getObject(request -> request.bucket(bucket).key(key).range(range));
+        } catch (S3Exception e) {
+            if (e.statusCode() == 404) {
+                throw new NoSuchFileException(key);
+            }
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    // Elenca solo gli oggetti diretti della cartella, una pagina di chiavi alla volta
+    @Override
+    public void list(String folderName, ObjectConsumer consumer) throws IOException {
+        if (!StorageBackend.isValidName(folderName)) {
+            throw new NoSuchFileException(folderName);
+        }
+        String folderPrefix = prefix + folderName + "/";
+        boolean found = false;
+        try {
+            for (S3Object object : client.listObjectsV2Paginator(listRequest(folderPrefix)).contents()) {
+                found = true;
+                String name = object.key().substring(folderPrefix.length());
+                if (!name.isEmpty() && !name.startsWith(".")) {
+                    consumer.accept(new ObjectInfo(name, object.size(), object.lastModified().toEpochMilli()));
+                }
+            }
+        } catch (S3Exception e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        if (!found) {
+            throw new NoSuchFileException(folderName);
+        }
+    }
+
+    // Le cartelle sono i prefissi comuni: S3 non ha una data di modifica per i prefissi
+    @Override
+    public void listFolders(ObjectConsumer consumer) throws IOException {
+        try {
+            for (CommonPrefix common : client.listObjectsV2Paginator(listRequest(prefix)).commonPrefixes()) {
+                String name = common.prefix().substring(prefix.length(), common.prefix().length() - 1);
+                if (!name.isEmpty() && !name.startsWith(".")) {
+                    consumer.accept(new ObjectInfo(name, 0L, 0L));
+                }
+            }
+        } catch (S3Exception e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public boolean delete(String folderName, String fileName) throws IOException {
+        if (stat(folderName, fileName) == null) {
+            return false; // DeleteObject non distingue gli oggetti inesistenti
+        }
+        try {
+            client.deleteObject(request -> request.bucket(bucket).key(key(folderName, fileName)));
+            return true;
+        } catch (S3Exception e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public boolean createFolder(String folderName) throws IOException {
+        checkNames(folderName, null);
+        if (folderExists(folderName)) {
+            return false;
+        }
+        try {
+            client.putObject(request -> request.bucket(bucket).key(prefix + folderName + "/"), RequestBody.empty());
+            return true;
+        } catch (S3Exception e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public boolean folderExists(String folderName) throws IOException {
+        if (!StorageBackend.isValidName(folderName)) {
+            return false;
+        }
+        try {
+            return client.listObjectsV2(request -> request.bucket(bucket).prefix(prefix + folderName + "/").maxKeys(1)).keyCount() > 0;
+        } catch (S3Exception e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    // Elimina tutti gli oggetti con il prefisso della cartella, a blocchi di 1000 chiavi
+    @Override
+    public void deleteFolder(String folderName) throws IOException {
+        checkNames(folderName, null);
+        String folderPrefix = prefix + folderName + "/";
+        List<ObjectIdentifier> batch = new ArrayList<>(DELETE_BATCH_SIZE);
+        try {
+            for (S3Object object : client.listObjectsV2Paginator(request -> request.bucket(bucket).prefix(folderPrefix)).contents()) {
+                batch.add(ObjectIdentifier.builder().key(object.key()).build());
+                if (batch.size() == DELETE_BATCH_SIZE) {
+                    deleteBatch(batch);
+                }
+            }
+            deleteBatch(batch);
+        } catch (S3Exception e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public String location(String folderName, String fileName) {
+        return "s3://" + bucket + "/" + key(folderName, fileName);
+    }
+
+    @PreDestroy
+    public void close() {
+        client.close();
+    }
+
+    // Upload in più parti lette direttamente dal file: un singolo PUT è limitato a 5 GB
+    private void putMultipart(String key, Path source, long size, String sha256) throws IOException {
+        String uploadId = client.createMultipartUpload(request -> request.bucket(bucket).key(key).metadata(Map.of("sha256", sha256))).uploadId();
+        try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+            List<CompletedPart> parts = new ArrayList<>();
+            int partNumber = 1;
+            for (long offset = 0; offset < size; offset += partSize, partNumber++) {
+                long length = Math.min(partSize, size - offset);
+                channel.position(offset);
+                InputStream part = new BoundedInputStream(Channels.newInputStream(channel), length);
+                int number = partNumber;
+                String eTag = client.uploadPart(request -> request.bucket(bucket).key(key).uploadId(uploadId).partNumber(number).contentLength(length),
+                        RequestBody.fromInputStream(part, length)).eTag();
+                parts.add(CompletedPart.builder().partNumber(number).eTag(eTag).build());
+            }
+            client.completeMultipartUpload(request -> request.bucket(bucket).key(key).uploadId(uploadId)
+                    .multipartUpload(CompletedMultipartUpload.builder().parts(parts).build()));
+        } catch (IOException | RuntimeException e) {
+            client.abortMultipartUpload(request -> request.bucket(bucket).key(key).uploadId(uploadId)); // Le parti caricate non restano addebitate
+            throw e;
+        }
+    }
+
+    private void deleteBatch(List<ObjectIdentifier> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        client.deleteObjects(DeleteObjectsRequest.builder().bucket(bucket)
+                .delete(Delete.builder().objects(batch).quiet(true).build()).build());
+        batch.clear();
+    }
+
+    private ListObjectsV2Request listRequest(String listPrefix) {
+        return ListObjectsV2Request.builder().bucket(bucket).prefix(listPrefix).delimiter("/").build();
+    }
+
+    private String key(String folderName, String fileName) {
+        return prefix + folderName + "/" + fileName;
+    }
+
+    private static void checkNames(String folderName, String fileName) {
+        if (!StorageBackend.isValidName(folderName) || (fileName != null && !StorageBackend.isValidName(fileName))) {
+            throw new IllegalArgumentException("Nome non valido: " + folderName + (fileName != null ? "/" + fileName : ""));
+        }
+    }
+}
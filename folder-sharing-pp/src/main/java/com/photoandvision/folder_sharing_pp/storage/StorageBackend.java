@@ -0,0 +1,86 @@
+package com.photoandvision.folder_sharing_pp.storage;
+
+import org.springframework.core.io.Resource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+
+// Archivio dei file delle cartelle condivise. I controller e i servizi accedono ai file solo tramite questa interfaccia:
+// l'implementazione può essere il disco locale (LocalStorageBackend) o un object store compatibile S3 (S3StorageBackend).
+// Scelta con storage.type=local|s3
+public interface StorageBackend {
+
+    // Attributi di un file (o di una cartella, con dimensione 0)
+    record ObjectInfo(String name, long size, long lastModified) {
+    }
+
+    // Esito di put: deduplicated è true se il contenuto era già memorizzato
+    record PutResult(ObjectInfo info, boolean deduplicated) {
+    }
+
+    // Riceve le voci man mano che vengono elencate
+    @FunctionalInterface
+    interface ObjectConsumer {
+        void accept(ObjectInfo info) throws IOException;
+    }
+
+    // Salva nella cartella il file locale "source" (che viene consumato) sostituendo un eventuale file con lo stesso nome.
+    // sha256 è l'hash del contenuto, già calcolato dal chiamante
+    PutResult put(String folderName, String fileName, Path source, String sha256) throws IOException;
+
+    // Restituisce gli attributi del file, oppure null se non esiste
+    ObjectInfo stat(String folderName, String fileName) throws IOException;
+
+    // Apre il contenuto a partire da offset; length -1 legge fino alla fine.
+    // Lancia NoSuchFileException se il file non esiste
+    InputStream getRange(String folderName, String fileName, long offset, long length) throws IOException;
+
+    // Elenca i file della cartella, escluse le voci nascoste (che iniziano con ".").
+    // Lancia NoSuchFileException se la cartella non esiste
+    void list(String folderName, ObjectConsumer consumer) throws IOException;
+
+    // Elenca le cartelle, escluse quelle nascoste
+    void listFolders(ObjectConsumer consumer) throws IOException;
+
+    // Elimina il file e restituisce false se non esisteva
+    boolean delete(String folderName, String fileName) throws IOException;
+
+    // Crea la cartella e restituisce false se esisteva già
+    boolean createFolder(String folderName) throws IOException;
+
+    boolean folderExists(String folderName) throws IOException;
+
+    // Elimina la cartella con tutto ciò che contiene ancora
+    void deleteFolder(String folderName) throws IOException;
+
+    // Valore opaco che cambia quando vengono aggiunti, sostituiti o eliminati file della cartella, senza elencarla;
+    // -1 se l'archivio non lo fornisce (la cartella va sempre riletta). Lancia NoSuchFileException se la cartella non esiste
+    default long folderVersion(String folderName) throws IOException {
+        if (!folderExists(folderName)) {
+            throw new NoSuchFileException(folderName);
+        }
+        return -1;
+    }
+
+    // Posizione del file salvata nella colonna url delle immagini
+    String location(String folderName, String fileName);
+
+    // Directory da osservare con il WatchService per le modifiche esterne (folderName null per l'elenco delle cartelle),
+    // oppure null se l'archivio non ha una directory locale che contiene direttamente le voci
+    default Path watchDirectory(String folderName) {
+        return null;
+    }
+
+    // Contenuto del file come Resource, per le risposte HTTP (Range e richieste condizionali gestite da Spring)
+    default Resource resource(String folderName, String fileName, ObjectInfo info) {
+        return new StorageResource(this, folderName, fileName, info);
+    }
+
+    // Rifiuta i nomi che uscirebbero dalla cartella o che indicano voci interne
+    static boolean isValidName(String name) {
+        return name != null && !name.isEmpty() && !name.startsWith(".")
+                && name.indexOf('/') < 0 && name.indexOf('\\') < 0 && name.indexOf(':') < 0;
+    }
+}
@@ -0,0 +1,93 @@
+package com.photoandvision.folder_sharing_pp.storage;
+
+import org.springframework.core.io.AbstractResource;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+// Resource su un file dell'archivio. Lo stream viene aperto alla prima lettura: gli skip precedenti
+// (usati da Spring per le richieste Range) spostano solo l'offset, così viene letta solo la parte richiesta
+class StorageResource extends AbstractResource {
+
+    private final StorageBackend storage;
+    private final String folderName;
+    private final String fileName;
+    private final StorageBackend.ObjectInfo info;
+
+    StorageResource(StorageBackend storage, String folderName, String fileName, StorageBackend.ObjectInfo info) {
+        this.storage = storage;
+        this.folderName = folderName;
+        this.fileName = fileName;
+        this.info = info;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return new LazyRangeInputStream();
+    }
+
+    @Override
+    public boolean exists() {
+        return true;
+    }
+
+    @Override
+    public long contentLength() {
+        return info.size();
+    }
+
+    @Override
+    public long lastModified() {
+        return info.lastModified();
+    }
+
+    @Override
+    public String getFilename() {
+        return fileName;
+    }
+
+    @Override
+    public String getDescription() {
+        return "storage [" + storage.location(folderName, fileName) + "]";
+    }
+
+    private final class LazyRangeInputStream extends InputStream {
+
+        private long position;
+        private InputStream delegate;
+
+        @Override
+        public long skip(long n) throws IOException {
+            if (delegate != null) {
+                return delegate.skip(n);
+            }
+            long skipped = Math.max(0, Math.min(n, info.size() - position));
+            position += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return open().read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return open().read(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (delegate != null) {
+                delegate.close();
+            }
+        }
+
+        private InputStream open() throws IOException {
+            if (delegate == null) {
+                delegate = storage.getRange(folderName, fileName, position, -1);
+            }
+            return delegate;
+        }
+    }
+}
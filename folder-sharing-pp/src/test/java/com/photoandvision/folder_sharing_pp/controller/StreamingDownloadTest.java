@@ -0,0 +1,105 @@
+package com.photoandvision.folder_sharing_pp.controller;
+
+import com.photoandvision.folder_sharing_pp.security.JwtService;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Le risposte in streaming (archivio ZIP, elenco NDJSON) scaricate con un token Bearer: il dispatch ASYNC che le
+// completa non ha più l'utente autenticato e non deve essere controllato di nuovo
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@ActiveProfiles("test")
+class StreamingDownloadTest {
+
+    private static final Path ROOT = createRoot();
+    private static final String FOLDER = "f1";
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private JwtService jwtService;
+
+    private final HttpClient client = HttpClient.newHttpClient();
+
+    @DynamicPropertySource
+    static void directories(DynamicPropertyRegistry registry) {
+        registry.add("upload.dir", () -> ROOT + File.separator);
+        registry.add("thumbnail.cache.dir", () -> ROOT.resolve(".thumbnails").toString());
+    }
+
+    @BeforeAll
+    static void createFolder() throws IOException {
+        Path folder = Files.createDirectories(ROOT.resolve(FOLDER));
+        Files.write(folder.resolve("a.jpg"), new byte[4096]);
+        Files.write(folder.resolve("b.jpg"), new byte[8192]);
+    }
+
+    @Test
+    void archiveWithBearerToken() throws Exception {
+        HttpResponse<byte[]> response = get("/api/folders/" + FOLDER + "/archive", MediaType.ALL_VALUE);
+        assertEquals(200, response.statusCode());
+        List<String> names = new ArrayList<>();
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(response.body()))) {
+            for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+                names.add(entry.getName());
+            }
+        }
+        assertTrue(names.stream().anyMatch(name -> name.endsWith("a.jpg")), names.toString());
+        assertTrue(names.stream().anyMatch(name -> name.endsWith("b.jpg")), names.toString());
+    }
+
+    @Test
+    void ndjsonImagesWithBearerToken() throws Exception {
+        HttpResponse<byte[]> response = get("/api/folders/" + FOLDER + "/images", MediaType.APPLICATION_NDJSON_VALUE);
+        assertEquals(200, response.statusCode());
+        String body = new String(response.body(), StandardCharsets.UTF_8);
+        assertEquals(2, body.lines().count(), body);
+        assertTrue(body.contains("\"a.jpg\"") && body.contains("\"b.jpg\""), body);
+    }
+
+    // Un errore nella codifica chunked (risposta interrotta dal server) fa fallire send con una IOException
+    private HttpResponse<byte[]> get(String path, String accept) throws Exception {
+        String token = jwtService.issue(1L, "admin", true).token();
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + port + path))
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + token)
+                .header(HttpHeaders.ACCEPT, accept)
+                .GET()
+                .build();
+        return client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    private static Path createRoot() {
+        try {
+            return Files.createTempDirectory("streaming-download-test");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.photoandvision.folder_sharing_pp.controller;
+
+import com.photoandvision.folder_sharing_pp.security.JwtService;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+// Miniature servite dalla cache su disco: rivalidazione con ETag, e nuova generazione se il file in cache non c'è più
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@ActiveProfiles("test")
+class ThumbnailVariantTest {
+
+    private static final Path ROOT = createRoot();
+    private static final Path CACHE = ROOT.resolve(".thumbnails");
+    private static final String IMAGE = "/api/folders/f1/images/a.jpg?w=64";
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private JwtService jwtService;
+
+    private final HttpClient client = HttpClient.newHttpClient();
+
+    @DynamicPropertySource
+    static void directories(DynamicPropertyRegistry registry) {
+        registry.add("upload.dir", () -> ROOT + File.separator);
+        registry.add("thumbnail.cache.dir", CACHE::toString);
+        registry.add("thumbnail.preset-widths", () -> "");
+    }
+
+    @BeforeAll
+    static void createImage() throws IOException {
+        Path folder = Files.createDirectories(ROOT.resolve("f1"));
+        ImageIO.write(new BufferedImage(256, 128, BufferedImage.TYPE_INT_RGB), "jpg", folder.resolve("a.jpg").toFile());
+    }
+
+    @Test
+    void servesRevalidatesAndRendersAgainAfterEviction() throws Exception {
+        HttpResponse<byte[]> first = get(null);
+        assertEquals(200, first.statusCode());
+        String eTag = first.headers().firstValue(HttpHeaders.ETAG).orElseThrow();
+        assertEquals(64, ImageIO.read(new ByteArrayInputStream(first.body())).getWidth());
+
+        assertEquals(304, get(eTag).statusCode());
+
+        // File eliminato dalla pulizia della cache: è un miss, non un errore
+        try (Stream<Path> files = Files.walk(CACHE)) {
+            for (Path file : files.filter(Files::isRegularFile).toList()) {
+                Files.delete(file);
+            }
+        }
+        HttpResponse<byte[]> again = get(null);
+        assertEquals(200, again.statusCode());
+        assertEquals(eTag, again.headers().firstValue(HttpHeaders.ETAG).orElseThrow());
+        assertNotNull(ImageIO.read(new ByteArrayInputStream(again.body())));
+    }
+
+    private HttpResponse<byte[]> get(String ifNoneMatch) throws Exception {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + port + IMAGE))
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + jwtService.issue(1L, "admin", true).token())
+                .GET();
+        if (ifNoneMatch != null) {
+            request.header(HttpHeaders.IF_NONE_MATCH, ifNoneMatch);
+        }
+        return client.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    private static Path createRoot() {
+        try {
+            return Files.createTempDirectory("thumbnail-variant-test");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
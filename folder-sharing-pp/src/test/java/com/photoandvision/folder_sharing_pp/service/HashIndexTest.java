@@ -0,0 +1,239 @@
+package com.photoandvision.folder_sharing_pp.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Verifica di HashIndex contro la ricerca esaustiva, dopo inserimenti, aggiornamenti ed eliminazioni
+// (comprese quelle che ricostruiscono l'indice), e di LongIntMap contro HashMap.
+// Nel pacchetto di HashIndex, che non è pubblico. La ricerca esaustiva e gli hash di prova sono usati anche da HashIndexBenchmark
+class HashIndexTest {
+
+    private static final long SEED = 42;
+    private static final int FOLDERS = 8;
+    private static final int[] DISTANCES = { 0, 1, 3, 4, 7, 8, 12, 15 };
+
+    // Stato atteso: id -> { cartella, hash }
+    private final Map<Long, long[]> expected = new HashMap<>();
+    private final HashIndex index = new HashIndex();
+    private final Random random = new Random(SEED);
+
+    @Test
+    void matchesBruteForce() {
+        long[] codes = clusteredCodes(random, 20_000);
+        for (int i = 0; i < codes.length; i++) {
+            put(i, random.nextInt(FOLDERS), codes[i]);
+        }
+        verify("inserimento");
+
+        // Aggiornamenti: stesso id con un altro hash o un'altra cartella, e un put identico che non cambia niente
+        for (int i = 0; i < 2_000; i++) {
+            long id = random.nextInt(codes.length);
+            long[] entry = expected.get(id);
+            switch (i % 3) {
+                case 0 -> put(id, entry[0], flip(random, entry[1], 1 + random.nextInt(6)));
+                case 1 -> put(id, (entry[0] + 1) % FOLDERS, entry[1]);
+                default -> put(id, entry[0], entry[1]);
+            }
+        }
+        verify("aggiornamento");
+
+        // Un'eliminazione su tre: le voci restano nei bucket come REMOVED, sotto la soglia di ricostruzione
+        for (long id = 0; id < codes.length; id += 3) {
+            remove(id);
+        }
+        remove(-5); // Id mai inserito
+        verify("eliminazione senza ricostruzione");
+
+        // Oltre metà delle voci eliminate: compact() ricostruisce array, bucket e posizioni
+        for (long id = 1; id < codes.length; id += 3) {
+            remove(id);
+        }
+        verify("eliminazione con ricostruzione");
+
+        // Nuove voci dopo la ricostruzione, anche con id già eliminati
+        long[] more = clusteredCodes(random, 5_000);
+        for (int i = 0; i < more.length; i++) {
+            put(i % 2 == 0 ? i * 3L : codes.length + i, random.nextInt(FOLDERS), more[i]);
+        }
+        verify("reinserimento");
+    }
+
+    // LongIntMap contro HashMap: chiavi consecutive e negative (sequenze di probing lunghe), molte eliminazioni
+    @Test
+    void longIntMapMatchesHashMap() {
+        HashIndex.LongIntMap map = new HashIndex.LongIntMap(16);
+        Map<Long, Integer> expected = new HashMap<>();
+        long range = 50_000;
+        for (int i = 0; i < 500_000; i++) {
+            long key = random.nextLong(range) - range / 2;
+            if (random.nextInt(3) == 0) {
+                map.remove(key);
+                expected.remove(key);
+            } else {
+                int value = random.nextInt(Integer.MAX_VALUE);
+                map.put(key, value);
+                expected.put(key, value);
+            }
+            if (i % 50_000 == 0) {
+                for (long k = -range / 2; k < range / 2; k++) {
+                    assertEquals(expected.getOrDefault(k, -1), map.get(k), "get(" + k + ")");
+                }
+            }
+        }
+        for (long k = -range / 2; k < range / 2; k++) {
+            map.remove(k);
+        }
+        for (long k = -range / 2; k < range / 2; k++) {
+            assertEquals(-1, map.get(k), "chiave " + k + " presente dopo l'eliminazione");
+        }
+    }
+
+    private void put(long id, long folderId, long code) {
+        index.put(id, folderId, code);
+        expected.put(id, new long[] { folderId, code });
+    }
+
+    private void remove(long id) {
+        index.remove(id);
+        expected.remove(id);
+    }
+
+    private void verify(String phase) {
+        assertEquals(expected.size(), index.size(), phase + ": size");
+
+        int count = expected.size();
+        long[] ids = new long[count];
+        long[] folderIds = new long[count];
+        long[] codes = new long[count];
+        int n = 0;
+        for (Map.Entry<Long, long[]> entry : expected.entrySet()) {
+            ids[n] = entry.getKey();
+            folderIds[n] = entry.getValue()[0];
+            codes[n] = entry.getValue()[1];
+            n++;
+        }
+
+        for (int q = 0; q < 300; q++) {
+            // Hash vicini a una voce presente, e ogni tanto casuali
+            long code = q % 10 == 0 ? random.nextLong() : flip(random, codes[random.nextInt(count)], random.nextInt(10));
+            int distance = DISTANCES[q % DISTANCES.length];
+            long folderId = q % 2 == 0 ? -1 : random.nextInt(FOLDERS);
+            assertEquals(bruteForceNear(ids, folderIds, codes, count, code, distance, folderId), index.near(code, distance, folderId),
+                    phase + ": near(" + Long.toHexString(code) + ", " + distance + ", " + folderId + ")");
+        }
+
+        for (long folderId = 0; folderId < FOLDERS; folderId++) {
+            for (int distance : new int[] { 4, 10 }) {
+                List<long[]> actual = index.clusters(folderId, distance);
+                List<long[]> wanted = bruteForceClusters(ids, folderIds, codes, count, folderId, distance);
+                assertTrue(sameClusters(actual, wanted), phase + ": clusters(" + folderId + ", " + distance + ") ha "
+                        + actual.size() + " gruppi invece di " + wanted.size());
+            }
+        }
+    }
+
+    // Ricerca esaustiva: stesso ordinamento di HashIndex.near
+    static List<HashIndex.Match> bruteForceNear(long[] ids, long[] folderIds, long[] codes, int count,
+                                                long code, int maxDistance, long folderId) {
+        List<HashIndex.Match> matches = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            if (folderId >= 0 && folderIds[i] != folderId) {
+                continue;
+            }
+            int distance = Long.bitCount(code ^ codes[i]);
+            if (distance <= maxDistance) {
+                matches.add(new HashIndex.Match(ids[i], folderIds[i], distance));
+            }
+        }
+        matches.sort(Comparator.comparingInt(HashIndex.Match::distance).thenComparingLong(HashIndex.Match::id));
+        return matches;
+    }
+
+    // Gruppi della cartella con union-find su tutte le coppie: stesso ordinamento di HashIndex.clusters
+    static List<long[]> bruteForceClusters(long[] ids, long[] folderIds, long[] codes, int count, long folderId, int maxDistance) {
+        List<Integer> members = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            if (folderIds[i] == folderId) {
+                members.add(i);
+            }
+        }
+        int[] parent = new int[members.size()];
+        for (int i = 0; i < parent.length; i++) {
+            parent[i] = i;
+        }
+        for (int i = 0; i < parent.length; i++) {
+            long code = codes[members.get(i)];
+            for (int j = i + 1; j < parent.length; j++) {
+                if (Long.bitCount(code ^ codes[members.get(j)]) <= maxDistance) {
+                    parent[root(parent, i)] = root(parent, j);
+                }
+            }
+        }
+        Map<Integer, List<Long>> groups = new HashMap<>();
+        for (int i = 0; i < parent.length; i++) {
+            groups.computeIfAbsent(root(parent, i), key -> new ArrayList<>()).add(ids[members.get(i)]);
+        }
+        List<long[]> clusters = new ArrayList<>();
+        for (List<Long> group : groups.values()) {
+            if (group.size() > 1) {
+                long[] cluster = group.stream().mapToLong(Long::longValue).toArray();
+                Arrays.sort(cluster);
+                clusters.add(cluster);
+            }
+        }
+        clusters.sort(Comparator.comparingInt((long[] cluster) -> cluster.length).reversed()
+                .thenComparingLong(cluster -> cluster[0]));
+        return clusters;
+    }
+
+    // Hash in gruppi: un hash casuale e copie con pochi bit diversi, come le versioni ridimensionate di una foto
+    static long[] clusteredCodes(Random random, int count) {
+        long[] codes = new long[count];
+        long base = random.nextLong();
+        for (int i = 0; i < count; i++) {
+            if (random.nextInt(4) == 0) {
+                base = random.nextLong();
+            }
+            codes[i] = flip(random, base, random.nextInt(13));
+        }
+        return codes;
+    }
+
+    // Inverte bit scelti a caso (lo stesso bit può essere scelto due volte: la distanza è al più bits)
+    static long flip(Random random, long code, int bits) {
+        for (int i = 0; i < bits; i++) {
+            code ^= 1L << random.nextInt(64);
+        }
+        return code;
+    }
+
+    private static int root(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    private static boolean sameClusters(List<long[]> a, List<long[]> b) {
+        if (a.size() != b.size()) {
+            return false;
+        }
+        for (int i = 0; i < a.size(); i++) {
+            if (!Arrays.equals(a.get(i), b.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,59 @@
+package com.photoandvision.folder_sharing_pp.service;
+
+import com.photoandvision.folder_sharing_pp.storage.LocalStorageBackend;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+class HotImageCacheTest {
+
+    @TempDir
+    Path root;
+
+    private LocalStorageBackend storage;
+    private HotImageCache cache;
+
+    // Finestra di 1 KB, area principale di 9 KB (18 immagini da 512 byte). Il candidato da 1 KB richiede due vittime:
+    // è più richiesto della prima (p0) ma non della seconda (p1). Il confronto è solo con la prima, e le vittime
+    // vengono eliminate solo dopo l'ammissione
+    @Test
+    void admitsAgainstFirstVictimOnly() throws IOException {
+        storage = new LocalStorageBackend(new String[] { root.toString() }, 0);
+        cache = new HotImageCache(storage, true, 10 * 1024, 1024);
+        Files.createDirectories(root.resolve("f"));
+
+        for (int i = 0; i < 18; i++) {
+            request("p" + i, 512, i == 1 ? 3 : 2); // p1 letta tre volte mentre è nella finestra: frequenza 3
+        }
+        request("w0", 512, 2); // Spingono p16 e p17 nell'area principale, ora piena
+        request("w1", 512, 2);
+        HotImageCache.Stats full = cache.stats();
+        assertEquals(0, full.evictions());
+
+        request("big", 1024, 3); // Spinge fuori w0 e w1, respinti (frequenza 2 contro p0)
+        request("x", 512, 2); // Spinge big verso l'area principale: 3 contro p0 (2), ammesso
+        HotImageCache.Stats after = cache.stats();
+        assertEquals(2, after.evictions()); // p0 e p1
+        assertEquals(full.rejections() + 2, after.rejections());
+
+        long hits = after.hits();
+        assertNotNull(cache.get("f", "big", storage.stat("f", "big")));
+        assertEquals(hits + 1, cache.stats().hits());
+    }
+
+    private void request(String name, int size, int times) throws IOException {
+        Path file = root.resolve("f").resolve(name);
+        if (!Files.exists(file)) {
+            Files.write(file, new byte[size]);
+        }
+        for (int i = 0; i < times; i++) {
+            cache.get("f", name, storage.stat("f", name));
+        }
+    }
+}
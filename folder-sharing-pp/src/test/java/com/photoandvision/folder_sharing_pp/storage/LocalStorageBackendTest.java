@@ -0,0 +1,44 @@
+package com.photoandvision.folder_sharing_pp.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LocalStorageBackendTest {
+
+    private static final String SHA = "ab".repeat(32);
+
+    @TempDir
+    Path root;
+
+    // Il contenuto condiviso resta in .blobs finché una cartella lo usa, poi la pulizia lo elimina
+    @Test
+    void removesBlobWhenNoFolderUsesIt() throws IOException {
+        LocalStorageBackend storage = new LocalStorageBackend(new String[] { root.toString() }, 0);
+        storage.createDirectories();
+        Path blob = root.resolve(LocalStorageBackend.BLOB_DIR).resolve("ab").resolve("ab").resolve(SHA);
+
+        assertFalse(storage.put("f1", "a.jpg", staged("a"), SHA).deduplicated());
+        assertTrue(storage.put("f2", "a.jpg", staged("b"), SHA).deduplicated());
+
+        storage.delete("f1", "a.jpg");
+        storage.removeUnusedBlobs();
+        assertTrue(Files.exists(blob));
+        assertEquals("a", Files.readString(root.resolve("f2").resolve("a.jpg")));
+
+        storage.deleteFolder("f2");
+        storage.removeUnusedBlobs();
+        assertFalse(Files.exists(blob));
+    }
+
+    private Path staged(String content) throws IOException {
+        return Files.writeString(Files.createTempFile(root, ".staged", ".tmp"), content);
+    }
+}